@@ -140,8 +140,8 @@ public class LinkedBlockingDeque<E> extends AbstractQueue<E>
      */
     private transient Node<E> last; // @GuardedBy("lock")
 
-    /** Number of items in the deque */
-    private transient int count; // @GuardedBy("lock")
+    /** Number of items in the deque. Written under the lock, read without it by {@link #size()}. */
+    private transient volatile int count;
 
     /** Maximum number of items in the deque */
     private final int capacity;
@@ -986,12 +986,7 @@ public class LinkedBlockingDeque<E> extends AbstractQueue<E>
      */
     @Override
     public int size() {
-        lock.lock();
-        try {
-            return count;
-        } finally {
-            lock.unlock();
-        }
+        return count;
     }
 
     /**
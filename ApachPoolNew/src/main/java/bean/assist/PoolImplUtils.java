@@ -19,6 +19,8 @@ package bean.assist;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 
 import bean.inter.factory.PooledObjectFactory;
 
@@ -29,6 +31,25 @@ import bean.inter.factory.PooledObjectFactory;
  */
 public class PoolImplUtils {
 
+    /** SimpleDateFormat is not thread safe and expensive to create, so each thread keeps one */
+    private static final ThreadLocal<SimpleDateFormat> TIME_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+        }
+    };
+
+    /**
+     * Formats a timestamp for messages and JMX attributes.
+     * 
+     * @param timeMillis
+     *            the time in milliseconds since the epoch
+     * @return the time as {@code yyyy-MM-dd HH:mm:ss Z}
+     */
+    public static String formatTime(long timeMillis) {
+        return TIME_FORMAT.get().format(new Date(timeMillis));
+    }
+
     @SuppressWarnings("rawtypes")
     public static Class<?> getFactoryType(Class<? extends PooledObjectFactory> factory) {
         return (Class<?>) getGenericType(PooledObjectFactory.class, factory);
@@ -0,0 +1,63 @@
+package bean.assist;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 
+ * @Author daimin
+ * @Description 限速器，按固定间隔发放许可，多个线程共享同一速率；空闲期间不积累许可，避免恢复时突发
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+
+    /** The earliest time the next permit can be handed out, on the {@link System#nanoTime()} scale. */
+    private final AtomicLong nextFree = new AtomicLong(System.nanoTime());
+
+    public RateLimiter(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0d)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive.");
+        }
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1L) / permitsPerSecond));
+    }
+
+    /**
+     * 获取一个许可，必要时休眠到许可可用
+     */
+    public void acquire() throws InterruptedException {
+        long now = System.nanoTime();
+        long slot;
+        for (;;) {
+            long next = nextFree.get();
+            slot = next - now > 0 ? next : now;
+            if (nextFree.compareAndSet(next, slot + intervalNanos)) {
+                break;
+            }
+        }
+        long wait = slot - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * 许可可用时立即获取并返回true，否则不等待直接返回false
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        for (;;) {
+            long next = nextFree.get();
+            if (next - now > 0) {
+                return false;
+            }
+            if (nextFree.compareAndSet(next, now + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    public double getPermitsPerSecond() {
+        return (double) TimeUnit.SECONDS.toNanos(1L) / intervalNanos;
+    }
+}
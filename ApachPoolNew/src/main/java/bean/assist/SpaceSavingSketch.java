@@ -0,0 +1,182 @@
+package bean.assist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 
+ * @Author daimin
+ * @Description 高频key统计（Space-Saving算法），只保留固定数量的计数器，近似找出权重累计最大的key；计数按半衰期衰减，反映近期的情况。
+ *              按key的hash分段加锁，不同段的key互不竞争
+ */
+public class SpaceSavingSketch<K> {
+
+    private static final int STRIPES = 8;
+
+    private final Stripe<K>[] stripes;
+
+    private final long halfLifeNanos;
+
+    /**
+     * @param capacity
+     *            计数器总数，决定能可靠跟踪的key的个数
+     * @param halfLifeMillis
+     *            计数减半的周期，不大于0表示不衰减
+     */
+    @SuppressWarnings("unchecked")
+    public SpaceSavingSketch(int capacity, long halfLifeMillis) {
+        if (capacity < STRIPES) {
+            throw new IllegalArgumentException("capacity must be at least " + STRIPES + ".");
+        }
+        this.halfLifeNanos = halfLifeMillis > 0 ? halfLifeMillis * 1000000L : 0L;
+        this.stripes = (Stripe<K>[]) new Stripe<?>[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<K>(capacity / STRIPES);
+        }
+    }
+
+    public void add(K key, long weight) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        Stripe<K> stripe = stripes[h & (STRIPES - 1)];
+        synchronized (stripe) {
+            if (halfLifeNanos > 0) {
+                stripe.decay(System.nanoTime(), halfLifeNanos);
+            }
+            stripe.add(key, weight);
+        }
+    }
+
+    /**
+     * 返回计数最大的n个key，按计数从大到小排列
+     */
+    public List<Entry<K>> top(int n) {
+        List<Entry<K>> all = new ArrayList<Entry<K>>();
+        long now = System.nanoTime();
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                if (halfLifeNanos > 0) {
+                    stripe.decay(now, halfLifeNanos);
+                }
+                for (Counter<K> c : stripe.counters.values()) {
+                    all.add(new Entry<K>(c.key, c.count, c.error));
+                }
+            }
+        }
+        Collections.sort(all, new Comparator<Entry<K>>() {
+            @Override
+            public int compare(Entry<K> a, Entry<K> b) {
+                return a.count < b.count ? 1 : a.count > b.count ? -1 : 0;
+            }
+        });
+        return all.size() > n ? new ArrayList<Entry<K>>(all.subList(0, Math.max(0, n))) : all;
+    }
+
+    public void clear() {
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.counters.clear();
+            }
+        }
+    }
+
+    /**
+     * 一个key的统计结果；count可能高估，最多高估error
+     */
+    public static final class Entry<K> {
+        private final K key;
+        private final long count;
+        private final long error;
+
+        Entry(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + "(±" + error + ")";
+        }
+    }
+
+    private static final class Counter<K> {
+        final K key;
+        long count;
+        long error;
+
+        Counter(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    private static final class Stripe<K> {
+        final int capacity;
+        final Map<K, Counter<K>> counters;
+        long lastDecay = System.nanoTime();
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+            this.counters = new HashMap<K, Counter<K>>(capacity * 2);
+        }
+
+        void add(K key, long weight) {
+            Counter<K> c = counters.get(key);
+            if (c != null) {
+                c.count += weight;
+                return;
+            }
+            if (counters.size() < capacity) {
+                counters.put(key, new Counter<K>(key, weight, 0L));
+                return;
+            }
+            // Replace the smallest counter, the new key inherits its count as error
+            Counter<K> min = null;
+            for (Counter<K> candidate : counters.values()) {
+                if (min == null || candidate.count < min.count) {
+                    min = candidate;
+                }
+            }
+            counters.remove(min.key);
+            counters.put(key, new Counter<K>(key, min.count + weight, min.count));
+        }
+
+        void decay(long now, long halfLifeNanos) {
+            int halvings = 0;
+            while (now - lastDecay >= halfLifeNanos && halvings < 64) {
+                lastDecay += halfLifeNanos;
+                halvings++;
+            }
+            if (halvings == 0) {
+                return;
+            }
+            if (halvings >= 64) {
+                lastDecay = now;
+                counters.clear();
+                return;
+            }
+            for (Counter<K> c : counters.values()) {
+                c.count >>>= halvings;
+                c.error >>>= halvings;
+            }
+        }
+    }
+}
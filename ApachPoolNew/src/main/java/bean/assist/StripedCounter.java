@@ -0,0 +1,61 @@
+package bean.assist;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 
+ * @Author daimin
+ * @Description 分段计数器，多线程并发增减时分散到不同的槽位，避免所有线程竞争同一个AtomicLong
+ */
+public class StripedCounter {
+
+    /** Cells are spread 8 longs (one cache line) apart to avoid false sharing. */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES;
+
+    static {
+        int n = 1;
+        int target = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        while (n < target) {
+            n <<= 1;
+        }
+        STRIPES = n;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        cells.getAndIncrement(index());
+    }
+
+    public void decrement() {
+        cells.getAndDecrement(index());
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(index(), delta);
+    }
+
+    /**
+     * Returns the current total. The result is exact when there are no concurrent updates, otherwise it reflects some of them.
+     * 
+     * @return the sum of all stripes
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return (h & (STRIPES - 1)) * PADDING;
+    }
+}
@@ -1,10 +1,9 @@
 package bean.impl;
 
 import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Deque;
 
+import bean.assist.PoolImplUtils;
 import bean.inter.PooledObject;
 import bean.inter.assist.TrackedUse;
 import enums.PooledObjectState;
@@ -225,11 +224,6 @@ public class DefaultPooledObject<T> implements PooledObject<T> {
 
         private static final long serialVersionUID = 7398692158058772916L;
 
-        /** Date format */
-        // @GuardedBy("format")
-        private static final SimpleDateFormat format = new SimpleDateFormat("'Pooled object created' yyyy-MM-dd HH:mm:ss Z "
-                + "'by the following code has not been returned to the pool:'");
-
         private final long _createdTime;
 
         /**
@@ -247,11 +241,7 @@ public class DefaultPooledObject<T> implements PooledObject<T> {
         // dates unless the log message will actually be used.
         @Override
         public String getMessage() {
-            String msg;
-            synchronized (format) {
-                msg = format.format(new Date(_createdTime));
-            }
-            return msg;
+            return "Pooled object created " + PoolImplUtils.formatTime(_createdTime) + " by the following code has not been returned to the pool:";
         }
     }
 }
\ No newline at end of file
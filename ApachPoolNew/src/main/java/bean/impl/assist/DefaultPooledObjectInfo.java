@@ -2,19 +2,31 @@ package bean.impl.assist;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.SimpleDateFormat;
 
+import bean.assist.PoolImplUtils;
 import bean.impl.DefaultPooledObject;
 import bean.inter.PooledObject;
 import bean.inter.jmx.DefaultPooledObjectInfoMBean;
 
 public class DefaultPooledObjectInfo implements DefaultPooledObjectInfoMBean {
-    private final String TIME_FORMAT="yyyy-MM-dd HH:mm:ss Z";
-
     private final PooledObject<?> pooledObject;
 
+    private final boolean includeBorrowTrace;
+
     public DefaultPooledObjectInfo(PooledObject<?> pooledObject) {
+        this(pooledObject, true);
+    }
+
+    /**
+     * @param pooledObject
+     *            the object to describe
+     * @param includeBorrowTrace
+     *            whether {@link #getLastBorrowTrace()} renders the borrowing stack trace. When {@code false} it returns {@code null}, which avoids rendering
+     *            a full stack trace for every object when JMX reads all attributes of a listing.
+     */
+    public DefaultPooledObjectInfo(PooledObject<?> pooledObject, boolean includeBorrowTrace) {
         this.pooledObject = pooledObject;
+        this.includeBorrowTrace = includeBorrowTrace;
     }
 
     @Override
@@ -24,8 +36,7 @@ public class DefaultPooledObjectInfo implements DefaultPooledObjectInfoMBean {
 
     @Override
     public String getCreateTimeFormatted() {
-        SimpleDateFormat sdf = new SimpleDateFormat(TIME_FORMAT);
-        return sdf.format(Long.valueOf(pooledObject.getCreateTime()));
+        return PoolImplUtils.formatTime(pooledObject.getCreateTime());
     }
 
     @Override
@@ -35,12 +46,14 @@ public class DefaultPooledObjectInfo implements DefaultPooledObjectInfoMBean {
 
     @Override
     public String getLastBorrowTimeFormatted() {
-        SimpleDateFormat sdf = new SimpleDateFormat(TIME_FORMAT);
-        return sdf.format(Long.valueOf(pooledObject.getLastBorrowTime()));
+        return PoolImplUtils.formatTime(pooledObject.getLastBorrowTime());
     }
 
     @Override
     public String getLastBorrowTrace() {
+        if (!includeBorrowTrace) {
+            return null;
+        }
         StringWriter sw = new StringWriter();
         pooledObject.printStackTrace(new PrintWriter(sw));
         return sw.toString();
@@ -53,8 +66,7 @@ public class DefaultPooledObjectInfo implements DefaultPooledObjectInfoMBean {
 
     @Override
     public String getLastReturnTimeFormatted() {
-        SimpleDateFormat sdf = new SimpleDateFormat(TIME_FORMAT);
-        return sdf.format(Long.valueOf(pooledObject.getLastReturnTime()));
+        return PoolImplUtils.formatTime(pooledObject.getLastReturnTime());
     }
 
     @Override
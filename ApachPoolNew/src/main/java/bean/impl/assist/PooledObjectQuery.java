@@ -0,0 +1,134 @@
+package bean.impl.assist;
+
+import bean.impl.DefaultPooledObject;
+import bean.inter.PooledObject;
+import enums.PooledObjectState;
+
+/**
+ * Selects a page of the objects of a pool by state, idle time and borrow count. Unset criteria match every object.
+ * <p>
+ * Pages are taken from the iteration order of the pool's internal hash map, not from a stable cursor. Creating or destroying objects between two calls
+ * can change that order, so on a live pool consecutive pages may skip or repeat objects. Use an unlimited query for a complete listing.
+ */
+public class PooledObjectQuery {
+
+    public static final int DEFAULT_LIMIT = 100;
+
+    private PooledObjectState state = null;
+    private long minIdleTimeMillis = -1;
+    private long minBorrowedCount = -1;
+    private int offset = 0;
+    private int limit = DEFAULT_LIMIT;
+    private boolean includeBorrowTrace = false;
+
+    public PooledObjectState getState() {
+        return state;
+    }
+
+    /**
+     * @param state
+     *            the only state to match, or {@code null} for any state
+     */
+    public void setState(PooledObjectState state) {
+        this.state = state;
+    }
+
+    public long getMinIdleTimeMillis() {
+        return minIdleTimeMillis;
+    }
+
+    /**
+     * @param minIdleTimeMillis
+     *            match only {@link PooledObjectState#IDLE idle} objects that have been idle at least this long; negative to disable
+     */
+    public void setMinIdleTimeMillis(long minIdleTimeMillis) {
+        this.minIdleTimeMillis = minIdleTimeMillis;
+    }
+
+    public long getMinBorrowedCount() {
+        return minBorrowedCount;
+    }
+
+    /**
+     * @param minBorrowedCount
+     *            match only objects borrowed at least this many times; negative to disable
+     */
+    public void setMinBorrowedCount(long minBorrowedCount) {
+        this.minBorrowedCount = minBorrowedCount;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @param offset
+     *            the number of matching objects to skip
+     */
+    public void setOffset(int offset) {
+        this.offset = Math.max(0, offset);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param limit
+     *            the maximum number of objects returned; negative for no limit
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public boolean getIncludeBorrowTrace() {
+        return includeBorrowTrace;
+    }
+
+    /**
+     * @param includeBorrowTrace
+     *            whether the returned {@link DefaultPooledObjectInfo} render the stack trace of the last borrower
+     */
+    public void setIncludeBorrowTrace(boolean includeBorrowTrace) {
+        this.includeBorrowTrace = includeBorrowTrace;
+    }
+
+    /**
+     * Tests an object against the filter criteria, ignoring offset and limit.
+     * 
+     * @param p
+     *            the object to test
+     * @return {@code true} if the object matches
+     */
+    public boolean matches(PooledObject<?> p) {
+        if (state != null || minIdleTimeMillis >= 0) {
+            PooledObjectState s = p.getState();
+            if (state != null && s != state) {
+                return false;
+            }
+            if (minIdleTimeMillis >= 0 && (s != PooledObjectState.IDLE || p.getIdleTimeMillis() < minIdleTimeMillis)) {
+                return false;
+            }
+        }
+        if (minBorrowedCount >= 0) {
+            long borrowed = p instanceof DefaultPooledObject ? ((DefaultPooledObject<?>) p).getBorrowedCount() : -1;
+            if (borrowed < minBorrowedCount) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PooledObjectQuery");
+        sb.append("{state=").append(state);
+        sb.append(", minIdleTimeMillis=").append(minIdleTimeMillis);
+        sb.append(", minBorrowedCount=").append(minBorrowedCount);
+        sb.append(", offset=").append(offset);
+        sb.append(", limit=").append(limit);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bean.impl.pool;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+import bean.inter.jmx.ByteBufferPoolMXBean;
+import bean.inter.pool.base.BaseMagazinePool;
+import config.pool.BaseObjectPoolConfig;
+import config.pool.impl.ByteBufferPoolConfig;
+
+/**
+ * A pool of direct {@link ByteBuffer}s of power-of-two size classes.
+ * <p>
+ * A request is served from the smallest size class that fits it; the returned buffer has the capacity of the size class and its limit set to the
+ * requested size. Requests larger than the largest size class are allocated directly and are not recycled. Released buffers are cached in per-thread
+ * magazines backed by a shared depot per size class, as described in {@link BaseMagazinePool}.
+ * <p>
+ * New buffers are sliced from slabs, large direct regions allocated with {@link ByteBuffer#allocateDirect(int)}, which keeps the number of direct
+ * allocations and their bookkeeping overhead low. Slabs are never returned to the system while the pool is open, and the total size of the slabs and
+ * of the oversized buffers in use is bounded by {@link ByteBufferPoolConfig#getMaxDirectMemory()}; an acquire that would exceed it fails with a
+ * {@code NoSuchElementException}. The depots are therefore not bounded, since a dropped slice would never give its memory back to the budget.
+ * <p>
+ * Unlike a {@link GenericObjectPool} of buffers, the pool does not track the buffers it hands out. Only buffers acquired from this pool may be released
+ * to it, each of them once, and a buffer must not be used after it has been released.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ByteBufferPool extends BaseMagazinePool<ByteBuffer> implements ByteBufferPoolMXBean {
+
+    private static final String ONAME_BASE = "org.apache.commons.pool2:type=ByteBufferPool,name=";
+
+    private final int slabSize;
+    private final long maxDirectMemory;
+
+    /** The slab each size class is currently slicing new buffers from, guarded by the slab array */
+    private final ByteBuffer[] slabs;
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong slabCount = new AtomicLong();
+
+    private final ObjectName oname;
+
+    public ByteBufferPool() {
+        this(new ByteBufferPoolConfig());
+    }
+
+    public ByteBufferPool(ByteBufferPoolConfig config) {
+        super(checkConfig(config).getMinBufferSize(), config.getMaxBufferSize(), config.getMagazineSize(), roundUpToPowerOfTwo(config.getSlabSize()),
+                UNLIMITED);
+        this.slabSize = roundUpToPowerOfTwo(config.getSlabSize());
+        this.maxDirectMemory = config.getMaxDirectMemory();
+        this.slabs = new ByteBuffer[getSizeClasses().length];
+
+        if (config.getJmxEnabled()) {
+            this.oname = jmxRegister(config);
+        } else {
+            this.oname = null;
+        }
+    }
+
+    private static ByteBufferPoolConfig checkConfig(ByteBufferPoolConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null.");
+        }
+        if (config.getSlabSize() <= 0 || config.getSlabSize() > MAX_SIZE_CLASS) {
+            throw new IllegalArgumentException("slabSize must be positive and must not exceed " + MAX_SIZE_CLASS + ".");
+        }
+        return config;
+    }
+
+    /**
+     * Obtains a buffer with room for at least {@code size} bytes. The buffer's position is zero, its limit is {@code size} and its byte order is
+     * {@link ByteOrder#BIG_ENDIAN}; its contents are undefined.
+     *
+     * @param size
+     *            the number of bytes required
+     * @return a direct buffer, which should be passed to {@link #release(ByteBuffer)} once it is no longer used
+     * @throws IllegalStateException
+     *             if this pool has been closed
+     * @throws NoSuchElementException
+     *             if a new buffer is needed and allocating it would exceed the direct memory budget
+     */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative.");
+        }
+        assertOpen();
+        if (size > getMaxSize()) {
+            return allocateOversize(size);
+        }
+        ByteBuffer buffer = take(size);
+        if (buffer == null) {
+            throw new NoSuchElementException("Direct memory budget of " + maxDirectMemory + " bytes exhausted");
+        }
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers released after the pool has been closed are dropped.
+     *
+     * @param buffer
+     *            a buffer obtained from {@link #acquire(int)}
+     * @throws IllegalArgumentException
+     *             if the buffer cannot have been acquired from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer must not be null.");
+        }
+        int capacity = buffer.capacity();
+        if (buffer.isDirect() && capacity > getMaxSize()) {
+            reservedBytes.addAndGet(-capacity);
+            return;
+        }
+        int sizeClass = sizeClassOf(capacity);
+        if (!buffer.isDirect() || sizeClass < 0) {
+            throw new IllegalArgumentException("buffer was not acquired from this pool.");
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        give(sizeClass, buffer);
+    }
+
+    /**
+     * Closes the pool. The cached buffers and slabs are dropped and left to the garbage collector; buffers still in use can be released, but are not
+     * recycled.
+     */
+    @Override
+    public void close() {
+        if (isClosed()) {
+            return;
+        }
+        super.close();
+        jmxUnregister();
+        synchronized (slabs) {
+            for (int i = 0; i < slabs.length; i++) {
+                slabs[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Slices a new buffer from the current slab of the size class, allocating a new slab when it is used up.
+     *
+     * @return the new buffer, or {@code null} if a new slab is needed and the budget does not allow it
+     */
+    @Override
+    protected ByteBuffer create(int size) {
+        int index = sizeClassOf(size);
+        synchronized (slabs) {
+            ByteBuffer slab = slabs[index];
+            if (slab == null || !slab.hasRemaining()) {
+                int bytes = Math.max(slabSize, size);
+                if (!reserve(bytes)) {
+                    return null;
+                }
+                try {
+                    slab = ByteBuffer.allocateDirect(bytes);
+                } catch (OutOfMemoryError e) {
+                    reservedBytes.addAndGet(-bytes);
+                    throw e;
+                }
+                slabs[index] = slab;
+                slabCount.incrementAndGet();
+            }
+            int offset = slab.position();
+            slab.limit(offset + size);
+            ByteBuffer buffer = slab.slice();
+            slab.limit(slab.capacity());
+            slab.position(offset + size);
+            return buffer;
+        }
+    }
+
+    private ByteBuffer allocateOversize(int size) {
+        if (!reserve(size)) {
+            throw new NoSuchElementException("Direct memory budget of " + maxDirectMemory + " bytes exhausted");
+        }
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.allocateDirect(size);
+        } catch (OutOfMemoryError e) {
+            reservedBytes.addAndGet(-size);
+            throw e;
+        }
+        recordOversize();
+        return buffer;
+    }
+
+    private boolean reserve(int bytes) {
+        while (true) {
+            long reserved = reservedBytes.get();
+            if (maxDirectMemory >= 0 && reserved + bytes > maxDirectMemory) {
+                return false;
+            }
+            if (reservedBytes.compareAndSet(reserved, reserved + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    private ObjectName jmxRegister(ByteBufferPoolConfig config) {
+        ObjectName objectName = null;
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        int i = 1;
+        boolean registered = false;
+        String base = config.getJmxNameBase();
+        if (base == null) {
+            base = ONAME_BASE;
+        }
+        String prefix = config.getJmxNamePrefix();
+        while (!registered) {
+            try {
+                ObjectName objName;
+                // Skip the numeric suffix for the first pool in case there is
+                // only one so the names are cleaner.
+                if (i == 1) {
+                    objName = new ObjectName(base + prefix);
+                } else {
+                    objName = new ObjectName(base + prefix + i);
+                }
+                mbs.registerMBean(this, objName);
+                objectName = objName;
+                registered = true;
+            } catch (MalformedObjectNameException e) {
+                if (BaseObjectPoolConfig.DEFAULT_JMX_NAME_PREFIX.equals(prefix) && ONAME_BASE.equals(base)) {
+                    // Shouldn't happen. Skip registration if it does.
+                    registered = true;
+                } else {
+                    // Must be an invalid name. Use the defaults instead.
+                    prefix = BaseObjectPoolConfig.DEFAULT_JMX_NAME_PREFIX;
+                    base = ONAME_BASE;
+                }
+            } catch (InstanceAlreadyExistsException e) {
+                // Increment the index and try again
+                i++;
+            } catch (MBeanRegistrationException e) {
+                // Shouldn't happen. Skip registration if it does.
+                registered = true;
+            } catch (NotCompliantMBeanException e) {
+                // Shouldn't happen. Skip registration if it does.
+                registered = true;
+            }
+        }
+        return objectName;
+    }
+
+    private void jmxUnregister() {
+        if (oname != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(oname);
+            } catch (MBeanRegistrationException e) {
+                // Ignore, the pool is closed either way
+            } catch (InstanceNotFoundException e) {
+                // Ignore, the pool is closed either way
+            }
+        }
+    }
+
+    public final ObjectName getJmxName() {
+        return oname;
+    }
+
+    @Override
+    public int getMinBufferSize() {
+        return getMinSize();
+    }
+
+    @Override
+    public int getMaxBufferSize() {
+        return getMaxSize();
+    }
+
+    @Override
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    @Override
+    public long getMaxDirectMemory() {
+        return maxDirectMemory;
+    }
+
+    /**
+     * @return the bytes of direct memory taken by slabs and by oversized buffers in use
+     */
+    @Override
+    public long getReservedDirectMemory() {
+        return reservedBytes.get();
+    }
+
+    @Override
+    public long getSlabCount() {
+        return slabCount.get();
+    }
+}
@@ -0,0 +1,2345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bean.impl.pool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import util.PoolUtils;
+import bean.assist.IdentityWrapper;
+import bean.assist.LinkedBlockingDeque;
+import bean.assist.SpaceSavingSketch;
+import bean.assist.StripedCounter;
+import bean.impl.assist.DefaultPooledObjectInfo;
+import bean.inter.PooledObject;
+import bean.inter.assist.SwallowedExceptionListener;
+import bean.inter.factory.KeyedPooledObjectFactory;
+import bean.inter.factory.RekeyableKeyedPooledObjectFactory;
+import bean.inter.jmx.GenericKeyedObjectPoolMXBean;
+import bean.inter.pool.KeyedObjectPool;
+import bean.inter.pool.base.BaseGenericObjectPool;
+import bean.inter.pool.base.assist.EvictionIterator;
+import config.evict.EvictionConfig;
+import config.evict.EvictionPolicy;
+import config.pool.impl.GenericKeyedObjectPoolConfig;
+import config.quota.KeyQuota;
+import config.quota.KeyQuotaResolver;
+import enums.DestroyCause;
+import enums.FactoryOperation;
+import enums.PooledObjectState;
+
+/**
+ * A configurable <code>KeyedObjectPool</code> implementation.
+ * <p>
+ * The pool keeps one sub-pool per key in a concurrent map. A sub-pool is created the first time its key is used and is removed again once it holds no
+ * objects and no thread is using it, so keys that are no longer borrowed do not accumulate. Borrowing, returning and creating objects for a key only touch
+ * that key's sub-pool and a few atomic counters; the global {@link #getMaxTotal() maxTotal} limit is enforced with an atomic count of the objects in the
+ * pool, not with a lock.
+ * <p>
+ * When a key cannot create an object because the pool as a whole is full, its borrowers queue the key for capacity. Queued keys are served in order: each
+ * gets the capacity of the next object destroyed anywhere in the pool or, if other keys are holding idle objects, one of those idle objects is destroyed
+ * to make room (see {@link #getDestroyedByRebalanceCount()}). The idle object is destroyed before the new object is created, so the pool never holds more
+ * than {@link #getMaxTotal() maxTotal} objects. Keys holding idle objects are kept in a queue, and the object is chosen from the next few keys in it
+ * rather than from all keys.
+ * <p>
+ * A {@link KeyQuotaResolver} can give keys their own limit, a reserve of capacity that other keys cannot use, and a weight. While keys are waiting for
+ * capacity, the key with the fewest objects per unit of weight is served first, and objects are taken from keys holding the most per unit of weight.
+ * <p>
+ * For pools with a very large number of keys that each hold at most one idle object most of the time, {@link #setCompactKeys(boolean) compactKeys} keeps
+ * the idle object of a key in an inline slot and only creates a blocking deque for the key when it needs one.
+ * <p>
+ * If the factory is a {@link RekeyableKeyedPooledObjectFactory}, a borrower that finds no idle object under its key first tries to take an idle object
+ * from a key with the same {@link RekeyableKeyedPooledObjectFactory#getCompatibilityKey(Object) compatibility key} and convert it, and only creates an
+ * object if there is none or the conversion is declined (see {@link #getRekeyedCount()}).
+ *
+ * @param <K>
+ *            The type of keys maintained by this pool.
+ * @param <T>
+ *            Type of element pooled in this pool.
+ */
+public class GenericKeyedObjectPool<K, T> extends BaseGenericObjectPool<T> implements KeyedObjectPool<K, T>, GenericKeyedObjectPoolMXBean<K> {
+
+    public GenericKeyedObjectPool(KeyedPooledObjectFactory<K, T> factory) {
+        this(factory, new GenericKeyedObjectPoolConfig());
+    }
+
+    /**
+     * Create a new <code>GenericKeyedObjectPool</code> using a specific configuration.
+     *
+     * @param factory
+     *            the factory to be used to create entries
+     * @param config
+     *            The configuration to use for this pool instance. The configuration is used by value. Subsequent changes to the configuration object will not
+     *            be reflected in the pool.
+     */
+    public GenericKeyedObjectPool(KeyedPooledObjectFactory<K, T> factory, GenericKeyedObjectPoolConfig config) {
+
+        super(config, ONAME_BASE, config.getJmxNamePrefix());
+
+        if (factory == null) {
+            jmxUnregister(); // tidy up
+            throw new IllegalArgumentException("factory may not be null");
+        }
+        this.factory = factory;
+        this.rekeyFactory = factory instanceof RekeyableKeyedPooledObjectFactory ? (RekeyableKeyedPooledObjectFactory<K, T>) factory : null;
+
+        setConfig(config);
+
+        startEvictor(getTimeBetweenEvictionRunsMillis());
+    }
+
+    /**
+     * Returns the limit on the number of object instances allocated by the pool (checked out or idle), per key. When the limit is reached, the sub-pool is
+     * said to be exhausted. A negative value indicates no limit.
+     *
+     * @return the limit on the number of active instances per key
+     *
+     * @see #setMaxTotalPerKey
+     */
+    @Override
+    public int getMaxTotalPerKey() {
+        return maxTotalPerKey;
+    }
+
+    /**
+     * Sets the limit on the number of object instances allocated by the pool (checked out or idle), per key. When the limit is reached, the sub-pool is said to
+     * be exhausted. A negative value indicates no limit.
+     *
+     * @param maxTotalPerKey
+     *            the limit on the number of active instances per key
+     *
+     * @see #getMaxTotalPerKey
+     */
+    public void setMaxTotalPerKey(int maxTotalPerKey) {
+        this.maxTotalPerKey = maxTotalPerKey;
+    }
+
+    /**
+     * Returns the cap on the number of "idle" instances per key in the pool. If maxIdlePerKey is set too low on heavily loaded systems it is possible you will
+     * see objects being destroyed and almost immediately new objects being created.
+     *
+     * @return the maximum number of "idle" instances that can be held in a given keyed sub-pool or a negative value if there is no limit
+     *
+     * @see #setMaxIdlePerKey
+     */
+    @Override
+    public int getMaxIdlePerKey() {
+        return maxIdlePerKey;
+    }
+
+    /**
+     * Sets the cap on the number of "idle" instances per key in the pool.
+     *
+     * @param maxIdlePerKey
+     *            the maximum number of "idle" instances that can be held in a given keyed sub-pool. Use a negative value for no limit
+     *
+     * @see #getMaxIdlePerKey
+     */
+    public void setMaxIdlePerKey(int maxIdlePerKey) {
+        this.maxIdlePerKey = maxIdlePerKey;
+    }
+
+    /**
+     * Sets the target for the minimum number of idle objects to maintain in each of the keyed sub-pools. This setting only has an effect if it is positive and
+     * {@link #getTimeBetweenEvictionRunsMillis()} is greater than zero. If this is the case, an attempt is made to ensure that each sub-pool has the required
+     * minimum number of instances during idle object eviction runs.
+     * <p>
+     * If the configured value of minIdlePerKey is greater than the configured value for maxIdlePerKey then the value of maxIdlePerKey will be used instead.
+     *
+     * @param minIdlePerKey
+     *            The minimum size of the each keyed pool
+     *
+     * @see #getMinIdlePerKey
+     * @see #getMaxIdlePerKey()
+     * @see #setTimeBetweenEvictionRunsMillis
+     */
+    public void setMinIdlePerKey(int minIdlePerKey) {
+        this.minIdlePerKey = minIdlePerKey;
+    }
+
+    /**
+     * Returns the target for the minimum number of idle objects to maintain in each of the keyed sub-pools.
+     * <p>
+     * If the configured value of minIdlePerKey is greater than the configured value for maxIdlePerKey then the value of maxIdlePerKey will be used instead.
+     *
+     * @return minimum size of the each keyed pool
+     *
+     * @see #setTimeBetweenEvictionRunsMillis
+     */
+    @Override
+    public int getMinIdlePerKey() {
+        int maxIdlePerKeySave = getMaxIdlePerKey();
+        if (this.minIdlePerKey > maxIdlePerKeySave) {
+            return maxIdlePerKeySave;
+        } else {
+            return minIdlePerKey;
+        }
+    }
+
+    /**
+     * Returns the resolver that gives keys their own quota.
+     *
+     * @return the quota resolver, or null if all keys share the pool's per-key settings
+     *
+     * @see #setKeyQuotaResolver
+     */
+    public KeyQuotaResolver<? super K> getKeyQuotaResolver() {
+        return keyQuotaResolver;
+    }
+
+    /**
+     * Sets the resolver that gives keys their own quota. The resolver is consulted when the sub-pool of a key is created, that is when the key is first used
+     * or used again after its sub-pool has been reclaimed; sub-pools that already exist keep the quota they were created with.
+     * <p>
+     * The reserve of a key ({@link KeyQuota#getMinTotal()}) is set aside from {@link #getMaxTotal()} for as long as the key has a sub-pool. If the reserves
+     * already set aside leave too little room, the key gets a smaller reserve or none.
+     *
+     * @param keyQuotaResolver
+     *            the quota resolver, or null to use the pool's per-key settings for all keys
+     */
+    public void setKeyQuotaResolver(KeyQuotaResolver<? super K> keyQuotaResolver) {
+        this.keyQuotaResolver = keyQuotaResolver;
+    }
+
+    /**
+     * Returns the maximum time a run of the idle object evictor may take.
+     *
+     * @return the time limit in milliseconds, zero or negative for no limit other than {@link #getNumTestsPerEvictionRun()}
+     *
+     * @see #setMaxEvictionRunMillis
+     */
+    @Override
+    public long getMaxEvictionRunMillis() {
+        return maxEvictionRunMillis;
+    }
+
+    /**
+     * Sets the maximum time a run of the idle object evictor may take. The limit is checked before each object is examined, so a run can go over it by
+     * the time taken to test and validate one object.
+     *
+     * @param maxEvictionRunMillis
+     *            the time limit in milliseconds, zero or negative for no limit
+     *
+     * @see #getMaxEvictionRunMillis
+     */
+    public void setMaxEvictionRunMillis(long maxEvictionRunMillis) {
+        this.maxEvictionRunMillis = maxEvictionRunMillis;
+    }
+
+    /**
+     * Returns whether new keyed sub-pools start in compact form.
+     *
+     * @return true if sub-pools keep a single idle object inline and only create an idle object deque when they need one
+     *
+     * @see #setCompactKeys
+     */
+    public boolean getCompactKeys() {
+        return compactKeys;
+    }
+
+    /**
+     * Sets whether new keyed sub-pools start in compact form. A compact sub-pool keeps its idle object in an inline slot and creates an idle object deque,
+     * with its lock and conditions, only when a second object goes idle or a borrower has to wait. This saves several hundred bytes for each key that never
+     * needs the deque, at the cost of a little extra work for keys that do. Sub-pools that already exist keep their form.
+     *
+     * @param compactKeys
+     *            true to create compact sub-pools
+     *
+     * @see #getCompactKeys
+     */
+    public void setCompactKeys(boolean compactKeys) {
+        this.compactKeys = compactKeys;
+    }
+
+    /**
+     * Sets the configuration.
+     *
+     * @param conf
+     *            the new configuration to use. This is used by value.
+     *
+     * @see GenericKeyedObjectPoolConfig
+     */
+    public void setConfig(GenericKeyedObjectPoolConfig conf) {
+        setLifo(conf.getLifo());
+        setMaxIdlePerKey(conf.getMaxIdlePerKey());
+        setMaxTotalPerKey(conf.getMaxTotalPerKey());
+        setMaxTotal(conf.getMaxTotal());
+        setMinIdlePerKey(conf.getMinIdlePerKey());
+        setCompactKeys(conf.getCompactKeys());
+        setMaxEvictionRunMillis(conf.getMaxEvictionRunMillis());
+        setMaxWaitMillis(conf.getMaxWaitMillis());
+        setBlockWhenExhausted(conf.getBlockWhenExhausted());
+        setTestOnCreate(conf.getTestOnCreate());
+        setTestOnBorrow(conf.getTestOnBorrow());
+        setTestOnReturn(conf.getTestOnReturn());
+        setTestWhileIdle(conf.getTestWhileIdle());
+        setNumTestsPerEvictionRun(conf.getNumTestsPerEvictionRun());
+        setMinEvictableIdleTimeMillis(conf.getMinEvictableIdleTimeMillis());
+        setSoftMinEvictableIdleTimeMillis(conf.getSoftMinEvictableIdleTimeMillis());
+        setTimeBetweenEvictionRunsMillis(conf.getTimeBetweenEvictionRunsMillis());
+        setEvictionPolicyClassName(conf.getEvictionPolicyClassName());
+        setEventThresholdMillis(conf.getEventThresholdMillis());
+        setMaxWaiters(conf.getMaxWaiters());
+        setShedOnEstimatedWait(conf.getShedOnEstimatedWait());
+    }
+
+    /**
+     * Obtain a reference to the factory used to create, destroy and validate the objects used by this pool.
+     *
+     * @return the factory
+     */
+    public KeyedPooledObjectFactory<K, T> getFactory() {
+        return factory;
+    }
+
+    /**
+     * Equivalent to <code>{@link #borrowObject(Object, long) borrowObject}(key,
+     * {@link #getMaxWaitMillis()})</code>.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public T borrowObject(K key) throws Exception {
+        return borrowObject(key, getMaxWaitMillis());
+    }
+
+    /**
+     * Borrows an object from the sub-pool associated with the given key using the specified waiting time which only applies if
+     * {@link #getBlockWhenExhausted()} is true.
+     * <p>
+     * If there is one or more idle instances available in the sub-pool associated with the given key, then an idle instance will be selected based on the
+     * value of {@link #getLifo()}, activated and returned. If activation fails, or {@link #getTestOnBorrow() testOnBorrow} is set to <code>true</code> and
+     * validation fails, the instance is destroyed and the next available instance is examined. This continues until either a valid instance is returned or
+     * there are no more idle instances available.
+     * <p>
+     * If there are no idle instances available in the sub-pool associated with the given key, behavior depends on the {@link #getMaxTotalPerKey()
+     * maxTotalPerKey}, {@link #getMaxTotal() maxTotal}, and (if applicable) {@link #getBlockWhenExhausted()} and the value passed in to the
+     * <code>borrowMaxWaitMillis</code> parameter. If the number of instances checked out from the sub-pool under the given key is less than
+     * <code>maxTotalPerKey</code> and the total number of instances in circulation (under all keys) is less than <code>maxTotal</code>, a new instance is
+     * created, activated and (if applicable) validated and returned to the caller. If validation fails, a <code>NoSuchElementException</code> will be thrown.
+     * <p>
+     * If the associated sub-pool is exhausted (no available idle instances and no capacity to create new ones), this method will either block
+     * ({@link #getBlockWhenExhausted()} is true) or throw a <code>NoSuchElementException</code> ({@link #getBlockWhenExhausted()} is false). The length of
+     * time that this method will block when {@link #getBlockWhenExhausted()} is true is determined by the value passed in to the
+     * <code>borrowMaxWaitMillis</code> parameter.
+     *
+     * @param key
+     *            pool key
+     * @param borrowMaxWaitMillis
+     *            The time to wait in milliseconds for an object to become available
+     *
+     * @return object instance from the keyed pool
+     *
+     * @throws NoSuchElementException
+     *             if a keyed object instance cannot be returned.
+     * @throws Exception
+     *             if an object instance cannot be returned due to an error
+     */
+    public T borrowObject(K key, long borrowMaxWaitMillis) throws Exception {
+        assertOpen();
+
+        PooledObject<T> p = null;
+
+        // Get local copy of current config so it is consistent for entire
+        // method execution
+        boolean blockWhenExhausted = getBlockWhenExhausted();
+
+        boolean create = false;
+        boolean rekeyed = false;
+        long waitTime = System.nanoTime();
+        ObjectDeque<K, T> objectDeque = register(key);
+
+        try {
+            while (p == null) {
+                create = false;
+                rekeyed = false;
+                p = pollIdleObject(objectDeque);
+                if (p == null && rekeyFactory != null) {
+                    p = rekey(objectDeque);
+                    rekeyed = p != null;
+                }
+                if (p == null) {
+                    p = create(objectDeque);
+                    if (p == null && !blockWhenExhausted && !isKeyFull(objectDeque) && isTotalExhausted()) {
+                        p = createInPlaceOfIdle(objectDeque);
+                    }
+                    if (p != null) {
+                        create = true;
+                    }
+                }
+                if (p == null) {
+                    if (!blockWhenExhausted) {
+                        throw new NoSuchElementException("Pool exhausted");
+                    }
+                    long waitStart = beginWait(borrowMaxWaitMillis);
+                    boolean starving = false;
+                    try {
+                        // Queue the key for capacity held by other keys. The
+                        // queue is drained at once in case that capacity is idle
+                        // or was freed before the key was queued.
+                        starving = !isKeyFull(objectDeque) && isTotalExhausted();
+                        if (starving) {
+                            objectDeque.addCapacityWaiter(1);
+                            markStarving(objectDeque);
+                            reuseCapacity();
+                        }
+                        p = takeIdleObject(objectDeque, borrowMaxWaitMillis);
+                    } finally {
+                        endWait(waitStart, p != null);
+                        if (starving) {
+                            objectDeque.addCapacityWaiter(-1);
+                        }
+                    }
+                    if (p == null) {
+                        throw new NoSuchElementException("Timeout waiting for idle object");
+                    }
+                }
+                if (rekeyed) {
+                    // Allocated and counted by rekey
+                } else if (p.allocate()) {
+                    activeCount.increment();
+                } else {
+                    p = null;
+                    continue;
+                }
+
+                try {
+                    activate(key, p);
+                } catch (Exception e) {
+                    try {
+                        destroy(objectDeque, p, DestroyCause.ACTIVATION);
+                    } catch (Exception e1) {
+                        // Ignore - activation failure is more important
+                    }
+                    p = null;
+                    if (create) {
+                        NoSuchElementException nsee = new NoSuchElementException("Unable to activate object");
+                        nsee.initCause(e);
+                        throw nsee;
+                    }
+                }
+                if (p != null && (getTestOnBorrow() || create && getTestOnCreate())) {
+                    boolean validate = false;
+                    Throwable validationThrowable = null;
+                    try {
+                        validate = validate(key, p);
+                    } catch (Throwable t) {
+                        PoolUtils.checkRethrow(t);
+                        validationThrowable = t;
+                    }
+                    if (!validate) {
+                        try {
+                            destroy(objectDeque, p, DestroyCause.VALIDATION);
+                            destroyedByBorrowValidationCount.incrementAndGet();
+                        } catch (Exception e) {
+                            // Ignore - validation failure is more important
+                        }
+                        p = null;
+                        if (create) {
+                            NoSuchElementException nsee = new NoSuchElementException("Unable to validate object");
+                            nsee.initCause(validationThrowable);
+                            throw nsee;
+                        }
+                    }
+                }
+            }
+        } finally {
+            deregister(objectDeque);
+        }
+
+        long waitNanos = System.nanoTime() - waitTime;
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        updateStatsBorrow(p, waitMillis);
+        if (waitMillis > 0) {
+            waitTimeByKey.add(key, waitMillis);
+        }
+        fireBorrow(p, waitNanos, create);
+
+        return p.getObject();
+    }
+
+    /**
+     * Returns an object to a keyed sub-pool.
+     * <p>
+     * If {@link #getMaxIdlePerKey() maxIdle} is set to a positive value and the number of idle instances under the given key has reached this value, the
+     * returning instance is destroyed.
+     * <p>
+     * If {@link #getTestOnReturn() testOnReturn} == true, the returning instance is validated before being returned to the idle instance sub-pool under the
+     * given key. In this case, if validation fails, the instance is destroyed.
+     * <p>
+     * Exceptions encountered destroying objects for any reason are swallowed but notified via a {@link SwallowedExceptionListener}.
+     *
+     * @param key
+     *            pool key
+     * @param obj
+     *            instance to return to the keyed pool
+     *
+     * @throws IllegalStateException
+     *             if an object is returned to the pool that was not borrowed from it or if an object is returned to the pool multiple times
+     */
+    @Override
+    public void returnObject(K key, T obj) {
+        PooledEntry<K, T> entry = allObjects.get(new IdentityWrapper<T>(obj));
+
+        if (entry == null || !entry.objectDeque.key.equals(key)) {
+            throw new IllegalStateException("Returned object not currently part of this pool");
+        }
+
+        ObjectDeque<K, T> objectDeque = entry.objectDeque;
+        PooledObject<T> p = entry.pooledObject;
+
+        synchronized (p) {
+            final PooledObjectState state = p.getState();
+            if (state != PooledObjectState.ALLOCATED) {
+                throw new IllegalStateException("Object has already been returned to this pool or is invalid");
+            } else {
+                p.markReturning(); // Keep from being marked abandoned
+            }
+        }
+
+        long activeTime = p.getActiveTimeMillis();
+
+        if (getTestOnReturn()) {
+            if (!validate(key, p)) {
+                updateStatsReturn(activeTime);
+                fireReturn(p, activeTime);
+                try {
+                    destroy(objectDeque, p, DestroyCause.VALIDATION);
+                } catch (Exception e) {
+                    swallowException(e);
+                }
+                ensureIdle(objectDeque);
+                return;
+            }
+        }
+
+        try {
+            passivate(key, p);
+        } catch (Exception e1) {
+            swallowException(e1);
+            updateStatsReturn(activeTime);
+            fireReturn(p, activeTime);
+            try {
+                destroy(objectDeque, p, DestroyCause.PASSIVATION);
+            } catch (Exception e) {
+                swallowException(e);
+            }
+            ensureIdle(objectDeque);
+            return;
+        }
+
+        if (!p.deallocate()) {
+            throw new IllegalStateException("Object has already been returned to this pool or is invalid");
+        }
+        activeCount.decrement();
+
+        updateStatsReturn(activeTime);
+        fireReturn(p, activeTime);
+
+        if (keyQuotaResolver != null && isOverShare(objectDeque)) {
+            // Hand the capacity to a key that is further below its share
+            try {
+                destroy(objectDeque, p, DestroyCause.REBALANCED);
+                destroyedByRebalanceCount.incrementAndGet();
+            } catch (Exception e) {
+                swallowException(e);
+            }
+            return;
+        }
+
+        int maxIdle = getMaxIdlePerKey();
+
+        if (isClosed() || maxIdle > -1 && maxIdle <= objectDeque.size()) {
+            try {
+                destroy(objectDeque, p, isClosed() ? DestroyCause.CLEARED : DestroyCause.MAX_IDLE);
+            } catch (Exception e) {
+                swallowException(e);
+            }
+        } else {
+            addIdleObject(objectDeque, p);
+            if (isClosed()) {
+                // Pool closed while object was being added to idle objects.
+                // Make sure the returned object is destroyed rather than left
+                // in the idle object pool (which would effectively be a leak)
+                clear(key);
+            } else {
+                // Keys starved of capacity can now take it from this object
+                reuseCapacity();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Activation of this method decrements the active count associated with the given keyed pool and attempts to destroy <code>obj.</code>
+     *
+     * @param key
+     *            pool key
+     * @param obj
+     *            instance to invalidate
+     *
+     * @throws Exception
+     *             if an exception occurs destroying the object
+     * @throws IllegalStateException
+     *             if obj does not belong to the pool under the given key
+     */
+    @Override
+    public void invalidateObject(K key, T obj) throws Exception {
+        PooledEntry<K, T> entry = allObjects.get(new IdentityWrapper<T>(obj));
+        if (entry == null || !entry.objectDeque.key.equals(key)) {
+            throw new IllegalStateException("Object not currently part of this pool");
+        }
+        PooledObject<T> p = entry.pooledObject;
+        synchronized (p) {
+            if (p.getState() != PooledObjectState.INVALID) {
+                destroy(entry.objectDeque, p, DestroyCause.INVALIDATED);
+            }
+        }
+        ensureIdle(entry.objectDeque);
+    }
+
+    /**
+     * Clears any objects sitting idle in the pool by removing them from the idle instance sub-pools and then invoking the configured
+     * {@link KeyedPooledObjectFactory#destroyObject(Object, PooledObject)} method on each idle instance.
+     * <p>
+     * Implementation notes:
+     * <ul>
+     * <li>This method does not destroy or effect in any way instances that are checked out when it is invoked.</li>
+     * <li>Invoking this method does not prevent objects being returned to the idle instance pool, even during its execution. Additional instances may be
+     * returned while removed items are being destroyed.</li>
+     * <li>Exceptions encountered destroying idle instances are swallowed but notified via a {@link SwallowedExceptionListener}.</li>
+     * </ul>
+     */
+    @Override
+    public void clear() {
+        for (K key : poolMap.keySet()) {
+            clear(key);
+        }
+    }
+
+    /**
+     * Clears the specified sub-pool, removing all pooled instances corresponding to the given <code>key</code>. Exceptions encountered destroying idle
+     * instances are swallowed but notified via a {@link SwallowedExceptionListener}.
+     *
+     * @param key
+     *            the key to clear
+     */
+    @Override
+    public void clear(K key) {
+        ObjectDeque<K, T> objectDeque = poolMap.get(key);
+        if (objectDeque == null) {
+            return;
+        }
+        PooledObject<T> p = pollIdleObject(objectDeque);
+
+        while (p != null) {
+            try {
+                destroy(objectDeque, p, DestroyCause.CLEARED);
+            } catch (Exception e) {
+                swallowException(e);
+            }
+            p = pollIdleObject(objectDeque);
+        }
+    }
+
+    @Override
+    public int getNumActive() {
+        return (int) activeCount.sum();
+    }
+
+    @Override
+    public int getNumIdle() {
+        return (int) Math.max(0L, idleCount.sum());
+    }
+
+    @Override
+    public int getNumActive(K key) {
+        ObjectDeque<K, T> objectDeque = poolMap.get(key);
+        if (objectDeque == null) {
+            return 0;
+        }
+        return Math.max(0, objectDeque.getCreateCount() - objectDeque.size());
+    }
+
+    @Override
+    public int getNumIdle(K key) {
+        ObjectDeque<K, T> objectDeque = poolMap.get(key);
+        return objectDeque != null ? objectDeque.size() : 0;
+    }
+
+    /**
+     * Returns the number of objects in the pool under all keys, checked out, idle or being created.
+     *
+     * @return the number of objects counted against {@link #getMaxTotal()}
+     */
+    public int getNumTotal() {
+        return numTotal.get();
+    }
+
+    /**
+     * Returns the number of idle objects destroyed to give their capacity to a key whose borrowers were blocked because the pool had reached
+     * {@link #getMaxTotal()}.
+     *
+     * @return the number of objects destroyed to rebalance capacity between keys
+     */
+    @Override
+    public long getDestroyedByRebalanceCount() {
+        return destroyedByRebalanceCount.get();
+    }
+
+    /**
+     * Returns the number of idle objects that were converted from a compatible key for a borrower instead of creating a new object.
+     *
+     * @return the number of objects moved between keys by {@link RekeyableKeyedPooledObjectFactory#rekeyObject}
+     */
+    @Override
+    public long getRekeyedCount() {
+        return rekeyedCount.get();
+    }
+
+    /**
+     * Returns the number of keys that currently have a sub-pool.
+     *
+     * @return the number of keyed sub-pools
+     */
+    public int getNumKeys() {
+        return poolMap.size();
+    }
+
+    /**
+     * Closes the keyed object pool. Once the pool is closed, {@link #borrowObject(Object)} will fail with IllegalStateException, but
+     * {@link #returnObject(Object, Object)} and {@link #invalidateObject(Object, Object)} will continue to work, with returned objects destroyed on return.
+     * <p>
+     * Destroys idle instances in the pool by invoking {@link #clear()}.
+     */
+    @Override
+    public void close() {
+        if (isClosed()) {
+            return;
+        }
+
+        synchronized (closeLock) {
+            if (isClosed()) {
+                return;
+            }
+
+            // Stop the evictor before the pool is closed since evict() calls
+            // assertOpen()
+            startEvictor(-1L);
+
+            closed = true;
+            // This clear removes any idle objects
+            clear();
+
+            jmxUnregister();
+
+            // Release any threads that were waiting for an object
+            for (ObjectDeque<K, T> objectDeque : poolMap.values()) {
+                objectDeque.interuptTakeWaiters();
+            }
+            starvingDeques.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Successive activations of this method examine objects in keyed sub-pools in sequence, cycling through the keys with a cursor that is kept from one run
+     * to the next and examining objects in oldest-to-youngest order within the keyed sub-pools. Keys whose oldest idle object has been idle longer than
+     * {@link #getMinEvictableIdleTimeMillis()} are examined as the cursor reaches them; the other keys are put on a backlog that is examined with whatever is
+     * left of the run's budget. A run examines at most {@link #getNumTestsPerEvictionRun()} objects, visits each key at most once and no more than
+     * {@value #KEYS_VISITED_PER_TEST} keys per object it may examine and, if {@link #getMaxEvictionRunMillis()} is positive, stops when that time has
+     * passed, so its cost does not grow with the number of keys. Keys the cursor does not reach in one run are visited by the following runs.
+     * <p>
+     * Each sub-pool is only locked while a single object is taken out of it or put back, so borrowers of other keys, and of the key under test, are not held
+     * up by an eviction run.
+     */
+    @Override
+    public void evict() throws Exception {
+        assertOpen();
+
+        if (poolMap.isEmpty()) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        int examined = 0;
+        long destroyedBefore = destroyedByEvictorCount.get();
+        EvictionPolicy<T> evictionPolicy = getEvictionPolicy();
+
+        synchronized (evictionLock) {
+            EvictionConfig evictionConfig = new EvictionConfig(getMinEvictableIdleTimeMillis(), getSoftMinEvictableIdleTimeMillis(), getMinIdlePerKey());
+
+            boolean testWhileIdle = getTestWhileIdle();
+            boolean lifo = getLifo();
+            long minEvictableIdleTimeMillis = getMinEvictableIdleTimeMillis();
+            long maxRunMillis = getMaxEvictionRunMillis();
+            long deadline = maxRunMillis > 0 ? startTime + maxRunMillis * 1000000L : 0L;
+            int numTests = getNumTests();
+            // Peeking at a key takes its lock, so key visits come out of the
+            // run's budget as well
+            int keysToVisit = (int) Math.min(poolMap.size(), (long) numTests * KEYS_VISITED_PER_TEST);
+
+            // Keys with overdue objects, in cursor order
+            while (examined < numTests && (deadline == 0L || System.nanoTime() - deadline < 0)) {
+                if (idleIterator == null || !idleIterator.hasNext()) {
+                    idleIterator = null;
+                    if (keysToVisit-- <= 0) {
+                        break;
+                    }
+                    evictionDeque = nextEvictionDeque();
+                    if (evictionDeque == null) {
+                        // No keys, nothing to do here
+                        break;
+                    }
+                    PooledObject<T> oldest = evictionDeque.peekOldest(lifo);
+                    if (oldest == null) {
+                        continue;
+                    }
+                    if (minEvictableIdleTimeMillis > 0 && oldest.getIdleTimeMillis() > minEvictableIdleTimeMillis) {
+                        idleIterator = evictionDeque.idleIterator(lifo);
+                    } else if (!evictionDeque.evictionBacklogged) {
+                        evictionDeque.evictionBacklogged = true;
+                        evictionBacklog.add(evictionDeque);
+                    }
+                    continue;
+                }
+                if (examine(evictionDeque, idleIterator, evictionPolicy, evictionConfig, testWhileIdle)) {
+                    examined++;
+                }
+            }
+
+            // Backlog of keys passed over by earlier runs
+            while (examined < numTests && (deadline == 0L || System.nanoTime() - deadline < 0)) {
+                if (backlogIterator == null || !backlogIterator.hasNext()) {
+                    backlogIterator = null;
+                    backlogDeque = evictionBacklog.poll();
+                    if (backlogDeque == null) {
+                        break;
+                    }
+                    backlogDeque.evictionBacklogged = false;
+                    backlogIterator = backlogDeque.idleIterator(lifo);
+                    continue;
+                }
+                if (examine(backlogDeque, backlogIterator, evictionPolicy, evictionConfig, testWhileIdle)) {
+                    examined++;
+                }
+            }
+        }
+        if (isEventListenerSet()) {
+            fireEvictionRun(examined, (int) (destroyedByEvictorCount.get() - destroyedBefore), System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Takes the next object from an eviction iterator and tests it against the eviction policy and, if configured, validates it.
+     *
+     * @return true if an object was examined, false if the object was borrowed in another thread before it could be claimed
+     */
+    private boolean examine(ObjectDeque<K, T> objectDeque, Iterator<PooledObject<T>> iterator, EvictionPolicy<T> evictionPolicy,
+            EvictionConfig evictionConfig, boolean testWhileIdle) throws Exception {
+        PooledObject<T> underTest;
+        try {
+            underTest = iterator.next();
+        } catch (NoSuchElementException nsee) {
+            // Object was borrowed in another thread
+            return false;
+        }
+
+        if (!underTest.startEvictionTest()) {
+            // Object was borrowed in another thread
+            return false;
+        }
+        if (rekeyFactory != null && ownerOf(underTest) != objectDeque) {
+            // Rekeyed and returned to another key since the iterator saw it
+            unclaim(new PooledEntry<K, T>(ownerOf(underTest), underTest));
+            return false;
+        }
+
+        // User provided eviction policy could throw all sorts of
+        // crazy exceptions. Protect against such an exception
+        // killing the eviction thread.
+        boolean evict;
+        try {
+            evict = evictionPolicy.evict(evictionConfig, underTest, objectDeque.size());
+        } catch (Throwable t) {
+            // Slightly convoluted as SwallowedExceptionListener
+            // uses Exception rather than Throwable
+            PoolUtils.checkRethrow(t);
+            swallowException(new Exception(t));
+            // Don't evict on error conditions
+            evict = false;
+        }
+
+        if (evict) {
+            destroy(objectDeque, underTest, DestroyCause.EVICTION);
+            destroyedByEvictorCount.incrementAndGet();
+        } else {
+            if (testWhileIdle) {
+                boolean active = false;
+                try {
+                    activate(objectDeque.key, underTest);
+                    active = true;
+                } catch (Exception e) {
+                    destroy(objectDeque, underTest, DestroyCause.EVICTION);
+                    destroyedByEvictorCount.incrementAndGet();
+                }
+                if (active) {
+                    if (!validate(objectDeque.key, underTest)) {
+                        destroy(objectDeque, underTest, DestroyCause.EVICTION);
+                        destroyedByEvictorCount.incrementAndGet();
+                    } else {
+                        try {
+                            passivate(objectDeque.key, underTest);
+                        } catch (Exception e) {
+                            destroy(objectDeque, underTest, DestroyCause.EVICTION);
+                            destroyedByEvictorCount.incrementAndGet();
+                        }
+                    }
+                }
+            }
+            // An object borrowed during the test is put back at the head
+            // of the scratch deque, from where it goes back to the
+            // sub-pool, wherever it is stored
+            if (!underTest.endEvictionTest(evictionScratch)) {
+                // TODO - May need to add code here once additional
+                // states are used
+            }
+            PooledObject<T> returned = evictionScratch.pollFirst();
+            if (returned != null) {
+                addIdleObject(objectDeque, returned, true);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the evictor on to the next keyed sub-pool, starting again from the first one when all of them have been visited.
+     *
+     * @return the sub-pool to examine next, or null if there are no keys
+     */
+    private ObjectDeque<K, T> nextEvictionDeque() {
+        if (evictionKeyIterator == null || !evictionKeyIterator.hasNext()) {
+            evictionKeyIterator = poolMap.values().iterator();
+            if (!evictionKeyIterator.hasNext()) {
+                return null;
+            }
+        }
+        return evictionKeyIterator.next();
+    }
+
+    /**
+     * Create an object using the {@link KeyedPooledObjectFactory#makeObject factory}, passivate it, and then place it in the idle object pool.
+     * <code>addObject</code> is useful for "pre-loading" a pool with idle objects.
+     * <p>
+     * If there is no capacity available to add to the pool under the given key, this is a no-op (no exception, no impact to the pool).
+     *
+     * @param key
+     *            the key a new instance should be added to
+     *
+     * @throws Exception
+     *             when {@link KeyedPooledObjectFactory#makeObject} fails.
+     */
+    @Override
+    public void addObject(K key) throws Exception {
+        assertOpen();
+        ObjectDeque<K, T> objectDeque = register(key);
+        try {
+            PooledObject<T> p = create(objectDeque);
+            if (p != null) {
+                passivate(key, p);
+                addIdleObject(objectDeque, p);
+            }
+        } finally {
+            deregister(objectDeque);
+        }
+    }
+
+    /**
+     * Tries to ensure that {@link #getMinIdlePerKey()} idle instances are available in the sub-pool of the given key, creating the sub-pool if necessary.
+     *
+     * @param key
+     *            the key to prepare
+     * @throws Exception
+     *             If the associated factory throws an exception
+     */
+    public void preparePool(K key) throws Exception {
+        if (getMinIdlePerKey() < 1) {
+            return;
+        }
+        ObjectDeque<K, T> objectDeque = register(key);
+        try {
+            ensureMinIdle(objectDeque);
+        } finally {
+            deregister(objectDeque);
+        }
+    }
+
+    @Override
+    protected void ensureMinIdle() throws Exception {
+        if (getMinIdlePerKey() < 1) {
+            return;
+        }
+        for (ObjectDeque<K, T> objectDeque : poolMap.values()) {
+            // Sub-pools that have been reclaimed stay reclaimed
+            if (!objectDeque.register()) {
+                continue;
+            }
+            try {
+                ensureMinIdle(objectDeque);
+            } finally {
+                deregister(objectDeque);
+            }
+        }
+    }
+
+    private void ensureMinIdle(ObjectDeque<K, T> objectDeque) throws Exception {
+        int minIdle = getMinIdlePerKey();
+        while (!isClosed() && objectDeque.size() < minIdle) {
+            PooledObject<T> p = create(objectDeque);
+            if (p == null) {
+                // Can't create objects, no reason to think another call to
+                // create will work. Give up.
+                break;
+            }
+            addIdleObject(objectDeque, p);
+        }
+        if (isClosed()) {
+            clear(objectDeque.key);
+        }
+    }
+
+    /**
+     * Creates an object for a key whose borrowers are waiting, to replace one that has just been destroyed.
+     *
+     * @param objectDeque
+     *            the sub-pool that lost an object
+     */
+    private void ensureIdle(ObjectDeque<K, T> objectDeque) {
+        if (isClosed() || !objectDeque.hasTakeWaiters() || !objectDeque.register()) {
+            return;
+        }
+        try {
+            PooledObject<T> p = create(objectDeque);
+            if (p != null) {
+                addIdleObject(objectDeque, p);
+            }
+        } catch (Exception e) {
+            swallowException(e);
+        } finally {
+            deregister(objectDeque);
+        }
+    }
+
+    private void addIdleObject(ObjectDeque<K, T> objectDeque, PooledObject<T> p) {
+        addIdleObject(objectDeque, p, getLifo());
+    }
+
+    /**
+     * Adds an idle object at the head (first) or tail of a sub-pool.
+     */
+    private void addIdleObject(ObjectDeque<K, T> objectDeque, PooledObject<T> p, boolean first) {
+        idleCount.increment();
+        objectDeque.add(p, first);
+        listIdle(objectDeque);
+    }
+
+    private PooledObject<T> pollIdleObject(ObjectDeque<K, T> objectDeque) {
+        PooledObject<T> p = objectDeque.poll();
+        if (p != null) {
+            idleCount.decrement();
+        }
+        return p;
+    }
+
+    private PooledObject<T> takeIdleObject(ObjectDeque<K, T> objectDeque, long maxWaitMillis) throws InterruptedException {
+        PooledObject<T> p = objectDeque.take(maxWaitMillis);
+        if (p != null) {
+            idleCount.decrement();
+        }
+        return p;
+    }
+
+    /**
+     * Looks up the sub-pool of a key, creating it if necessary, and registers the calling thread as a user of it so that it is not reclaimed while in use.
+     * Every call must be paired with a call to {@link #deregister(ObjectDeque)}.
+     *
+     * @param k
+     *            The key to register
+     *
+     * @return The sub-pool for the key
+     */
+    private ObjectDeque<K, T> register(K k) {
+        for (;;) {
+            ObjectDeque<K, T> objectDeque = poolMap.get(k);
+            if (objectDeque == null) {
+                KeyQuotaResolver<? super K> resolver = keyQuotaResolver;
+                KeyQuota quota = resolver == null ? null : resolver.resolve(k);
+                int reserved = reserveCapacity(quota);
+                Object compatibilityKey = rekeyFactory == null ? null : rekeyFactory.getCompatibilityKey(k);
+                ObjectDeque<K, T> newDeque = new ObjectDeque<K, T>(k, quota, reserved, compatibilityKey, getCompactKeys(), getFairness());
+                objectDeque = poolMap.putIfAbsent(k, newDeque);
+                if (objectDeque == null) {
+                    objectDeque = newDeque;
+                    if (compatibilityKey != null) {
+                        addCompatible(newDeque);
+                    }
+                } else if (reserved > 0) {
+                    committed.addAndGet(-reserved);
+                }
+            }
+            if (objectDeque.register()) {
+                return objectDeque;
+            }
+            // Reclaimed by a thread that has not removed it from the map yet
+            poolMap.remove(k, objectDeque);
+        }
+    }
+
+    private void deregister(ObjectDeque<K, T> objectDeque) {
+        if (objectDeque.deregister()) {
+            reclaim(objectDeque);
+        }
+    }
+
+    /**
+     * Removes a reclaimed sub-pool from the map and gives back the capacity reserved for it.
+     */
+    private void reclaim(ObjectDeque<K, T> objectDeque) {
+        poolMap.remove(objectDeque.key, objectDeque);
+        if (objectDeque.reserved > 0) {
+            committed.addAndGet(-objectDeque.reserved);
+        }
+        if (objectDeque.compatibilityKey != null) {
+            Set<ObjectDeque<K, T>> group = compatibleDeques.get(objectDeque.compatibilityKey);
+            if (group != null) {
+                group.remove(objectDeque);
+            }
+        }
+    }
+
+    private void addCompatible(ObjectDeque<K, T> objectDeque) {
+        Object compatibilityKey = objectDeque.compatibilityKey;
+        Set<ObjectDeque<K, T>> group = compatibleDeques.get(compatibilityKey);
+        if (group == null) {
+            Set<ObjectDeque<K, T>> newGroup = Collections.newSetFromMap(new ConcurrentHashMap<ObjectDeque<K, T>, Boolean>());
+            group = compatibleDeques.putIfAbsent(compatibilityKey, newGroup);
+            if (group == null) {
+                group = newGroup;
+            }
+        }
+        group.add(objectDeque);
+    }
+
+    /**
+     * Takes an idle object from a key compatible with the given sub-pool and converts it with the factory. Keys with blocked borrowers of their own are
+     * skipped. The converted object is counted against the new key and the old key's count is released, so the pool's totals do not change.
+     *
+     * @param objectDeque
+     *            The sub-pool that needs an object, the caller must be registered with it
+     *
+     * @return the converted object, already allocated and counted as active, or null if no compatible idle object could be converted
+     */
+    private PooledObject<T> rekey(ObjectDeque<K, T> objectDeque) {
+        if (objectDeque.compatibilityKey == null) {
+            return null;
+        }
+        Set<ObjectDeque<K, T>> group = compatibleDeques.get(objectDeque.compatibilityKey);
+        if (group == null) {
+            return null;
+        }
+        for (ObjectDeque<K, T> source : group) {
+            if (source == objectDeque || source.size() == 0 || source.hasTakeWaiters() || source.getCapacityWaiters() > 0) {
+                if (source.isReclaimed()) {
+                    // Added to the group after it was reclaimed
+                    group.remove(source);
+                }
+                continue;
+            }
+            // Keep the source from being reclaimed while its object and its
+            // share of the capacity are moved
+            if (!source.register()) {
+                group.remove(source);
+                continue;
+            }
+            try {
+                PooledObject<T> p = pollIdleObject(source);
+                if (p == null) {
+                    continue;
+                }
+                if (!p.allocate()) {
+                    // Under test by the evictor, which puts it back
+                    continue;
+                }
+                activeCount.increment();
+                int count = objectDeque.tryIncrementCreateCount(objectDeque.getMaxTotal(getMaxTotalPerKey()));
+                if (count < 0) {
+                    returnToSource(source, p);
+                    return null;
+                }
+                boolean converted;
+                try {
+                    converted = rekeyFactory.rekeyObject(source.key, objectDeque.key, p);
+                } catch (Exception e) {
+                    objectDeque.decrementCreateCount();
+                    swallowException(e);
+                    try {
+                        destroy(source, p, DestroyCause.REKEY);
+                    } catch (Exception e1) {
+                        swallowException(e1);
+                    }
+                    continue;
+                }
+                if (!converted) {
+                    objectDeque.decrementCreateCount();
+                    returnToSource(source, p);
+                    continue;
+                }
+
+                // Move the object and its share of the capacity to the new key
+                allObjects.put(new IdentityWrapper<T>(p.getObject()), new PooledEntry<K, T>(objectDeque, p));
+                numTotal.incrementAndGet();
+                if (count >= objectDeque.reserved) {
+                    committed.incrementAndGet();
+                }
+                releaseCapacity(source);
+                rekeyedCount.incrementAndGet();
+                int maxTotal = getMaxTotal();
+                if (maxTotal > -1 && committed.get() > maxTotal) {
+                    // The object came out of the old key's reserve and the
+                    // shared capacity it needs here was taken meanwhile
+                    try {
+                        destroy(objectDeque, p, DestroyCause.REBALANCED);
+                    } catch (Exception e) {
+                        swallowException(e);
+                    }
+                    return null;
+                }
+                return p;
+            } finally {
+                deregister(source);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts an object that {@link #rekey(ObjectDeque)} took from a sub-pool but did not convert back into that sub-pool.
+     */
+    private void returnToSource(ObjectDeque<K, T> source, PooledObject<T> p) {
+        p.deallocate();
+        activeCount.decrement();
+        addIdleObject(source, p);
+    }
+
+    /**
+     * Sets aside the reserve of a new sub-pool. As much of the reserve is granted as fits in {@link #getMaxTotal()} next to the objects and reserves
+     * already committed.
+     *
+     * @param quota
+     *            The quota of the new sub-pool, may be null
+     *
+     * @return the number of objects reserved for the sub-pool
+     */
+    private int reserveCapacity(KeyQuota quota) {
+        int wanted = quota == null ? 0 : quota.getMinTotal();
+        if (wanted <= 0) {
+            return 0;
+        }
+        int maxTotal = getMaxTotal();
+        if (maxTotal < 0) {
+            committed.addAndGet(wanted);
+            return wanted;
+        }
+        for (;;) {
+            int c = committed.get();
+            int granted = Math.min(wanted, maxTotal - c);
+            if (granted <= 0) {
+                return 0;
+            }
+            if (committed.compareAndSet(c, c + granted)) {
+                return granted;
+            }
+        }
+    }
+
+    /**
+     * Create a new pooled object for a key.
+     * <p>
+     * The caller must be registered with the sub-pool. Returns null without creating anything if the key already has as many objects as its limit allows or,
+     * unless the key still has reserved capacity, the pool has {@link #getMaxTotal()} objects and reserves committed.
+     *
+     * @param objectDeque
+     *            The sub-pool to create the object for
+     *
+     * @return The newly created instance, or null if there is no capacity
+     *
+     * @throws Exception
+     *             If the factory fails to create the object
+     */
+    private PooledObject<T> create(ObjectDeque<K, T> objectDeque) throws Exception {
+        int count = objectDeque.tryIncrementCreateCount(objectDeque.getMaxTotal(getMaxTotalPerKey()));
+        if (count < 0) {
+            return null;
+        }
+        numTotal.incrementAndGet();
+        if (count >= objectDeque.reserved) {
+            // Not covered by the key's reserve, needs shared capacity
+            int maxTotal = getMaxTotal();
+            if (committed.incrementAndGet() > maxTotal && maxTotal > -1) {
+                releaseCapacity(objectDeque);
+                return null;
+            }
+        }
+
+        final PooledObject<T> p;
+        long startTime = startFactoryOperation();
+        try {
+            p = factory.makeObject(objectDeque.key);
+        } catch (Exception e) {
+            releaseCapacity(objectDeque);
+            fireFactoryOperation(null, FactoryOperation.MAKE, startTime);
+            reuseCapacity();
+            throw e;
+        }
+        fireFactoryOperation(p, FactoryOperation.MAKE, startTime);
+
+        createdCount.incrementAndGet();
+        creationsByKey.add(objectDeque.key, 1L);
+        allObjects.put(new IdentityWrapper<T>(p.getObject()), new PooledEntry<K, T>(objectDeque, p));
+        fireCreate(p);
+        return p;
+    }
+
+    /**
+     * Destroy the wrapped, pooled object.
+     *
+     * @param objectDeque
+     *            The sub-pool the object belongs to
+     * @param toDestroy
+     *            The wrapped object to be destroyed
+     * @param cause
+     *            Why the object is being destroyed, reported to the {@link bean.inter.assist.PoolEventListener}
+     *
+     * @throws Exception
+     *             If the object destruction failed
+     */
+    private void destroy(ObjectDeque<K, T> objectDeque, PooledObject<T> toDestroy, DestroyCause cause) throws Exception {
+        boolean wasActive;
+        synchronized (toDestroy) {
+            PooledObjectState state = toDestroy.getState();
+            wasActive = state == PooledObjectState.ALLOCATED || state == PooledObjectState.RETURNING || state == PooledObjectState.ABANDONED;
+            toDestroy.invalidate();
+        }
+        if (wasActive) {
+            activeCount.decrement();
+        }
+        if (objectDeque.remove(toDestroy)) {
+            idleCount.decrement();
+        }
+        allObjects.remove(new IdentityWrapper<T>(toDestroy.getObject()));
+        long startTime = startFactoryOperation();
+        try {
+            factory.destroyObject(objectDeque.key, toDestroy);
+        } finally {
+            fireFactoryOperation(toDestroy, FactoryOperation.DESTROY, startTime);
+            destroyedCount.incrementAndGet();
+            releaseCapacity(objectDeque);
+            fireDestroy(toDestroy, cause);
+            reuseCapacity();
+        }
+    }
+
+    /**
+     * Gives back the capacity of an object that has been destroyed or that could not be created, reclaiming the sub-pool if that left it empty and unused.
+     */
+    private void releaseCapacity(ObjectDeque<K, T> objectDeque) {
+        numTotal.decrementAndGet();
+        int count = objectDeque.decrementCreateCount();
+        if (count >= objectDeque.reserved) {
+            // Capacity below the reserve goes back to the key, not the pool
+            committed.decrementAndGet();
+        }
+        if (count == 0 && objectDeque.tryReclaim()) {
+            reclaim(objectDeque);
+        }
+    }
+
+    private boolean isTotalExhausted() {
+        int maxTotal = getMaxTotal();
+        return maxTotal > -1 && committed.get() >= maxTotal;
+    }
+
+    private boolean isKeyFull(ObjectDeque<K, T> objectDeque) {
+        int max = objectDeque.getMaxTotal(getMaxTotalPerKey());
+        return max > -1 && objectDeque.getCreateCount() >= max;
+    }
+
+    /**
+     * Whether sub-pool {@code a} holds more objects per unit of weight than sub-pool {@code b}.
+     */
+    private static boolean holdsMoreThan(ObjectDeque<?, ?> a, ObjectDeque<?, ?> b) {
+        return (long) a.getCreateCount() * b.getWeight() > (long) b.getCreateCount() * a.getWeight();
+    }
+
+    /**
+     * Returns the starving key that holds the fewest objects per unit of weight, the one queued first if there is a tie.
+     */
+    private ObjectDeque<K, T> selectStarving() {
+        ObjectDeque<K, T> selected = null;
+        for (ObjectDeque<K, T> objectDeque : starvingDeques) {
+            if (selected == null || holdsMoreThan(selected, objectDeque)) {
+                selected = objectDeque;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Whether an object of this sub-pool should go to a starving key instead. That is the case when the sub-pool would still hold at least as much per unit
+     * of weight as the neediest starving key after the transfer.
+     */
+    private boolean isOverShare(ObjectDeque<K, T> objectDeque) {
+        if (starvingDeques.isEmpty()) {
+            return false;
+        }
+        int count = objectDeque.getCreateCount();
+        if (count <= objectDeque.reserved) {
+            return false;
+        }
+        ObjectDeque<K, T> needy = selectStarving();
+        if (needy == null || needy == objectDeque || needy.getCapacityWaiters() <= 0 || isKeyFull(needy)) {
+            return false;
+        }
+        return (long) (count - 1) * needy.getWeight() >= (long) (needy.getCreateCount() + 1) * objectDeque.getWeight();
+    }
+
+    private void markStarving(ObjectDeque<K, T> objectDeque) {
+        if (objectDeque.markStarving()) {
+            starvingDeques.offer(objectDeque);
+        }
+    }
+
+    /**
+     * Hands capacity to the keys whose borrowers are blocked because the pool as a whole is full, taking it from idle objects of other keys if none is free.
+     * <p>
+     * Only one thread drains the queue of starving keys at a time. A thread that frees capacity while another one is draining leaves a request behind and
+     * returns at once; the draining thread then makes another pass before it stops.
+     */
+    private void reuseCapacity() {
+        if (starvingDeques.isEmpty() || reuseRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        for (;;) {
+            drainStarvingDeques();
+            missed = reuseRequests.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void drainStarvingDeques() {
+        while (!isClosed()) {
+            // Only the draining thread removes from the queue, so the
+            // selected key stays queued until it is removed here
+            ObjectDeque<K, T> objectDeque = selectStarving();
+            if (objectDeque == null) {
+                return;
+            }
+            if (objectDeque.getCapacityWaiters() <= 0 || !objectDeque.register()) {
+                dropStarving(objectDeque);
+                continue;
+            }
+            try {
+                if (isKeyFull(objectDeque)) {
+                    // The key is at its own limit, its own returns will
+                    // serve its borrowers
+                    starvingDeques.remove(objectDeque);
+                    objectDeque.clearStarving();
+                    continue;
+                }
+                PooledObject<T> p = isTotalExhausted() ? createInPlaceOfIdle(objectDeque) : create(objectDeque);
+                if (p == null) {
+                    // Everything is checked out or another thread took the
+                    // capacity; keep the place and wait for a return
+                    return;
+                }
+                addIdleObject(objectDeque, p);
+                // One object per blocked borrower; a key that needs more is
+                // queued again and competes with the others on its new count
+                starvingDeques.remove(objectDeque);
+                objectDeque.clearStarving();
+                if (objectDeque.getCapacityWaiters() > objectDeque.size()) {
+                    markStarving(objectDeque);
+                }
+            } catch (Exception e) {
+                // The factory failed. The key is not queued again, or this
+                // thread would retry at once; its blocked borrowers wait out
+                // their timeout unless a later borrower queues it again
+                swallowException(e);
+                starvingDeques.remove(objectDeque);
+                objectDeque.clearStarving();
+            } finally {
+                deregister(objectDeque);
+            }
+        }
+    }
+
+    /**
+     * Removes a sub-pool from the queue of starving keys. The flag is cleared before the waiters are counted again, so a borrower that queues
+     * itself concurrently is either seen here or finds the flag clear and queues the key again.
+     */
+    private void dropStarving(ObjectDeque<K, T> objectDeque) {
+        starvingDeques.remove(objectDeque);
+        objectDeque.clearStarving();
+        if (objectDeque.getCapacityWaiters() > 0 && !isClosed()) {
+            markStarving(objectDeque);
+        }
+    }
+
+    /**
+     * Creates an object for a key while the pool is full, in place of an idle object of a key that is not itself waiting for capacity. The idle object is
+     * destroyed first and the new object is created on the capacity that frees. A failed create is not retried, so a failing factory costs other keys at
+     * most one idle object per borrower.
+     *
+     * @param objectDeque
+     *            The sub-pool that needs the object, the caller must be registered with it
+     *
+     * @return The newly created instance, or null if no idle object can be given up, the key is at its own limit or the freed capacity went to a key queued
+     *         for it
+     *
+     * @throws Exception
+     *             If the factory fails to create the object
+     */
+    private PooledObject<T> createInPlaceOfIdle(ObjectDeque<K, T> objectDeque) throws Exception {
+        PooledEntry<K, T> victim = claimOldestIdle(objectDeque);
+        if (victim == null) {
+            return null;
+        }
+        try {
+            destroy(victim.objectDeque, victim.pooledObject, DestroyCause.REBALANCED);
+        } catch (Exception e) {
+            swallowException(e);
+        }
+        destroyedByRebalanceCount.incrementAndGet();
+        return create(objectDeque);
+    }
+
+    /**
+     * Claims an idle object of a key that is not itself waiting for capacity, the same way the evictor does, so that it is not handed to a borrower of its
+     * key. Objects covered by their key's reserve are never taken. The object is chosen from the next {@value #REBALANCE_CANDIDATES} keys in the queue of
+     * keys holding idle objects, which are moved to its tail, so the cost does not grow with the number of keys. Without a {@link KeyQuotaResolver} the
+     * object that has been idle longest among them is taken; with one, the object comes from the key holding the most objects per unit of weight, the
+     * longest idle object breaking ties.
+     *
+     * @param starving
+     *            The sub-pool that needs the capacity
+     *
+     * @return the claimed object, or null if there is none
+     */
+    private PooledEntry<K, T> claimOldestIdle(ObjectDeque<K, T> starving) {
+        boolean lifo = getLifo();
+        boolean weighted = keyQuotaResolver != null;
+        for (;;) {
+            ObjectDeque<K, T> victimDeque = null;
+            PooledObject<T> victim = null;
+            int candidates = Math.min(REBALANCE_CANDIDATES, idleDequeCount.get());
+            for (int i = 0; i < candidates; i++) {
+                ObjectDeque<K, T> objectDeque = idleDeques.poll();
+                if (objectDeque == null) {
+                    break;
+                }
+                PooledObject<T> p = objectDeque.peekOldest(lifo);
+                if (p == null) {
+                    unlistIdle(objectDeque);
+                    continue;
+                }
+                idleDeques.offer(objectDeque);
+                if (objectDeque == starving || objectDeque.getCapacityWaiters() > 0 || objectDeque.getCreateCount() <= objectDeque.reserved) {
+                    // Objects created for other starving keys are not taken
+                    // back before their borrowers get them
+                    continue;
+                }
+                if (victim == null || weighted && holdsMoreThan(objectDeque, victimDeque)
+                        || (!weighted || !holdsMoreThan(victimDeque, objectDeque)) && p.getLastReturnTime() < victim.getLastReturnTime()) {
+                    victim = p;
+                    victimDeque = objectDeque;
+                }
+            }
+            if (victim == null) {
+                return null;
+            }
+            if (victim.startEvictionTest()) {
+                ObjectDeque<K, T> owner = ownerOf(victim);
+                if (owner == victimDeque) {
+                    return new PooledEntry<K, T>(victimDeque, victim);
+                }
+                // Rekeyed and returned to another key since it was found
+                unclaim(new PooledEntry<K, T>(owner, victim));
+            }
+        }
+    }
+
+    /**
+     * Puts a sub-pool that has just gained an idle object in the queue of keys holding idle objects, unless it is there already. A couple of queued
+     * sub-pools are checked at the same time and dropped if they no longer hold idle objects, so that keys that come and go do not pile up in the queue.
+     */
+    private void listIdle(ObjectDeque<K, T> objectDeque) {
+        if (!objectDeque.markIdleListed()) {
+            return;
+        }
+        idleDequeCount.incrementAndGet();
+        idleDeques.offer(objectDeque);
+        for (int i = 0; i < 2; i++) {
+            ObjectDeque<K, T> queued = idleDeques.poll();
+            if (queued == null) {
+                return;
+            }
+            if (queued.size() > 0) {
+                idleDeques.offer(queued);
+            } else {
+                unlistIdle(queued);
+            }
+        }
+    }
+
+    /**
+     * Takes a sub-pool that was found without idle objects out of the queue of keys holding idle objects; the caller has already polled it from the queue.
+     * The flag is cleared before the idle objects are counted again, so an object added concurrently is either seen here or lists the sub-pool again.
+     */
+    private void unlistIdle(ObjectDeque<K, T> objectDeque) {
+        objectDeque.clearIdleListed();
+        idleDequeCount.decrementAndGet();
+        if (objectDeque.size() > 0 && objectDeque.markIdleListed()) {
+            idleDequeCount.incrementAndGet();
+            idleDeques.offer(objectDeque);
+        }
+    }
+
+    /**
+     * Returns the sub-pool an object belongs to. An object that is rekeyed moves to another sub-pool, so the sub-pool it was found in may no longer be its
+     * own by the time it has been claimed.
+     */
+    private ObjectDeque<K, T> ownerOf(PooledObject<T> p) {
+        PooledEntry<K, T> entry = allObjects.get(new IdentityWrapper<T>(p.getObject()));
+        return entry == null ? null : entry.objectDeque;
+    }
+
+    /**
+     * Gives back an object claimed by {@link #claimOldestIdle(ObjectDeque)}. An object that a borrower found while it was claimed is put back at the head
+     * of its sub-pool, as the evictor does.
+     */
+    private void unclaim(PooledEntry<K, T> claimed) {
+        ArrayDeque<PooledObject<T>> returned = new ArrayDeque<PooledObject<T>>(1);
+        claimed.pooledObject.endEvictionTest(returned);
+        PooledObject<T> p = returned.pollFirst();
+        if (p != null) {
+            addIdleObject(claimed.objectDeque, p, true);
+        }
+    }
+
+    private void activate(K key, PooledObject<T> p) throws Exception {
+        long startTime = startFactoryOperation();
+        try {
+            factory.activateObject(key, p);
+        } finally {
+            fireFactoryOperation(p, FactoryOperation.ACTIVATE, startTime);
+        }
+    }
+
+    private boolean validate(K key, PooledObject<T> p) {
+        long startTime = startFactoryOperation();
+        try {
+            return factory.validateObject(key, p);
+        } finally {
+            fireFactoryOperation(p, FactoryOperation.VALIDATE, startTime);
+        }
+    }
+
+    private void passivate(K key, PooledObject<T> p) throws Exception {
+        long startTime = startFactoryOperation();
+        try {
+            factory.passivateObject(key, p);
+        } finally {
+            fireFactoryOperation(p, FactoryOperation.PASSIVATE, startTime);
+        }
+    }
+
+    /**
+     * Calculate the number of objects to test in a run of the idle object evictor. Counting the idle objects means visiting every key, so it is only done
+     * when {@link #getNumTestsPerEvictionRun()} is a fraction of them; a fixed number of tests is capped by the run running out of keys instead.
+     *
+     * @return The number of objects to test for validity
+     */
+    private int getNumTests() {
+        int numTests = getNumTestsPerEvictionRun();
+        if (numTests >= 0) {
+            return numTests;
+        }
+        return (int) (Math.ceil(getNumIdle() / Math.abs((double) numTests)));
+    }
+
+    // --- JMX support ----------------------------------------------------------
+
+    /**
+     * Returns the number of active objects under every key. The map has an entry per key, so with many keys prefer {@link #listTopKeysByActive()}.
+     *
+     * @return the number of active objects by key
+     */
+    public Map<String, Integer> getNumActivePerKey() {
+        HashMap<String, Integer> result = new HashMap<String, Integer>();
+        for (ObjectDeque<K, T> objectDeque : poolMap.values()) {
+            result.put(objectDeque.key.toString(), Integer.valueOf(Math.max(0, objectDeque.getCreateCount() - objectDeque.size())));
+        }
+        return result;
+    }
+
+    /**
+     * Return an estimate of the number of threads currently blocked waiting for an object from the pool. This is intended for monitoring only, not for
+     * synchronization control.
+     *
+     * @return The estimate of the number of threads currently blocked waiting for an object from the pool
+     */
+    @Override
+    public int getNumWaiters() {
+        return (int) waiterCount.sum();
+    }
+
+    /**
+     * Return an estimate of the number of threads currently blocked waiting for an object from the pool for each key. This is intended for monitoring only,
+     * not for synchronization control.
+     *
+     * The map has an entry per key, so with many keys prefer {@link #listTopKeysByWaiters()}.
+     *
+     * @return The estimate of the number of threads currently blocked waiting for an object from the pool for each key
+     */
+    public Map<String, Integer> getNumWaitersByKey() {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (ObjectDeque<K, T> objectDeque : poolMap.values()) {
+            if (getBlockWhenExhausted()) {
+                result.put(objectDeque.key.toString(), Integer.valueOf(objectDeque.getTakeQueueLength()));
+            } else {
+                result.put(objectDeque.key.toString(), Integer.valueOf(0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Provides information on all the objects in the pool, both idle (waiting to be borrowed) and active (currently borrowed).
+     * <p>
+     * Note: This is named listAllObjects so it is presented as an operation via JMX. That means it won't be invoked unless the explicitly requested whereas all
+     * attributes will be automatically requested when viewing the attributes for an object in a tool like JConsole.
+     *
+     * @return Information grouped by key on all the objects in the pool
+     */
+    @Override
+    public Map<String, List<DefaultPooledObjectInfo>> listAllObjects() {
+        Map<String, List<DefaultPooledObjectInfo>> result = new HashMap<String, List<DefaultPooledObjectInfo>>();
+        for (PooledEntry<K, T> entry : allObjects.values()) {
+            String key = entry.objectDeque.key.toString();
+            List<DefaultPooledObjectInfo> list = result.get(key);
+            if (list == null) {
+                list = new ArrayList<DefaultPooledObjectInfo>();
+                result.put(key, list);
+            }
+            list.add(new DefaultPooledObjectInfo(entry.pooledObject));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the maximum number of keys in the top-K views.
+     *
+     * @return the number of keys reported by the top-K views
+     */
+    @Override
+    public int getTopKeysLimit() {
+        return topKeysLimit;
+    }
+
+    /**
+     * Sets the maximum number of keys in the top-K views. Keys ranked by wait time and creations are tracked approximately with a fixed number of counters,
+     * so limits above a few dozen keys give less reliable rankings at the bottom.
+     *
+     * @param topKeysLimit
+     *            the number of keys to report
+     */
+    public void setTopKeysLimit(int topKeysLimit) {
+        if (topKeysLimit < 1) {
+            throw new IllegalArgumentException("topKeysLimit must be positive.");
+        }
+        this.topKeysLimit = topKeysLimit;
+    }
+
+    /**
+     * Returns the keys with the most active objects, most first. Every key is visited, but only {@link #getTopKeysLimit()} of them are kept, so the
+     * result stays small however many keys there are.
+     * <p>
+     * Note: This is named listTopKeysByActive so it is presented as an operation via JMX, like {@link #listAllObjects()}, and a tool like JConsole does
+     * not visit every key each time it refreshes the attributes.
+     *
+     * @return the number of active objects of the top keys
+     */
+    @Override
+    public Map<String, Integer> listTopKeysByActive() {
+        PriorityQueue<RankedKey> top = new PriorityQueue<RankedKey>();
+        int limit = topKeysLimit;
+        for (ObjectDeque<K, T> objectDeque : poolMap.values()) {
+            int active = objectDeque.getCreateCount() - objectDeque.size();
+            if (active > 0) {
+                rank(top, limit, objectDeque.key, active);
+            }
+        }
+        return toMap(top);
+    }
+
+    /**
+     * Returns the keys with the most threads waiting for an object, most first. Like {@link #listTopKeysByActive()}, every key is visited, and locked
+     * briefly to count its waiters, but only the top keys are kept; it is an operation via JMX for the same reason.
+     *
+     * @return the estimated number of waiting threads of the top keys
+     */
+    @Override
+    public Map<String, Integer> listTopKeysByWaiters() {
+        PriorityQueue<RankedKey> top = new PriorityQueue<RankedKey>();
+        if (getBlockWhenExhausted()) {
+            int limit = topKeysLimit;
+            for (ObjectDeque<K, T> objectDeque : poolMap.values()) {
+                int waiters = objectDeque.getTakeQueueLength();
+                if (waiters > 0) {
+                    rank(top, limit, objectDeque.key, waiters);
+                }
+            }
+        }
+        return toMap(top);
+    }
+
+    /**
+     * Returns the keys whose borrowers have waited longest in total, most first. The totals are kept by a heavy hitter sketch updated on each borrow that
+     * waits, decay by half every minute and may overestimate keys near the bottom of the ranking.
+     *
+     * @return the recent total borrow wait time in milliseconds of the top keys
+     */
+    @Override
+    public Map<String, Long> getTopKeysByWaitTime() {
+        return toMap(waitTimeByKey.top(topKeysLimit));
+    }
+
+    /**
+     * Returns the keys that have created the most objects recently, most first. The counts are kept by a heavy hitter sketch, decay by half every minute
+     * and may overestimate keys near the bottom of the ranking.
+     *
+     * @return the recent number of creations of the top keys
+     */
+    @Override
+    public Map<String, Long> getTopKeysByCreations() {
+        return toMap(creationsByKey.top(topKeysLimit));
+    }
+
+    /**
+     * Returns how the keys are distributed by their number of active objects, in power of two buckets: {@code "0"}, {@code "1"}, {@code "2-3"},
+     * {@code "4-7"} and so on. Empty buckets are left out. Every key is visited, so like {@link #listTopKeysByActive()} it is an operation via JMX.
+     *
+     * @return the number of keys in each bucket
+     */
+    @Override
+    public Map<String, Integer> listKeysByActiveCount() {
+        int[] buckets = new int[33];
+        for (ObjectDeque<K, T> objectDeque : poolMap.values()) {
+            int active = Math.max(0, objectDeque.getCreateCount() - objectDeque.size());
+            buckets[32 - Integer.numberOfLeadingZeros(active)]++;
+        }
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == 0) {
+                continue;
+            }
+            String label;
+            if (i <= 1) {
+                label = Integer.toString(i);
+            } else {
+                long low = 1L << (i - 1);
+                label = low + "-" + ((low << 1) - 1);
+            }
+            result.put(label, Integer.valueOf(buckets[i]));
+        }
+        return result;
+    }
+
+    private static void rank(PriorityQueue<RankedKey> top, int limit, Object key, int value) {
+        if (top.size() < limit) {
+            top.add(new RankedKey(key, value));
+        } else if (value > top.peek().value) {
+            top.poll();
+            top.add(new RankedKey(key, value));
+        }
+    }
+
+    private static Map<String, Integer> toMap(PriorityQueue<RankedKey> top) {
+        RankedKey[] ranked = top.toArray(new RankedKey[top.size()]);
+        Arrays.sort(ranked, Collections.reverseOrder());
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        for (RankedKey r : ranked) {
+            result.put(r.key.toString(), Integer.valueOf(r.value));
+        }
+        return result;
+    }
+
+    private static <K> Map<String, Long> toMap(List<SpaceSavingSketch.Entry<K>> top) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (SpaceSavingSketch.Entry<K> entry : top) {
+            result.put(entry.getKey().toString(), Long.valueOf(entry.getCount()));
+        }
+        return result;
+    }
+
+    // --- inner classes ----------------------------------------------
+
+    /**
+     * A key and the value it is ranked by in a top-K view. Ordered by value, so that a priority queue keeps the smallest at its head.
+     */
+    private static final class RankedKey implements Comparable<RankedKey> {
+        final Object key;
+        final int value;
+
+        RankedKey(Object key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(RankedKey o) {
+            return value < o.value ? -1 : value > o.value ? 1 : 0;
+        }
+    }
+
+    /**
+     * The sub-pool of one key.
+     * <p>
+     * The number of objects that exist or are being created for the key, and the number of threads using the sub-pool, are packed into a single atomic
+     * {@code long}. A sub-pool whose count and users are both zero is reclaimed by swapping the state to {@link #RECLAIMED}; once reclaimed, it can neither
+     * be registered with nor create objects, so nothing can be added to it after it has been removed from the map.
+     * <p>
+     * Idle objects are kept in a {@link LinkedBlockingDeque}. A compact sub-pool starts without one and keeps its single idle object in an inline slot; the
+     * deque is only created ("inflated") when a second object goes idle or a borrower has to block. A thread that puts an object in the slot checks for a
+     * deque afterwards, and a thread that inflates checks the slot afterwards, so at least one of them moves the object into the deque.
+     * <p>
+     * The atomic fields are updated through field updaters rather than atomic wrapper objects to keep sub-pools small when there are many keys.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final class ObjectDeque<K, T> {
+
+        private static final long USER = 1L << 32;
+        private static final long COUNT_MASK = USER - 1;
+        private static final long RECLAIMED = -1L;
+
+        private static final AtomicLongFieldUpdater<ObjectDeque> STATE = AtomicLongFieldUpdater.newUpdater(ObjectDeque.class, "state");
+        private static final AtomicReferenceFieldUpdater<ObjectDeque, PooledObject> SLOT = AtomicReferenceFieldUpdater.newUpdater(ObjectDeque.class,
+                PooledObject.class, "slot");
+        private static final AtomicReferenceFieldUpdater<ObjectDeque, LinkedBlockingDeque> DEQUE = AtomicReferenceFieldUpdater.newUpdater(ObjectDeque.class,
+                LinkedBlockingDeque.class, "deque");
+        private static final AtomicIntegerFieldUpdater<ObjectDeque> STARVING = AtomicIntegerFieldUpdater.newUpdater(ObjectDeque.class, "starving");
+        private static final AtomicIntegerFieldUpdater<ObjectDeque> IDLE_LISTED = AtomicIntegerFieldUpdater.newUpdater(ObjectDeque.class, "idleListed");
+        private static final AtomicIntegerFieldUpdater<ObjectDeque> CAPACITY_WAITERS = AtomicIntegerFieldUpdater.newUpdater(ObjectDeque.class,
+                "capacityWaiters");
+
+        private final K key;
+
+        private final KeyQuota quota;
+
+        /* Objects the key can have without using shared capacity, set aside from maxTotal. */
+        private final int reserved;
+
+        private final boolean fairness;
+
+        /* The compatibility key of the key if the factory can rekey objects, otherwise null. */
+        private final Object compatibilityKey;
+
+        /* Whether the sub-pool is waiting on the evictor's backlog. */
+        boolean evictionBacklogged = false; // @GuardedBy("evictionLock")
+
+        private volatile PooledObject<T> slot = null;
+
+        private volatile LinkedBlockingDeque<PooledObject<T>> deque = null;
+
+        /* Users in the high 32 bits, created objects in the low 32 bits. */
+        private volatile long state = 0L;
+
+        /* 1 while the sub-pool is in the queue of keys waiting for capacity. */
+        private volatile int starving = 0;
+
+        /* Borrowers blocked on the sub-pool because the pool as a whole was full. */
+        private volatile int capacityWaiters = 0;
+
+        /* 1 while the sub-pool is in the queue of keys holding idle objects. */
+        private volatile int idleListed = 0;
+
+        ObjectDeque(K key, KeyQuota quota, int reserved, Object compatibilityKey, boolean compact, boolean fairness) {
+            this.key = key;
+            this.quota = quota;
+            this.reserved = reserved;
+            this.compatibilityKey = compatibilityKey;
+            this.fairness = fairness;
+            if (!compact) {
+                this.deque = new LinkedBlockingDeque<PooledObject<T>>(fairness);
+            }
+        }
+
+        // --- idle objects ---
+
+        /**
+         * Takes the first idle object without blocking.
+         */
+        @SuppressWarnings("unchecked")
+        PooledObject<T> poll() {
+            PooledObject<T> p = slot;
+            if (p != null && SLOT.compareAndSet(this, p, null)) {
+                return p;
+            }
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            return d == null ? null : d.pollFirst();
+        }
+
+        /**
+         * Takes the first idle object, waiting for one to be added if there is none.
+         *
+         * @param maxWaitMillis
+         *            how long to wait, negative to wait without a limit
+         */
+        PooledObject<T> take(long maxWaitMillis) throws InterruptedException {
+            LinkedBlockingDeque<PooledObject<T>> d = inflate();
+            if (maxWaitMillis < 0) {
+                return d.takeFirst();
+            }
+            return d.pollFirst(maxWaitMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Adds an idle object at the head (first) or tail of the sub-pool.
+         */
+        @SuppressWarnings("unchecked")
+        void add(PooledObject<T> p, boolean first) {
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            if (d == null) {
+                if (SLOT.compareAndSet(this, null, p)) {
+                    if (deque != null && SLOT.compareAndSet(this, p, null)) {
+                        // Inflated concurrently without seeing the slot
+                        deque.addFirst(p);
+                    }
+                    return;
+                }
+                d = inflate();
+            }
+            if (first) {
+                d.addFirst(p);
+            } else {
+                d.addLast(p);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private LinkedBlockingDeque<PooledObject<T>> inflate() {
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            if (d == null) {
+                d = new LinkedBlockingDeque<PooledObject<T>>(fairness);
+                if (!DEQUE.compareAndSet(this, null, d)) {
+                    d = deque;
+                }
+            }
+            PooledObject<T> p = slot;
+            if (p != null && SLOT.compareAndSet(this, p, null)) {
+                d.addFirst(p);
+            }
+            return d;
+        }
+
+        boolean remove(PooledObject<T> p) {
+            if (slot == p && SLOT.compareAndSet(this, p, null)) {
+                return true;
+            }
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            return d != null && d.remove(p);
+        }
+
+        int size() {
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            return (slot != null ? 1 : 0) + (d != null ? d.size() : 0);
+        }
+
+        /**
+         * Returns the object that has been idle longest, without removing it.
+         *
+         * @param lifo
+         *            whether idle objects are added at the head, in which case the oldest is at the tail
+         */
+        PooledObject<T> peekOldest(boolean lifo) {
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            PooledObject<T> p = d == null ? null : lifo ? d.peekLast() : d.peekFirst();
+            return p != null ? p : slot;
+        }
+
+        /**
+         * Returns an iterator over the idle objects for the evictor, oldest first. The iterator does not fail if objects are borrowed or returned while it is
+         * in use.
+         */
+        Iterator<PooledObject<T>> idleIterator(boolean lifo) {
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            if (d != null) {
+                return new EvictionIterator<T>(d, lifo);
+            }
+            PooledObject<T> p = slot;
+            if (p == null) {
+                return Collections.<PooledObject<T>> emptyList().iterator();
+            }
+            return Collections.singletonList(p).iterator();
+        }
+
+        boolean hasTakeWaiters() {
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            return d != null && d.hasTakeWaiters();
+        }
+
+        int getTakeQueueLength() {
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            return d != null ? d.getTakeQueueLength() : 0;
+        }
+
+        void interuptTakeWaiters() {
+            LinkedBlockingDeque<PooledObject<T>> d = deque;
+            if (d != null) {
+                d.interuptTakeWaiters();
+            }
+        }
+
+        boolean markIdleListed() {
+            return idleListed == 0 && IDLE_LISTED.compareAndSet(this, 0, 1);
+        }
+
+        void clearIdleListed() {
+            idleListed = 0;
+        }
+
+        // --- capacity queue ---
+
+        boolean markStarving() {
+            return STARVING.compareAndSet(this, 0, 1);
+        }
+
+        void clearStarving() {
+            starving = 0;
+        }
+
+        int getCapacityWaiters() {
+            return capacityWaiters;
+        }
+
+        void addCapacityWaiter(int delta) {
+            CAPACITY_WAITERS.addAndGet(this, delta);
+        }
+
+        // --- quota ---
+
+        int getMaxTotal(int maxTotalPerKey) {
+            return quota == null ? maxTotalPerKey : quota.getMaxTotal();
+        }
+
+        int getWeight() {
+            return quota == null ? 1 : quota.getWeight();
+        }
+
+        // --- users and object count ---
+
+        boolean register() {
+            for (;;) {
+                long s = state;
+                if (s == RECLAIMED) {
+                    return false;
+                }
+                if (STATE.compareAndSet(this, s, s + USER)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return true if the sub-pool was reclaimed and must be removed from the map
+         */
+        boolean deregister() {
+            return STATE.addAndGet(this, -USER) == 0L && STATE.compareAndSet(this, 0L, RECLAIMED);
+        }
+
+        /**
+         * @return the number of objects before the increment, or -1 if the limit has been reached
+         */
+        int tryIncrementCreateCount(int maxTotal) {
+            for (;;) {
+                long s = state;
+                if (s == RECLAIMED) {
+                    return -1;
+                }
+                int count = (int) (s & COUNT_MASK);
+                if (maxTotal > -1 && count >= maxTotal || count == Integer.MAX_VALUE) {
+                    return -1;
+                }
+                if (STATE.compareAndSet(this, s, s + 1)) {
+                    return count;
+                }
+            }
+        }
+
+        /**
+         * @return the number of objects after the decrement
+         */
+        int decrementCreateCount() {
+            return (int) (STATE.decrementAndGet(this) & COUNT_MASK);
+        }
+
+        /**
+         * @return true if the sub-pool had no objects and no users and has been reclaimed; it must then be removed from the map
+         */
+        boolean tryReclaim() {
+            return STATE.compareAndSet(this, 0L, RECLAIMED);
+        }
+
+        boolean isReclaimed() {
+            return state == RECLAIMED;
+        }
+
+        int getCreateCount() {
+            long s = state;
+            return s == RECLAIMED ? 0 : (int) (s & COUNT_MASK);
+        }
+    }
+
+    /**
+     * An object in the pool together with the sub-pool it belongs to.
+     */
+    private static final class PooledEntry<K, T> {
+
+        private final ObjectDeque<K, T> objectDeque;
+        private final PooledObject<T> pooledObject;
+
+        PooledEntry(ObjectDeque<K, T> objectDeque, PooledObject<T> pooledObject) {
+            this.objectDeque = objectDeque;
+            this.pooledObject = pooledObject;
+        }
+    }
+
+    // --- configuration attributes --------------------------------------------
+
+    private volatile int maxIdlePerKey = GenericKeyedObjectPoolConfig.DEFAULT_MAX_IDLE_PER_KEY;
+    private volatile int minIdlePerKey = GenericKeyedObjectPoolConfig.DEFAULT_MIN_IDLE_PER_KEY;
+    private volatile int maxTotalPerKey = GenericKeyedObjectPoolConfig.DEFAULT_MAX_TOTAL_PER_KEY;
+    private volatile boolean compactKeys = GenericKeyedObjectPoolConfig.DEFAULT_COMPACT_KEYS;
+    private volatile long maxEvictionRunMillis = GenericKeyedObjectPoolConfig.DEFAULT_MAX_EVICTION_RUN_MILLIS;
+    private final KeyedPooledObjectFactory<K, T> factory;
+    private final RekeyableKeyedPooledObjectFactory<K, T> rekeyFactory;
+
+    // --- internal attributes -------------------------------------------------
+
+    /*
+     * My hash of sub-pools (ObjectQueue). Sub-pools are added by register(K) and removed when they hold no objects and have no users.
+     */
+    private final ConcurrentHashMap<K, ObjectDeque<K, T>> poolMap = new ConcurrentHashMap<K, ObjectDeque<K, T>>();
+
+    /*
+     * All of the objects currently associated with this pool in any state, with the sub-pool each belongs to.
+     */
+    private final Map<IdentityWrapper<T>, PooledEntry<K, T>> allObjects = new ConcurrentHashMap<IdentityWrapper<T>, PooledEntry<K, T>>();
+
+    /*
+     * The idle objects under all keys. Updated wherever an object enters or leaves a sub-pool, so that getNumIdle() does not visit every key.
+     */
+    private final StripedCounter idleCount = new StripedCounter();
+
+    /*
+     * The combined count of the currently created objects and those in the process of being created under all keys.
+     */
+    private final AtomicInteger numTotal = new AtomicInteger(0);
+
+    /*
+     * The capacity in use or set aside under all keys: the objects not covered by their key's reserve plus all reserves. Checked against maxTotal.
+     */
+    private final AtomicInteger committed = new AtomicInteger(0);
+
+    private volatile KeyQuotaResolver<? super K> keyQuotaResolver = null;
+
+    /*
+     * Sub-pools with borrowers blocked because maxTotal has been reached, in the order they ran out.
+     */
+    private final Queue<ObjectDeque<K, T>> starvingDeques = new ConcurrentLinkedQueue<ObjectDeque<K, T>>();
+    private final AtomicInteger reuseRequests = new AtomicInteger(0);
+    private final AtomicLong destroyedByRebalanceCount = new AtomicLong(0);
+
+    /*
+     * Sub-pools that have held idle objects since they were last found without any, in the order they gained them. Rebalancing takes its victims from the
+     * head of the queue; the count is kept separately because the size of the queue is expensive to compute.
+     */
+    private final Queue<ObjectDeque<K, T>> idleDeques = new ConcurrentLinkedQueue<ObjectDeque<K, T>>();
+    private final AtomicInteger idleDequeCount = new AtomicInteger(0);
+    /** The number of keys holding idle objects that rebalancing considers for each object it takes */
+    private static final int REBALANCE_CANDIDATES = 16;
+
+    /*
+     * Sub-pools by the compatibility key of their key, only kept if the factory can rekey objects.
+     */
+    private final ConcurrentHashMap<Object, Set<ObjectDeque<K, T>>> compatibleDeques = new ConcurrentHashMap<Object, Set<ObjectDeque<K, T>>>();
+    private final AtomicLong rekeyedCount = new AtomicLong(0);
+
+    // Heavy hitter tracking for the per-key JMX views
+    private static final int KEY_SKETCH_CAPACITY = 256;
+    private static final long KEY_SKETCH_HALF_LIFE_MILLIS = 60 * 1000L;
+    private final SpaceSavingSketch<K> waitTimeByKey = new SpaceSavingSketch<K>(KEY_SKETCH_CAPACITY, KEY_SKETCH_HALF_LIFE_MILLIS);
+    private final SpaceSavingSketch<K> creationsByKey = new SpaceSavingSketch<K>(KEY_SKETCH_CAPACITY, KEY_SKETCH_HALF_LIFE_MILLIS);
+    private volatile int topKeysLimit = 10;
+
+    /** The number of keys an eviction run may visit for every object it may examine */
+    private static final int KEYS_VISITED_PER_TEST = 16;
+    private Iterator<ObjectDeque<K, T>> evictionKeyIterator = null; // @GuardedBy("evictionLock")
+    private ObjectDeque<K, T> evictionDeque = null; // @GuardedBy("evictionLock")
+    private Iterator<PooledObject<T>> idleIterator = null; // @GuardedBy("evictionLock")
+    private final ArrayDeque<ObjectDeque<K, T>> evictionBacklog = new ArrayDeque<ObjectDeque<K, T>>(); // @GuardedBy("evictionLock")
+    private ObjectDeque<K, T> backlogDeque = null; // @GuardedBy("evictionLock")
+    private Iterator<PooledObject<T>> backlogIterator = null; // @GuardedBy("evictionLock")
+    private final ArrayDeque<PooledObject<T>> evictionScratch = new ArrayDeque<PooledObject<T>>(1); // @GuardedBy("evictionLock")
+
+    // JMX specific attributes
+    private static final String ONAME_BASE = "org.apache.commons.pool2:type=GenericKeyedObjectPool,name=";
+}
@@ -17,21 +17,27 @@
 package bean.impl.pool;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import util.PoolUtils;
 import bean.assist.IdentityWrapper;
 import bean.assist.LinkedBlockingDeque;
 import bean.assist.PoolImplUtils;
+import bean.assist.RateLimiter;
 import bean.impl.assist.DefaultPooledObjectInfo;
+import bean.impl.assist.PooledObjectQuery;
 import bean.inter.PooledObject;
+import bean.inter.assist.PooledObjectVisitor;
 import bean.inter.assist.SwallowedExceptionListener;
 import bean.inter.assist.UsageTracking;
 import bean.inter.factory.PooledObjectFactory;
@@ -43,6 +49,8 @@ import config.abandon.AbandonedConfig;
 import config.evict.EvictionConfig;
 import config.evict.EvictionPolicy;
 import config.pool.impl.GenericObjectPoolConfig;
+import enums.DestroyCause;
+import enums.FactoryOperation;
 import enums.PooledObjectState;
 
 public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements ObjectPool<T>, GenericObjectPoolMXBean, UsageTracking<T> {
@@ -164,6 +172,83 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
         }
     }
 
+    /**
+     * Returns the maximum number of temporary objects that may exist beyond {@link #getMaxTotal() maxTotal}. When a borrower has waited
+     * {@link #getOverflowWaitThresholdMillis()} for an idle object without getting one, the pool creates an overflow object for it if this limit and
+     * {@link #getMaxOverflowCreatesPerSecond()} allow it. Overflow objects are destroyed when they are returned rather than kept idle, so they only trade
+     * a short burst of extra load on the backend for lower borrow latency. Overflow only applies when {@link #getBlockWhenExhausted()} is true.
+     * 
+     * @return the maximum number of overflow objects; zero disables overflow
+     * 
+     * @see #setMaxOverflow(int)
+     */
+    @Override
+    public int getMaxOverflow() {
+        return maxOverflow;
+    }
+
+    /**
+     * Sets the maximum number of temporary objects that may exist beyond {@link #getMaxTotal() maxTotal}.
+     * 
+     * @param maxOverflow
+     *            the maximum number of overflow objects; zero disables overflow
+     * 
+     * @see #getMaxOverflow()
+     */
+    public void setMaxOverflow(int maxOverflow) {
+        this.maxOverflow = maxOverflow;
+    }
+
+    /**
+     * Returns how long a borrower waits for an idle object before the pool tries to create an overflow object for it.
+     * 
+     * @return the wait threshold in milliseconds
+     * 
+     * @see #getMaxOverflow()
+     */
+    @Override
+    public long getOverflowWaitThresholdMillis() {
+        return overflowWaitThresholdMillis;
+    }
+
+    public void setOverflowWaitThresholdMillis(long overflowWaitThresholdMillis) {
+        this.overflowWaitThresholdMillis = overflowWaitThresholdMillis;
+    }
+
+    /**
+     * Returns the maximum rate at which overflow objects are created. A borrower that passes the wait threshold when no permit is available keeps
+     * waiting for an idle object.
+     * 
+     * @return the maximum number of overflow objects created per second, or a non-positive value for no limit
+     * 
+     * @see #getMaxOverflow()
+     */
+    @Override
+    public double getMaxOverflowCreatesPerSecond() {
+        RateLimiter limiter = overflowRateLimiter;
+        return limiter == null ? -1d : limiter.getPermitsPerSecond();
+    }
+
+    public void setMaxOverflowCreatesPerSecond(double maxOverflowCreatesPerSecond) {
+        this.overflowRateLimiter = maxOverflowCreatesPerSecond > 0d ? new RateLimiter(maxOverflowCreatesPerSecond) : null;
+    }
+
+    /**
+     * @return the number of overflow objects currently in existence, all of which are borrowed or being created
+     */
+    @Override
+    public int getNumOverflow() {
+        return overflowCount.get();
+    }
+
+    /**
+     * @return the total number of overflow objects created over the lifetime of the pool; they are also included in {@link #getCreatedCount()}
+     */
+    @Override
+    public long getOverflowCreatedCount() {
+        return overflowCreatedCount.get();
+    }
+
     /**
      * Whether or not abandoned object removal is configured for this pool.
      * 
@@ -250,6 +335,12 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
         setTimeBetweenEvictionRunsMillis(conf.getTimeBetweenEvictionRunsMillis());
         setSoftMinEvictableIdleTimeMillis(conf.getSoftMinEvictableIdleTimeMillis());
         setEvictionPolicyClassName(conf.getEvictionPolicyClassName());
+        setEventThresholdMillis(conf.getEventThresholdMillis());
+        setMaxWaiters(conf.getMaxWaiters());
+        setShedOnEstimatedWait(conf.getShedOnEstimatedWait());
+        setMaxOverflow(conf.getMaxOverflow());
+        setOverflowWaitThresholdMillis(conf.getOverflowWaitThresholdMillis());
+        setMaxOverflowCreatesPerSecond(conf.getMaxOverflowCreatesPerSecond());
     }
 
     /**
@@ -339,8 +430,8 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
         // method execution
         boolean blockWhenExhausted = getBlockWhenExhausted();
 
-        boolean create;
-        long waitTime = System.currentTimeMillis();
+        boolean create = false;
+        long waitTime = System.nanoTime();
 
         while (p == null) {
             create = false;
@@ -353,16 +444,39 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                     }
                 }
                 if (p == null) {
-                    if (borrowMaxWaitMillis < 0) {
-                        p = idleObjects.takeFirst();
-                    } else {
-                        p = idleObjects.pollFirst(borrowMaxWaitMillis, TimeUnit.MILLISECONDS);
+                    long waitStart = beginWait(borrowMaxWaitMillis);
+                    try {
+                        long threshold = getOverflowWaitThresholdMillis();
+                        if (getMaxOverflow() > 0 && (borrowMaxWaitMillis < 0 || threshold < borrowMaxWaitMillis)) {
+                            p = idleObjects.pollFirst(threshold, TimeUnit.MILLISECONDS);
+                            if (p == null) {
+                                p = createOverflow();
+                                if (p != null) {
+                                    create = true;
+                                }
+                            }
+                            if (p == null) {
+                                if (borrowMaxWaitMillis < 0) {
+                                    p = idleObjects.takeFirst();
+                                } else {
+                                    p = idleObjects.pollFirst(borrowMaxWaitMillis - threshold, TimeUnit.MILLISECONDS);
+                                }
+                            }
+                        } else if (borrowMaxWaitMillis < 0) {
+                            p = idleObjects.takeFirst();
+                        } else {
+                            p = idleObjects.pollFirst(borrowMaxWaitMillis, TimeUnit.MILLISECONDS);
+                        }
+                    } finally {
+                        endWait(waitStart, p != null);
                     }
                 }
                 if (p == null) {
                     throw new NoSuchElementException("Timeout waiting for idle object");
                 }
-                if (!p.allocate()) {
+                if (p.allocate()) {
+                    activeCount.increment();
+                } else {
                     p = null;
                 }
             } else {
@@ -376,17 +490,19 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                 if (p == null) {
                     throw new NoSuchElementException("Pool exhausted");
                 }
-                if (!p.allocate()) {
+                if (p.allocate()) {
+                    activeCount.increment();
+                } else {
                     p = null;
                 }
             }
 
             if (p != null) {
                 try {
-                    factory.activateObject(p);
+                    activate(p);
                 } catch (Exception e) {
                     try {
-                        destroy(p);
+                        destroy(p, DestroyCause.ACTIVATION);
                     } catch (Exception e1) {
                         // Ignore - activation failure is more important
                     }
@@ -401,14 +517,14 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                     boolean validate = false;
                     Throwable validationThrowable = null;
                     try {
-                        validate = factory.validateObject(p);
+                        validate = validate(p);
                     } catch (Throwable t) {
                         PoolUtils.checkRethrow(t);
                         validationThrowable = t;
                     }
                     if (!validate) {
                         try {
-                            destroy(p);
+                            destroy(p, DestroyCause.VALIDATION);
                             destroyedByBorrowValidationCount.incrementAndGet();
                         } catch (Exception e) {
                             // Ignore - validation failure is more important
@@ -424,7 +540,9 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
             }
         }
 
-        updateStatsBorrow(p, System.currentTimeMillis() - waitTime);
+        long waitNanos = System.nanoTime() - waitTime;
+        updateStatsBorrow(p, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        fireBorrow(p, waitNanos, create);
 
         return p.getObject();
     }
@@ -462,10 +580,23 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
 
         long activeTime = p.getActiveTimeMillis();
 
+        if (overflowCount.get() > 0 && overflowObjects.contains(p)) {
+            updateStatsReturn(activeTime);
+            fireReturn(p, activeTime);
+            try {
+                destroy(p, DestroyCause.OVERFLOW);
+            } catch (Exception e) {
+                swallowException(e);
+            }
+            return;
+        }
+
         if (getTestOnReturn()) {
-            if (!factory.validateObject(p)) {
+            if (!validate(p)) {
+                updateStatsReturn(activeTime);
+                fireReturn(p, activeTime);
                 try {
-                    destroy(p);
+                    destroy(p, DestroyCause.VALIDATION);
                 } catch (Exception e) {
                     swallowException(e);
                 }
@@ -474,17 +605,18 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                 } catch (Exception e) {
                     swallowException(e);
                 }
-                updateStatsReturn(activeTime);
                 return;
             }
         }
 
         try {
-            factory.passivateObject(p);
+            passivate(p);
         } catch (Exception e1) {
             swallowException(e1);
+            updateStatsReturn(activeTime);
+            fireReturn(p, activeTime);
             try {
-                destroy(p);
+                destroy(p, DestroyCause.PASSIVATION);
             } catch (Exception e) {
                 swallowException(e);
             }
@@ -493,18 +625,21 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
             } catch (Exception e) {
                 swallowException(e);
             }
-            updateStatsReturn(activeTime);
             return;
         }
 
         if (!p.deallocate()) {
             throw new IllegalStateException("Object has already been returned to this pool or is invalid");
         }
+        activeCount.decrement();
+
+        updateStatsReturn(activeTime);
+        fireReturn(p, activeTime);
 
         int maxIdleSave = getMaxIdle();
         if (isClosed() || maxIdleSave > -1 && maxIdleSave <= idleObjects.size()) {
             try {
-                destroy(p);
+                destroy(p, isClosed() ? DestroyCause.CLEARED : DestroyCause.MAX_IDLE);
             } catch (Exception e) {
                 swallowException(e);
             }
@@ -521,7 +656,6 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                 clear();
             }
         }
-        updateStatsReturn(activeTime);
     }
 
     /**
@@ -536,6 +670,10 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
      */
     @Override
     public void invalidateObject(T obj) throws Exception {
+        invalidateObject(obj, DestroyCause.INVALIDATED);
+    }
+
+    private void invalidateObject(T obj, DestroyCause cause) throws Exception {
         PooledObject<T> p = allObjects.get(new IdentityWrapper<T>(obj));
         if (p == null) {
             if (isAbandonedConfig()) {
@@ -546,7 +684,7 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
         }
         synchronized (p) {
             if (p.getState() != PooledObjectState.INVALID) {
-                destroy(p);
+                destroy(p, cause);
             }
         }
         ensureIdle(1, false);
@@ -570,7 +708,7 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
 
         while (p != null) {
             try {
-                destroy(p);
+                destroy(p, DestroyCause.CLEARED);
             } catch (Exception e) {
                 swallowException(e);
             }
@@ -580,7 +718,7 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
 
     @Override
     public int getNumActive() {
-        return allObjects.size() - idleObjects.size();
+        return (int) activeCount.sum();
     }
 
     @Override
@@ -631,6 +769,9 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
 
         if (idleObjects.size() > 0) {
 
+            long startTime = isEventListenerSet() ? System.nanoTime() : 0L;
+            int examined = 0;
+            long destroyedBefore = destroyedByEvictorCount.get();
             PooledObject<T> underTest = null;
             EvictionPolicy<T> evictionPolicy = getEvictionPolicy();
 
@@ -645,6 +786,9 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                     }
                     if (!evictionIterator.hasNext()) {
                         // Pool exhausted, nothing to do here
+                        if (startTime != 0L) {
+                            fireEvictionRun(examined, (int) (destroyedByEvictorCount.get() - destroyedBefore), System.nanoTime() - startTime);
+                        }
                         return;
                     }
 
@@ -664,6 +808,7 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                         i--;
                         continue;
                     }
+                    examined++;
 
                     // User provided eviction policy could throw all sorts of
                     // crazy exceptions. Protect against such an exception
@@ -681,27 +826,27 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                     }
 
                     if (evict) {
-                        destroy(underTest);
+                        destroy(underTest, DestroyCause.EVICTION);
                         destroyedByEvictorCount.incrementAndGet();
                     } else {
                         if (testWhileIdle) {
                             boolean active = false;
                             try {
-                                factory.activateObject(underTest);
+                                activate(underTest);
                                 active = true;
                             } catch (Exception e) {
-                                destroy(underTest);
+                                destroy(underTest, DestroyCause.EVICTION);
                                 destroyedByEvictorCount.incrementAndGet();
                             }
                             if (active) {
-                                if (!factory.validateObject(underTest)) {
-                                    destroy(underTest);
+                                if (!validate(underTest)) {
+                                    destroy(underTest, DestroyCause.EVICTION);
                                     destroyedByEvictorCount.incrementAndGet();
                                 } else {
                                     try {
-                                        factory.passivateObject(underTest);
+                                        passivate(underTest);
                                     } catch (Exception e) {
-                                        destroy(underTest);
+                                        destroy(underTest, DestroyCause.EVICTION);
                                         destroyedByEvictorCount.incrementAndGet();
                                     }
                                 }
@@ -714,6 +859,9 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                     }
                 }
             }
+            if (startTime != 0L) {
+                fireEvictionRun(examined, (int) (destroyedByEvictorCount.get() - destroyedBefore), System.nanoTime() - startTime);
+            }
         }
         AbandonedConfig ac = this.abandonedConfig;
         if (ac != null && ac.getRemoveAbandonedOnMaintenance()) {
@@ -753,21 +901,74 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
             return null;
         }
 
+        try {
+            return makeObject(false);
+        } catch (Exception e) {
+            createCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Attempts to create a temporary object beyond {@link #getMaxTotal() maxTotal}, for a borrower that has waited past the overflow threshold.
+     * 
+     * @return The new overflow object or {@code null} if the overflow limit or its creation rate does not allow one right now
+     * 
+     * @throws Exception
+     *             if the object factory's {@code makeObject} fails
+     */
+    private PooledObject<T> createOverflow() throws Exception {
+        int localMaxOverflow = getMaxOverflow();
+        while (true) {
+            int current = overflowCount.get();
+            if (current >= localMaxOverflow) {
+                return null;
+            }
+            if (overflowCount.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        RateLimiter limiter = overflowRateLimiter;
+        if (limiter != null && !limiter.tryAcquire()) {
+            overflowCount.decrementAndGet();
+            return null;
+        }
+        try {
+            PooledObject<T> p = makeObject(true);
+            overflowCreatedCount.incrementAndGet();
+            return p;
+        } catch (Exception e) {
+            overflowCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Makes a new object with the factory and registers it with the pool. The caller has already reserved a slot for it in {@link #createCount} or, for
+     * an overflow object, in {@link #overflowCount}, and releases that slot if this method throws.
+     */
+    private PooledObject<T> makeObject(boolean overflow) throws Exception {
         final PooledObject<T> p;
+        long startTime = startFactoryOperation();
         try {
             p = factory.makeObject();
         } catch (Exception e) {
-            createCount.decrementAndGet();
+            fireFactoryOperation(null, FactoryOperation.MAKE, startTime);
             throw e;
         }
+        fireFactoryOperation(p, FactoryOperation.MAKE, startTime);
 
         AbandonedConfig ac = this.abandonedConfig;
         if (ac != null && ac.getLogAbandoned()) {
             p.setLogAbandoned(true);
         }
 
+        if (overflow) {
+            overflowObjects.add(p);
+        }
         createdCount.incrementAndGet();
         allObjects.put(new IdentityWrapper<T>(p.getObject()), p);
+        fireCreate(p);
         return p;
     }
 
@@ -776,19 +977,36 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
      * 
      * @param toDestory
      *            The wrapped pooled object to destroy
+     * @param cause
+     *            Why the object is being destroyed, reported to the {@link bean.inter.assist.PoolEventListener}
      * 
      * @throws Exception
      *             If the factory fails to destroy the pooled object cleanly
      */
-    private void destroy(PooledObject<T> toDestory) throws Exception {
-        toDestory.invalidate();
+    private void destroy(PooledObject<T> toDestory, DestroyCause cause) throws Exception {
+        boolean wasActive;
+        synchronized (toDestory) {
+            PooledObjectState state = toDestory.getState();
+            wasActive = state == PooledObjectState.ALLOCATED || state == PooledObjectState.RETURNING || state == PooledObjectState.ABANDONED;
+            toDestory.invalidate();
+        }
+        if (wasActive) {
+            activeCount.decrement();
+        }
         idleObjects.remove(toDestory);
         allObjects.remove(new IdentityWrapper<T>(toDestory.getObject()));
+        long startTime = startFactoryOperation();
         try {
             factory.destroyObject(toDestory);
         } finally {
+            fireFactoryOperation(toDestory, FactoryOperation.DESTROY, startTime);
             destroyedCount.incrementAndGet();
-            createCount.decrementAndGet();
+            if (overflowCount.get() > 0 && overflowObjects.remove(toDestory)) {
+                overflowCount.decrementAndGet();
+            } else {
+                createCount.decrementAndGet();
+            }
+            fireDestroy(toDestory, cause);
         }
     }
 
@@ -865,7 +1083,7 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
      */
     private void addIdleObject(PooledObject<T> p) throws Exception {
         if (p != null) {
-            factory.passivateObject(p);
+            passivate(p);
             if (getLifo()) {
                 idleObjects.addFirst(p);
             } else {
@@ -874,6 +1092,33 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
         }
     }
 
+    private void activate(PooledObject<T> p) throws Exception {
+        long startTime = startFactoryOperation();
+        try {
+            factory.activateObject(p);
+        } finally {
+            fireFactoryOperation(p, FactoryOperation.ACTIVATE, startTime);
+        }
+    }
+
+    private boolean validate(PooledObject<T> p) {
+        long startTime = startFactoryOperation();
+        try {
+            return factory.validateObject(p);
+        } finally {
+            fireFactoryOperation(p, FactoryOperation.VALIDATE, startTime);
+        }
+    }
+
+    private void passivate(PooledObject<T> p) throws Exception {
+        long startTime = startFactoryOperation();
+        try {
+            factory.passivateObject(p);
+        } finally {
+            fireFactoryOperation(p, FactoryOperation.PASSIVATE, startTime);
+        }
+    }
+
     /**
      * Calculate the number of objects to test in a run of the idle object evictor.
      * 
@@ -918,7 +1163,7 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
                 pooledObject.printStackTrace(ac.getLogWriter());
             }
             try {
-                invalidateObject(pooledObject.getObject());
+                invalidateObject(pooledObject.getObject(), DestroyCause.ABANDONED);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -948,11 +1193,7 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
      */
     @Override
     public int getNumWaiters() {
-        if (getBlockWhenExhausted()) {
-            return idleObjects.getTakeQueueLength();
-        } else {
-            return 0;
-        }
+        return (int) waiterCount.sum();
     }
 
     /**
@@ -992,6 +1233,75 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
         return result;
     }
 
+    /**
+     * Passes the objects selected by a query to a visitor, one at a time, without building a collection of the pool's objects.
+     * <p>
+     * The offset is applied to the current iteration order of the pool's objects, which changes as objects are created and destroyed, so pages of a live
+     * pool are not stable: consecutive pages may skip or repeat objects.
+     * 
+     * @param query
+     *            the filter criteria and page to visit
+     * @param visitor
+     *            receives each selected object; returning {@code false} ends the visit early
+     * @return the number of objects passed to the visitor
+     */
+    public int visitObjects(PooledObjectQuery query, PooledObjectVisitor visitor) {
+        int skip = query.getOffset();
+        int limit = query.getLimit();
+        boolean includeBorrowTrace = query.getIncludeBorrowTrace();
+        int visited = 0;
+        for (PooledObject<T> p : allObjects.values()) {
+            if (limit >= 0 && visited >= limit) {
+                break;
+            }
+            if (!query.matches(p)) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            visited++;
+            if (!visitor.visit(new DefaultPooledObjectInfo(p, includeBorrowTrace))) {
+                break;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Returns one page of the objects selected by a query.
+     * 
+     * @param query
+     *            the filter criteria and page to return
+     * @return information on the selected objects
+     */
+    public List<DefaultPooledObjectInfo> listObjects(PooledObjectQuery query) {
+        int limit = query.getLimit();
+        final List<DefaultPooledObjectInfo> result = new ArrayList<DefaultPooledObjectInfo>(limit >= 0 ? Math.min(limit, 1024) : 16);
+        visitObjects(query, new PooledObjectVisitor() {
+            @Override
+            public boolean visit(DefaultPooledObjectInfo info) {
+                result.add(info);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public List<DefaultPooledObjectInfo> listObjects(String state, long minIdleTimeMillis, long minBorrowedCount, int offset, int limit) {
+        PooledObjectQuery query = new PooledObjectQuery();
+        if (state != null && state.length() > 0) {
+            query.setState(PooledObjectState.valueOf(state));
+        }
+        query.setMinIdleTimeMillis(minIdleTimeMillis);
+        query.setMinBorrowedCount(minBorrowedCount);
+        query.setOffset(offset);
+        query.setLimit(limit);
+        return listObjects(query);
+    }
+
     // --- configuration attributes --------------------------------------------
 
     private volatile int maxIdle = GenericObjectPoolConfig.DEFAULT_MAX_IDLE;
@@ -1013,10 +1323,22 @@ public class GenericObjectPool<T> extends BaseGenericObjectPool<T> implements Ob
     private final AtomicLong createCount = new AtomicLong(0);
     private final LinkedBlockingDeque<PooledObject<T>> idleObjects;
 
+    // Burst overflow beyond maxTotal
+    private volatile int maxOverflow = GenericObjectPoolConfig.DEFAULT_MAX_OVERFLOW;
+    private volatile long overflowWaitThresholdMillis = GenericObjectPoolConfig.DEFAULT_OVERFLOW_WAIT_THRESHOLD_MILLIS;
+    private volatile RateLimiter overflowRateLimiter = new RateLimiter(GenericObjectPoolConfig.DEFAULT_MAX_OVERFLOW_CREATES_PER_SECOND);
+    /*
+     * The overflow objects currently in existence, counted in overflowCount instead of createCount. The count is incremented before an object is added to
+     * the set and decremented after it is removed, so a zero count means the set need not be looked at.
+     */
+    private final Set<PooledObject<T>> overflowObjects = Collections.newSetFromMap(new ConcurrentHashMap<PooledObject<T>, Boolean>());
+    private final AtomicInteger overflowCount = new AtomicInteger(0);
+    private final AtomicLong overflowCreatedCount = new AtomicLong(0);
+
     // JMX specific attributes
     private static final String ONAME_BASE = "org.apache.commons.pool2:type=GenericObjectPool,name=";
 
     // Additional configuration properties for abandoned object tracking
     private volatile AbandonedConfig abandonedConfig = null;
 
-}
\ No newline at end of file
+}
\ No newline at end of file
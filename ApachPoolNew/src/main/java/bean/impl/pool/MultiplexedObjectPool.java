@@ -0,0 +1,497 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bean.impl.pool;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bean.assist.IdentityWrapper;
+import bean.inter.PooledObject;
+import bean.inter.factory.PooledObjectFactory;
+import bean.inter.pool.BaseObjectPool;
+
+/**
+ * An {@link bean.inter.pool.ObjectPool ObjectPool} whose objects can be borrowed by several callers at once, such as multiplexed HTTP/2 or pipelined
+ * connections.
+ * <p>
+ * Each object serves up to {@code maxConcurrentBorrows} borrows at a time. A borrow picks the least loaded object that has spare capacity, found
+ * through a concurrent index ordered by load; a new object is created only when every object is saturated, and once {@code maxTotal} objects exist,
+ * borrowers wait for capacity to be returned. Every {@link #borrowObject()} must be matched by exactly one {@link #returnObject(Object)} or
+ * {@link #invalidateObject(Object)} of the same object.
+ * <p>
+ * Since an object is shared, the factory activates it once, when it is created, and does not passivate it between borrows. An object reported broken
+ * with {@link #invalidateObject(Object)} receives no new borrows and is destroyed when its last borrower has let it go. The pool does not maintain the
+ * state of the {@link PooledObject} wrappers, which only allows a single borrower.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @param <T>
+ *            Type of element pooled in this pool.
+ */
+public class MultiplexedObjectPool<T> extends BaseObjectPool<T> {
+
+    private final PooledObjectFactory<T> factory;
+
+    private final int maxTotal;
+
+    private final int maxConcurrentBorrows;
+
+    private volatile long maxWaitMillis = -1L;
+
+    private final Map<IdentityWrapper<T>, Entry<T>> allObjects = new ConcurrentHashMap<IdentityWrapper<T>, Entry<T>>();
+
+    /*
+     * The objects with spare capacity, least loaded first. An entry is only added to or removed from the index while its monitor is held, and its
+     * indexed load is only changed while it is out of the index.
+     */
+    private final ConcurrentSkipListSet<Entry<T>> available = new ConcurrentSkipListSet<Entry<T>>(new Comparator<Entry<T>>() {
+        @Override
+        public int compare(Entry<T> a, Entry<T> b) {
+            if (a.indexedLoad != b.indexedLoad) {
+                return a.indexedLoad < b.indexedLoad ? -1 : 1;
+            }
+            return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+    });
+
+    private final AtomicInteger totalCount = new AtomicInteger();
+    private final AtomicInteger borrowCount = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+
+    /** Monitor that borrowers wait on for spare capacity */
+    private final Object capacityLock = new Object();
+    // @GuardedBy("capacityLock") for writes
+    private volatile int numWaiters;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param factory
+     *            object factory to use
+     * @param maxTotal
+     *            the maximum number of objects; negative for no limit
+     * @param maxConcurrentBorrows
+     *            the maximum number of borrows each object serves at a time
+     */
+    public MultiplexedObjectPool(PooledObjectFactory<T> factory, int maxTotal, int maxConcurrentBorrows) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null.");
+        }
+        if (maxTotal == 0) {
+            throw new IllegalArgumentException("maxTotal must not be zero.");
+        }
+        if (maxConcurrentBorrows <= 0) {
+            throw new IllegalArgumentException("maxConcurrentBorrows must be positive.");
+        }
+        this.factory = factory;
+        this.maxTotal = maxTotal;
+        this.maxConcurrentBorrows = maxConcurrentBorrows;
+    }
+
+    /**
+     * Borrows the least loaded object with spare capacity, creating one if all objects are saturated and the pool is not full, or else waiting up to
+     * {@link #getMaxWaitMillis()} for capacity to be returned.
+     *
+     * @throws IllegalStateException
+     *             if this pool has been closed
+     * @throws NoSuchElementException
+     *             if the wait times out, or if a newly created object cannot be activated
+     * @throws Exception
+     *             if {@link PooledObjectFactory#makeObject()} throws an exception
+     */
+    @Override
+    public T borrowObject() throws Exception {
+        assertOpen();
+        long waitMillis = maxWaitMillis;
+        long deadline = waitMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + waitMillis;
+        while (true) {
+            Entry<T> e = borrowLeastLoaded();
+            if (e == null) {
+                e = create();
+            }
+            if (e != null) {
+                borrowCount.incrementAndGet();
+                return e.p.getObject();
+            }
+            if (!awaitCapacity(deadline)) {
+                throw new NoSuchElementException("Timeout waiting for spare capacity");
+            }
+            assertOpen();
+        }
+    }
+
+    /**
+     * Ends one borrow of an object. An object that has been invalidated, or that is let go after the pool has been closed, is destroyed when its last
+     * borrow ends.
+     *
+     * @throws IllegalStateException
+     *             if {@code obj} is not currently borrowed from this pool
+     */
+    @Override
+    public void returnObject(T obj) throws Exception {
+        release(obj, false);
+    }
+
+    /**
+     * Ends one borrow of an object and marks it as broken: it receives no new borrows and is destroyed when its last borrow ends.
+     *
+     * @throws IllegalStateException
+     *             if {@code obj} is not currently borrowed from this pool
+     */
+    @Override
+    public void invalidateObject(T obj) throws Exception {
+        release(obj, true);
+    }
+
+    /**
+     * Creates an object, activates it and makes it available for borrowing. Does nothing if the pool is full.
+     */
+    @Override
+    public void addObject() throws Exception {
+        assertOpen();
+        if (!tryIncrementTotal()) {
+            return;
+        }
+        Entry<T> e = makeEntry();
+        synchronized (e) {
+            index(e);
+        }
+        signalCapacity();
+    }
+
+    /**
+     * Destroys the objects that are not borrowed. Exceptions thrown while destroying an object are ignored so that the remaining objects are still
+     * destroyed.
+     */
+    @Override
+    public void clear() {
+        List<Entry<T>> toDestroy = new ArrayList<Entry<T>>();
+        for (Entry<T> e : allObjects.values()) {
+            synchronized (e) {
+                if (e.load == 0 && !e.invalid) {
+                    e.invalid = true;
+                    unindex(e);
+                    toDestroy.add(e);
+                }
+            }
+        }
+        for (Entry<T> e : toDestroy) {
+            try {
+                destroy(e);
+            } catch (Exception ex) {
+                // ignored, keep destroying the rest
+            }
+        }
+        signalCapacity();
+    }
+
+    /**
+     * Closes this pool and destroys the objects that are not borrowed. Borrowed objects are destroyed when their last borrow ends.
+     */
+    @Override
+    public void close() {
+        super.close();
+        clear();
+        synchronized (capacityLock) {
+            capacityLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of objects that have no borrowers
+     */
+    @Override
+    public int getNumIdle() {
+        int count = 0;
+        for (Entry<T> e : allObjects.values()) {
+            synchronized (e) {
+                if (e.load == 0 && !e.invalid) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of objects that have at least one borrower
+     */
+    @Override
+    public int getNumActive() {
+        int count = 0;
+        for (Entry<T> e : allObjects.values()) {
+            synchronized (e) {
+                if (e.load > 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of borrows that have not ended yet, over all objects
+     */
+    public int getNumBorrows() {
+        return borrowCount.get();
+    }
+
+    public int getNumWaiters() {
+        return numWaiters;
+    }
+
+    public PooledObjectFactory<T> getFactory() {
+        return factory;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public int getMaxConcurrentBorrows() {
+        return maxConcurrentBorrows;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * @param maxWaitMillis
+     *            the longest a borrow waits for spare capacity, in milliseconds; negative to wait indefinitely
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    /**
+     * Takes one unit of capacity from the least loaded object in the index.
+     *
+     * @return the object, or {@code null} if every object is saturated
+     */
+    private Entry<T> borrowLeastLoaded() {
+        while (true) {
+            Entry<T> e;
+            try {
+                e = available.first();
+            } catch (NoSuchElementException ex) {
+                return null;
+            }
+            synchronized (e) {
+                if (!e.indexed) {
+                    // Moved or taken out by another thread since it was read, look again
+                    continue;
+                }
+                unindex(e);
+                e.load++;
+                if (e.load < maxConcurrentBorrows) {
+                    index(e);
+                }
+                return e;
+            }
+        }
+    }
+
+    /**
+     * Creates an object already carrying the borrow of the caller.
+     *
+     * @return the object, or {@code null} if the pool is full
+     */
+    private Entry<T> create() throws Exception {
+        if (!tryIncrementTotal()) {
+            return null;
+        }
+        Entry<T> e = makeEntry();
+        synchronized (e) {
+            e.load = 1;
+            if (maxConcurrentBorrows > 1) {
+                index(e);
+            }
+        }
+        if (maxConcurrentBorrows > 1) {
+            signalCapacity();
+        }
+        return e;
+    }
+
+    /**
+     * Makes and activates an object, for which a unit of {@link #totalCount} has been taken.
+     */
+    private Entry<T> makeEntry() throws Exception {
+        PooledObject<T> p;
+        try {
+            p = factory.makeObject();
+        } catch (Exception ex) {
+            totalCount.decrementAndGet();
+            signalCapacity();
+            throw ex;
+        }
+        createdCount.incrementAndGet();
+        Entry<T> e = new Entry<T>(p, nextId.getAndIncrement());
+        allObjects.put(new IdentityWrapper<T>(p.getObject()), e);
+        try {
+            factory.activateObject(p);
+        } catch (Exception ex) {
+            e.invalid = true;
+            try {
+                destroy(e);
+            } catch (Exception ignored) {
+                // Ignore, the activation failure is reported
+            }
+            NoSuchElementException nsee = new NoSuchElementException("Unable to activate newly created object");
+            nsee.initCause(ex);
+            throw nsee;
+        }
+        return e;
+    }
+
+    private void release(T obj, boolean broken) throws Exception {
+        Entry<T> e = allObjects.get(new IdentityWrapper<T>(obj));
+        if (e == null) {
+            throw new IllegalStateException(broken ? "Invalidated object not currently part of this pool"
+                    : "Returned object not currently part of this pool");
+        }
+        boolean destroy;
+        synchronized (e) {
+            if (e.load == 0) {
+                throw new IllegalStateException("Object has no borrows left to end");
+            }
+            e.load--;
+            if (broken || isClosed()) {
+                e.invalid = true;
+            }
+            if (e.invalid) {
+                unindex(e);
+                destroy = e.load == 0;
+            } else {
+                unindex(e);
+                index(e);
+                destroy = false;
+            }
+        }
+        borrowCount.decrementAndGet();
+        if (destroy) {
+            destroy(e);
+        }
+        signalCapacity();
+    }
+
+    // @GuardedBy("e")
+    private void index(Entry<T> e) {
+        e.indexedLoad = e.load;
+        available.add(e);
+        e.indexed = true;
+    }
+
+    // @GuardedBy("e")
+    private void unindex(Entry<T> e) {
+        if (e.indexed) {
+            available.remove(e);
+            e.indexed = false;
+        }
+    }
+
+    private boolean tryIncrementTotal() {
+        while (true) {
+            int total = totalCount.get();
+            if (maxTotal >= 0 && total >= maxTotal) {
+                return false;
+            }
+            if (totalCount.compareAndSet(total, total + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void destroy(Entry<T> e) throws Exception {
+        allObjects.remove(new IdentityWrapper<T>(e.p.getObject()));
+        totalCount.decrementAndGet();
+        try {
+            factory.destroyObject(e.p);
+        } finally {
+            destroyedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until capacity may have been returned, an object may be created, or the deadline passes.
+     *
+     * @return {@code false} if the deadline has passed
+     */
+    private boolean awaitCapacity(long deadline) throws InterruptedException {
+        synchronized (capacityLock) {
+            numWaiters++;
+            try {
+                // Checked again under the lock: a release that happened after the failed attempt has either been seen here, or sees the waiter
+                if (!available.isEmpty() || isClosed() || (maxTotal < 0 || totalCount.get() < maxTotal)) {
+                    return true;
+                }
+                long remaining = deadline == Long.MAX_VALUE ? 0L : deadline - System.currentTimeMillis();
+                if (deadline != Long.MAX_VALUE && remaining <= 0) {
+                    return false;
+                }
+                capacityLock.wait(remaining);
+                return deadline == Long.MAX_VALUE || System.currentTimeMillis() < deadline || !available.isEmpty();
+            } finally {
+                numWaiters--;
+            }
+        }
+    }
+
+    private void signalCapacity() {
+        if (numWaiters > 0) {
+            synchronized (capacityLock) {
+                capacityLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A pooled object with the number of borrows it currently serves. Mutable state is guarded by the instance monitor.
+     */
+    private static final class Entry<T> {
+        final PooledObject<T> p;
+        final long id;
+        int load;
+        /** The load the entry is ordered by in the index, written only while it is out of the index */
+        volatile int indexedLoad;
+        boolean indexed;
+        boolean invalid;
+
+        Entry(PooledObject<T> p, long id) {
+            this.p = p;
+            this.id = id;
+        }
+    }
+}
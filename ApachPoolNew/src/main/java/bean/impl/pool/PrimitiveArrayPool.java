@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bean.impl.pool;
+
+import bean.inter.pool.base.BaseMagazinePool;
+import config.pool.impl.ArrayPoolConfig;
+
+/**
+ * A pool of primitive arrays of power-of-two lengths.
+ * <p>
+ * A request is served from the smallest length class that fits it, so the returned array may be longer than requested; callers keep track of the
+ * length they use. Requests longer than the largest length class are allocated directly and are not recycled. Released arrays are cached in
+ * per-thread magazines backed by a shared depot per length class, as described in {@link BaseMagazinePool}; an acquire that hits a cached array
+ * allocates nothing. The contents of an acquired array are undefined.
+ * <p>
+ * The pool does not track the arrays it hands out. Only arrays acquired from this pool may be released to it, each of them once, and an array must not
+ * be used after it has been released.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @param <A>
+ *            The array type pooled in this pool.
+ */
+public abstract class PrimitiveArrayPool<A> extends BaseMagazinePool<A> {
+
+    protected PrimitiveArrayPool(ArrayPoolConfig config, int bytesPerElement) {
+        super(checkConfig(config).getMinArrayLength(), config.getMaxArrayLength(), config.getMagazineSize(),
+                config.getMaxMagazineBytes() / bytesPerElement, config.getMaxDepotMagazines());
+    }
+
+    private static ArrayPoolConfig checkConfig(ArrayPoolConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null.");
+        }
+        return config;
+    }
+
+    protected abstract A newArray(int length);
+
+    protected abstract int length(A array);
+
+    /**
+     * Obtains an array of at least {@code length} elements.
+     *
+     * @param length
+     *            the number of elements required
+     * @return an array, which should be passed to {@link #release(Object)} once it is no longer used
+     * @throws IllegalStateException
+     *             if this pool has been closed
+     */
+    public A acquire(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative.");
+        }
+        assertOpen();
+        if (length > getMaxSize()) {
+            recordOversize();
+            return newArray(length);
+        }
+        return take(length);
+    }
+
+    /**
+     * Returns an array to the pool. Arrays longer than the largest length class, and arrays released after the pool has been closed, are dropped.
+     *
+     * @param array
+     *            an array obtained from {@link #acquire(int)}
+     * @throws IllegalArgumentException
+     *             if the array cannot have been acquired from this pool
+     */
+    public void release(A array) {
+        if (array == null) {
+            throw new IllegalArgumentException("array must not be null.");
+        }
+        int length = length(array);
+        if (length > getMaxSize()) {
+            return;
+        }
+        int sizeClass = sizeClassOf(length);
+        if (sizeClass < 0) {
+            throw new IllegalArgumentException("array was not acquired from this pool.");
+        }
+        give(sizeClass, array);
+    }
+
+    @Override
+    protected A create(int size) {
+        return newArray(size);
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bean.impl.pool;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.PoolUtils;
+import bean.assist.IdentityWrapper;
+import bean.inter.PooledObject;
+import bean.inter.factory.PooledObjectFactory;
+import bean.inter.pool.BaseObjectPool;
+
+/**
+ * A memory-sensitive {@link bean.inter.pool.ObjectPool ObjectPool} whose idle objects are only softly reachable.
+ * <p>
+ * Idle objects are held through {@link SoftReference}s, so the garbage collector may reclaim them when the heap runs low, before an
+ * {@link OutOfMemoryError} is thrown. Borrowed objects are held strongly until they are returned or invalidated. The pool does not limit the number of
+ * objects it creates; it is meant for objects that are costly to keep around but cheap enough to recreate.
+ * <p>
+ * Each soft reference is registered with a {@link ReferenceQueue} and is also a node of an intrusive doubly linked list of idle objects, so a reference
+ * cleared by the collector is unlinked in constant time when it is polled from the queue, without scanning the idle objects. The queue is drained at
+ * the start of every pool operation. Objects reclaimed by the collector no longer exist when the pool notices it, so they are never passed to
+ * {@link PooledObjectFactory#destroyObject(PooledObject)}; they are counted by {@link #getCollectedCount()} instead.
+ * <p>
+ * Factory methods are invoked without holding the pool lock. This class is thread-safe.
+ *
+ * @param <T>
+ *            Type of element pooled in this pool.
+ */
+public class SoftReferenceObjectPool<T> extends BaseObjectPool<T> {
+
+    private final PooledObjectFactory<T> factory;
+
+    private final ReferenceQueue<PooledObject<T>> refQueue = new ReferenceQueue<PooledObject<T>>();
+
+    /*
+     * The idle objects, most recently returned first. Guarded by this pool's monitor, as are idleCount, activeObjects and collectedCount.
+     */
+    private IdleRef<T> head;
+
+    private int idleCount;
+
+    private final Map<IdentityWrapper<T>, PooledObject<T>> activeObjects = new HashMap<IdentityWrapper<T>, PooledObject<T>>();
+
+    private long collectedCount;
+
+    private final AtomicLong createdCount = new AtomicLong();
+
+    private final AtomicLong destroyedCount = new AtomicLong();
+
+    /**
+     * Creates a new {@code SoftReferenceObjectPool} that uses the given factory to create, validate and destroy objects.
+     *
+     * @param factory
+     *            object factory to use.
+     */
+    public SoftReferenceObjectPool(PooledObjectFactory<T> factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null.");
+        }
+        this.factory = factory;
+    }
+
+    /**
+     * Borrows an object from the pool. If there are idle objects that have not been reclaimed by the garbage collector, the most recently returned one
+     * is activated, validated and returned; otherwise a new instance is created with the factory.
+     * <p>
+     * An idle object that fails activation or validation is destroyed and the next one is tried. If a newly created object fails activation or
+     * validation, a {@code NoSuchElementException} is thrown.
+     *
+     * @throws IllegalStateException
+     *             if this pool has been closed
+     * @throws NoSuchElementException
+     *             if a newly created object cannot be activated or validated
+     * @throws Exception
+     *             if {@link PooledObjectFactory#makeObject()} throws an exception
+     */
+    @Override
+    public T borrowObject() throws Exception {
+        assertOpen();
+        while (true) {
+            PooledObject<T> p;
+            synchronized (this) {
+                p = pollIdle();
+            }
+            boolean create = p == null;
+            if (create) {
+                p = factory.makeObject();
+                createdCount.incrementAndGet();
+            }
+            p.allocate();
+            try {
+                factory.activateObject(p);
+                if (!factory.validateObject(p)) {
+                    throw new Exception("ValidateObject failed");
+                }
+            } catch (Throwable t) {
+                PoolUtils.checkRethrow(t);
+                destroyQuietly(p);
+                if (create) {
+                    NoSuchElementException nsee = new NoSuchElementException("Unable to activate or validate newly created object");
+                    nsee.initCause(t);
+                    throw nsee;
+                }
+                continue;
+            }
+            synchronized (this) {
+                activeObjects.put(new IdentityWrapper<T>(p.getObject()), p);
+            }
+            return p.getObject();
+        }
+    }
+
+    /**
+     * Returns an object to the pool. The object is validated and passivated, then kept idle behind a soft reference. Objects that fail validation or
+     * passivation, and objects returned after the pool has been closed, are destroyed.
+     *
+     * @throws IllegalStateException
+     *             if {@code obj} is not currently borrowed from this pool
+     */
+    @Override
+    public void returnObject(T obj) throws Exception {
+        PooledObject<T> p;
+        synchronized (this) {
+            p = activeObjects.remove(new IdentityWrapper<T>(obj));
+        }
+        if (p == null) {
+            throw new IllegalStateException("Returned object not currently part of this pool");
+        }
+        boolean success = !isClosed() && factory.validateObject(p);
+        if (success) {
+            try {
+                factory.passivateObject(p);
+            } catch (Exception e) {
+                success = false;
+            }
+        }
+        if (success) {
+            p.deallocate();
+            synchronized (this) {
+                if (!isClosed()) {
+                    purgeCleared();
+                    push(p);
+                    return;
+                }
+            }
+        }
+        destroy(p);
+    }
+
+    @Override
+    public void invalidateObject(T obj) throws Exception {
+        PooledObject<T> p;
+        synchronized (this) {
+            p = activeObjects.remove(new IdentityWrapper<T>(obj));
+        }
+        if (p == null) {
+            throw new IllegalStateException("Invalidated object not currently part of this pool");
+        }
+        destroy(p);
+    }
+
+    /**
+     * Creates an object with the factory, passivates it and places it in the idle object pool.
+     *
+     * @throws IllegalStateException
+     *             if this pool has been closed
+     * @throws Exception
+     *             if the factory fails to create or passivate the object
+     */
+    @Override
+    public void addObject() throws Exception {
+        assertOpen();
+        PooledObject<T> p = factory.makeObject();
+        createdCount.incrementAndGet();
+        try {
+            factory.passivateObject(p);
+        } catch (Exception e) {
+            destroyQuietly(p);
+            throw e;
+        }
+        synchronized (this) {
+            if (!isClosed()) {
+                purgeCleared();
+                push(p);
+                return;
+            }
+        }
+        destroy(p);
+    }
+
+    /**
+     * Returns the number of idle objects. Objects that the garbage collector has reclaimed but whose references have not yet been enqueued are still
+     * included, so this is an upper bound.
+     */
+    @Override
+    public synchronized int getNumIdle() {
+        purgeCleared();
+        return idleCount;
+    }
+
+    @Override
+    public synchronized int getNumActive() {
+        return activeObjects.size();
+    }
+
+    /**
+     * Destroys the idle objects that have not been reclaimed by the garbage collector and empties the idle object pool. Exceptions thrown while
+     * destroying an object are ignored so that the remaining objects are still destroyed.
+     */
+    @Override
+    public void clear() {
+        List<PooledObject<T>> toDestroy = new ArrayList<PooledObject<T>>();
+        synchronized (this) {
+            purgeCleared();
+            while (head != null) {
+                IdleRef<T> node = head;
+                PooledObject<T> p = node.get();
+                unlink(node);
+                if (p == null) {
+                    collectedCount++;
+                } else {
+                    node.clear();
+                    toDestroy.add(p);
+                }
+            }
+        }
+        for (PooledObject<T> p : toDestroy) {
+            destroyQuietly(p);
+        }
+    }
+
+    /**
+     * Closes this pool and destroys its idle objects. Objects still borrowed are destroyed when they are returned.
+     */
+    @Override
+    public void close() {
+        super.close();
+        clear();
+    }
+
+    public PooledObjectFactory<T> getFactory() {
+        return factory;
+    }
+
+    /**
+     * @return the number of idle objects that have been reclaimed by the garbage collector
+     */
+    public synchronized long getCollectedCount() {
+        purgeCleared();
+        return collectedCount;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return the number of objects destroyed through the factory; objects reclaimed by the garbage collector are not included
+     */
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    /**
+     * Unlinks every idle object whose soft reference has been cleared and enqueued by the garbage collector.
+     */
+    @SuppressWarnings("unchecked")
+    private void purgeCleared() {
+        Reference<? extends PooledObject<T>> ref;
+        while ((ref = refQueue.poll()) != null) {
+            if (unlink((IdleRef<T>) ref)) {
+                collectedCount++;
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the most recently returned idle object that is still reachable, or {@code null} if there is none.
+     */
+    private PooledObject<T> pollIdle() {
+        purgeCleared();
+        while (head != null) {
+            IdleRef<T> node = head;
+            PooledObject<T> p = node.get();
+            unlink(node);
+            if (p != null) {
+                // Clearing does not enqueue the reference, so it will never be polled from the queue.
+                node.clear();
+                return p;
+            }
+            collectedCount++;
+        }
+        return null;
+    }
+
+    private void push(PooledObject<T> p) {
+        IdleRef<T> node = new IdleRef<T>(p, refQueue);
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        }
+        head = node;
+        node.linked = true;
+        idleCount++;
+    }
+
+    /**
+     * @return {@code false} if the node had already been unlinked
+     */
+    private boolean unlink(IdleRef<T> node) {
+        if (!node.linked) {
+            return false;
+        }
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.linked = false;
+        idleCount--;
+        return true;
+    }
+
+    private void destroy(PooledObject<T> p) throws Exception {
+        p.invalidate();
+        try {
+            factory.destroyObject(p);
+        } finally {
+            destroyedCount.incrementAndGet();
+        }
+    }
+
+    private void destroyQuietly(PooledObject<T> p) {
+        try {
+            destroy(p);
+        } catch (Exception e) {
+            // ignored, the object is discarded either way
+        }
+    }
+
+    /**
+     * A soft reference to an idle object that is also a node of the idle list.
+     */
+    private static final class IdleRef<T> extends SoftReference<PooledObject<T>> {
+        IdleRef<T> prev;
+        IdleRef<T> next;
+        boolean linked;
+
+        IdleRef(PooledObject<T> p, ReferenceQueue<? super PooledObject<T>> queue) {
+            super(p, queue);
+        }
+    }
+}
@@ -0,0 +1,449 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bean.impl.pool;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import util.PoolUtils;
+import bean.inter.PooledObject;
+import bean.inter.factory.PooledObjectFactory;
+import bean.inter.pool.BaseObjectPool;
+
+/**
+ * An {@link bean.inter.pool.ObjectPool ObjectPool} for objects that are borrowed and returned by the same thread, such as formatters, digests or
+ * deflaters that are not thread-safe and are used for a short time.
+ * <p>
+ * Each thread has a slot for one idle object, and the object returned last by a thread is kept there for its next borrow. Further idle objects go to a
+ * small overflow queue shared by all threads, and are destroyed when it is full. The slots of other threads are only looked at when the pool is
+ * exhausted. A borrow that finds an idle object touches no shared counter; the number of objects is bounded by a global maximum, which is only
+ * updated when objects are created or destroyed.
+ * <p>
+ * An object must be returned or invalidated by the thread that borrowed it. When a thread terminates, the object in its slot moves to the overflow
+ * queue and the objects it still had borrowed are given up, which frees their share of the maximum; this happens when a new thread first uses the
+ * pool, or when the pool is exhausted.
+ * <p>
+ * To keep borrows cheap, the pool does not maintain the state and timestamps of the {@link PooledObject} wrappers, has no idle object eviction and
+ * never blocks: a borrow from an exhausted pool fails at once.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @param <T>
+ *            Type of element pooled in this pool.
+ */
+public class ThreadConfinedObjectPool<T> extends BaseObjectPool<T> {
+
+    private final PooledObjectFactory<T> factory;
+
+    private final int maxTotal;
+
+    /** Idle objects that did not fit in a thread's slot; {@code null} if the overflow is disabled */
+    private final ArrayBlockingQueue<PooledObject<T>> overflow;
+
+    /** The slots must not reference the pool: the value of a thread's ThreadLocal entry lives as long as the thread */
+    private final ThreadLocal<ThreadSlot<T>> threadSlot = new ThreadLocal<ThreadSlot<T>>();
+    private final ConcurrentLinkedQueue<ThreadSlot<T>> threadSlots = new ConcurrentLinkedQueue<ThreadSlot<T>>();
+
+    private final AtomicInteger totalCount = new AtomicInteger();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong abandonedCount = new AtomicLong();
+
+    private volatile boolean testOnBorrow = false;
+    private volatile boolean testOnReturn = false;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param factory
+     *            object factory to use
+     * @param maxTotal
+     *            the maximum number of objects, idle or borrowed; negative for no limit
+     * @param maxOverflow
+     *            the maximum number of idle objects kept outside the thread slots
+     */
+    public ThreadConfinedObjectPool(PooledObjectFactory<T> factory, int maxTotal, int maxOverflow) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null.");
+        }
+        if (maxTotal == 0) {
+            throw new IllegalArgumentException("maxTotal must not be zero.");
+        }
+        if (maxOverflow < 0) {
+            throw new IllegalArgumentException("maxOverflow must not be negative.");
+        }
+        this.factory = factory;
+        this.maxTotal = maxTotal;
+        this.overflow = maxOverflow > 0 ? new ArrayBlockingQueue<PooledObject<T>>(maxOverflow) : null;
+    }
+
+    /**
+     * Borrows an object, taking in turn the calling thread's idle object, an overflow object, a newly created object, or, when the pool is exhausted,
+     * the idle object of another thread. Objects are activated, and validated if {@link #getTestOnBorrow()} is set.
+     *
+     * @throws IllegalStateException
+     *             if this pool has been closed
+     * @throws NoSuchElementException
+     *             if the pool is exhausted, or if a newly created object cannot be activated or validated
+     * @throws Exception
+     *             if {@link PooledObjectFactory#makeObject()} throws an exception
+     */
+    @Override
+    public T borrowObject() throws Exception {
+        assertOpen();
+        ThreadSlot<T> slot = getThreadSlot();
+        while (true) {
+            boolean create = false;
+            PooledObject<T> p = slot.idle.getAndSet(null);
+            if (p == null) {
+                p = pollOverflow();
+            }
+            if (p == null) {
+                p = create();
+                create = p != null;
+            }
+            if (p == null) {
+                p = stealIdle();
+            }
+            if (p == null) {
+                throw new NoSuchElementException("Pool exhausted");
+            }
+            try {
+                factory.activateObject(p);
+                if (testOnBorrow && !factory.validateObject(p)) {
+                    throw new Exception("ValidateObject failed");
+                }
+            } catch (Throwable t) {
+                PoolUtils.checkRethrow(t);
+                destroyQuietly(p);
+                if (create) {
+                    NoSuchElementException nsee = new NoSuchElementException("Unable to activate or validate newly created object");
+                    nsee.initCause(t);
+                    throw nsee;
+                }
+                continue;
+            }
+            slot.addBorrowed(p);
+            return p.getObject();
+        }
+    }
+
+    /**
+     * Returns an object to the pool. It is passivated, after being validated if {@link #getTestOnReturn()} is set, and kept in the calling thread's
+     * slot, or in the overflow queue if the slot is taken.
+     *
+     * @throws IllegalStateException
+     *             if {@code obj} is not currently borrowed by the calling thread
+     */
+    @Override
+    public void returnObject(T obj) throws Exception {
+        ThreadSlot<T> slot = threadSlot.get();
+        PooledObject<T> p = slot == null ? null : slot.removeBorrowed(obj);
+        if (p == null) {
+            throw new IllegalStateException("Returned object not currently borrowed by the calling thread");
+        }
+        if (isClosed() || (testOnReturn && !factory.validateObject(p))) {
+            destroy(p);
+            return;
+        }
+        try {
+            factory.passivateObject(p);
+        } catch (Exception e) {
+            destroy(p);
+            return;
+        }
+        if (!slot.idle.compareAndSet(null, p) && !offerOverflow(p)) {
+            destroy(p);
+        }
+    }
+
+    @Override
+    public void invalidateObject(T obj) throws Exception {
+        ThreadSlot<T> slot = threadSlot.get();
+        PooledObject<T> p = slot == null ? null : slot.removeBorrowed(obj);
+        if (p == null) {
+            throw new IllegalStateException("Invalidated object not currently borrowed by the calling thread");
+        }
+        destroy(p);
+    }
+
+    /**
+     * Creates an object, passivates it and places it in the calling thread's slot, or in the overflow queue if the slot is taken. Does nothing if the
+     * pool is full.
+     */
+    @Override
+    public void addObject() throws Exception {
+        assertOpen();
+        PooledObject<T> p = create();
+        if (p == null) {
+            return;
+        }
+        try {
+            factory.passivateObject(p);
+        } catch (Exception e) {
+            destroyQuietly(p);
+            throw e;
+        }
+        if (!getThreadSlot().idle.compareAndSet(null, p) && !offerOverflow(p)) {
+            destroy(p);
+        }
+    }
+
+    /**
+     * Destroys the idle objects of all threads and of the overflow queue. Exceptions thrown while destroying an object are ignored so that the remaining
+     * objects are still destroyed.
+     */
+    @Override
+    public void clear() {
+        for (ThreadSlot<T> slot : threadSlots) {
+            PooledObject<T> p = slot.idle.getAndSet(null);
+            if (p != null) {
+                destroyQuietly(p);
+            }
+        }
+        PooledObject<T> p;
+        while ((p = pollOverflow()) != null) {
+            destroyQuietly(p);
+        }
+    }
+
+    /**
+     * Closes this pool and destroys its idle objects. Objects still borrowed are destroyed when they are returned.
+     */
+    @Override
+    public void close() {
+        super.close();
+        clear();
+    }
+
+    /**
+     * Counts the idle objects in the slots of all threads and in the overflow queue.
+     */
+    @Override
+    public int getNumIdle() {
+        int count = overflow == null ? 0 : overflow.size();
+        for (ThreadSlot<T> slot : threadSlots) {
+            if (slot.idle.get() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getNumActive() {
+        return Math.max(0, totalCount.get() - getNumIdle());
+    }
+
+    public PooledObjectFactory<T> getFactory() {
+        return factory;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public boolean getTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    public boolean getTestOnReturn() {
+        return testOnReturn;
+    }
+
+    public void setTestOnReturn(boolean testOnReturn) {
+        this.testOnReturn = testOnReturn;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    /**
+     * @return the number of objects given up because the thread that borrowed them terminated without returning them
+     */
+    public long getAbandonedCount() {
+        return abandonedCount.get();
+    }
+
+    private ThreadSlot<T> getThreadSlot() {
+        ThreadSlot<T> slot = threadSlot.get();
+        if (slot == null) {
+            reclaimDeadThreadSlots();
+            slot = new ThreadSlot<T>(Thread.currentThread());
+            threadSlots.add(slot);
+            threadSlot.set(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Creates an object if the maximum allows it.
+     *
+     * @return the new object, or {@code null} if the pool is full
+     */
+    private PooledObject<T> create() throws Exception {
+        if (!tryIncrementTotal()) {
+            reclaimDeadThreadSlots();
+            if (!tryIncrementTotal()) {
+                return null;
+            }
+        }
+        PooledObject<T> p;
+        try {
+            p = factory.makeObject();
+        } catch (Exception e) {
+            totalCount.decrementAndGet();
+            throw e;
+        }
+        createdCount.incrementAndGet();
+        return p;
+    }
+
+    private boolean tryIncrementTotal() {
+        while (true) {
+            int total = totalCount.get();
+            if (maxTotal >= 0 && total >= maxTotal) {
+                return false;
+            }
+            if (totalCount.compareAndSet(total, total + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes the idle object of another thread, or one that reached the overflow queue meanwhile.
+     */
+    private PooledObject<T> stealIdle() {
+        for (ThreadSlot<T> slot : threadSlots) {
+            if (slot.idle.get() != null) {
+                PooledObject<T> p = slot.idle.getAndSet(null);
+                if (p != null) {
+                    return p;
+                }
+            }
+        }
+        return pollOverflow();
+    }
+
+    /**
+     * Moves the idle objects of terminated threads to the overflow queue and gives up the objects they had borrowed. A terminated thread no longer
+     * touches its slot, so its borrowed list can be read without synchronization once the slot has been removed from the registry.
+     */
+    private void reclaimDeadThreadSlots() {
+        Iterator<ThreadSlot<T>> it = threadSlots.iterator();
+        while (it.hasNext()) {
+            ThreadSlot<T> slot = it.next();
+            if (!slot.isOwnerAlive() && threadSlots.remove(slot)) {
+                PooledObject<T> p = slot.idle.getAndSet(null);
+                if (p != null && (isClosed() || !offerOverflow(p))) {
+                    destroyQuietly(p);
+                }
+                if (slot.numBorrowed > 0) {
+                    totalCount.addAndGet(-slot.numBorrowed);
+                    abandonedCount.addAndGet(slot.numBorrowed);
+                }
+            }
+        }
+    }
+
+    private PooledObject<T> pollOverflow() {
+        return overflow == null ? null : overflow.poll();
+    }
+
+    private boolean offerOverflow(PooledObject<T> p) {
+        return overflow != null && overflow.offer(p);
+    }
+
+    private void destroy(PooledObject<T> p) throws Exception {
+        totalCount.decrementAndGet();
+        try {
+            factory.destroyObject(p);
+        } finally {
+            destroyedCount.incrementAndGet();
+        }
+    }
+
+    private void destroyQuietly(PooledObject<T> p) {
+        try {
+            destroy(p);
+        } catch (Exception e) {
+            // ignored, the object is discarded either way
+        }
+    }
+
+    /**
+     * The idle slot and the borrowed objects of one thread. Only the owning thread touches the borrowed list, except after it has terminated; the idle
+     * slot can be emptied by any thread.
+     */
+    private static final class ThreadSlot<T> {
+        private final WeakReference<Thread> owner;
+        final AtomicReference<PooledObject<T>> idle = new AtomicReference<PooledObject<T>>();
+        private PooledObject<?>[] borrowed = new PooledObject<?>[2];
+        int numBorrowed;
+
+        ThreadSlot(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+
+        boolean isOwnerAlive() {
+            Thread t = owner.get();
+            return t != null && t.isAlive();
+        }
+
+        void addBorrowed(PooledObject<T> p) {
+            if (numBorrowed == borrowed.length) {
+                PooledObject<?>[] grown = new PooledObject<?>[numBorrowed * 2];
+                System.arraycopy(borrowed, 0, grown, 0, numBorrowed);
+                borrowed = grown;
+            }
+            borrowed[numBorrowed++] = p;
+        }
+
+        /**
+         * Searches from the most recent borrow, since objects are usually returned in the reverse order.
+         */
+        @SuppressWarnings("unchecked")
+        PooledObject<T> removeBorrowed(T obj) {
+            for (int i = numBorrowed - 1; i >= 0; i--) {
+                if (borrowed[i].getObject() == obj) {
+                    PooledObject<T> p = (PooledObject<T>) borrowed[i];
+                    numBorrowed--;
+                    System.arraycopy(borrowed, i + 1, borrowed, i, numBorrowed - i);
+                    borrowed[numBorrowed] = null;
+                    return p;
+                }
+            }
+            return null;
+        }
+    }
+}
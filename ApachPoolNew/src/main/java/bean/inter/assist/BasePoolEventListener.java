@@ -0,0 +1,35 @@
+package bean.inter.assist;
+
+import bean.inter.PooledObject;
+import enums.DestroyCause;
+import enums.FactoryOperation;
+
+/**
+ * A no-op {@link PoolEventListener} to extend when only some of the events are of interest.
+ */
+public abstract class BasePoolEventListener<T> implements PoolEventListener<T> {
+
+    @Override
+    public void onBorrow(PooledObject<T> p, long waitNanos, boolean created) {
+    }
+
+    @Override
+    public void onReturn(PooledObject<T> p, long activeNanos) {
+    }
+
+    @Override
+    public void onCreate(PooledObject<T> p) {
+    }
+
+    @Override
+    public void onDestroy(PooledObject<T> p, DestroyCause cause) {
+    }
+
+    @Override
+    public void onEvictionRun(int examined, int evicted, long durationNanos) {
+    }
+
+    @Override
+    public void onFactoryOperation(PooledObject<T> p, FactoryOperation operation, long durationNanos) {
+    }
+}
@@ -0,0 +1,83 @@
+package bean.inter.assist;
+
+import bean.inter.PooledObject;
+import enums.DestroyCause;
+import enums.FactoryOperation;
+
+/**
+ * Receives typed notifications of the lifecycle events of a pool.
+ * <p>
+ * Callbacks are invoked synchronously on the thread performing the pool operation, so implementations must be thread safe and should return quickly. A
+ * runtime exception thrown by a callback is passed to the pool's {@link SwallowedExceptionListener} and otherwise ignored.
+ * <p>
+ * A pool holds at most one listener. When none is registered the pool performs no allocation, no clock reads and no additional virtual calls for event
+ * reporting. Timed events (borrows and factory operations) shorter than the pool's event threshold are not reported, so a listener feeding a profiler or a
+ * tracing system can stay enabled in production. A listener that needs to identify its pool should be created with the pool's
+ * {@link bean.inter.pool.base.BaseGenericObjectPool#getJmxName() JMX name}.
+ */
+public interface PoolEventListener<T> {
+
+    /**
+     * An object has been borrowed from the pool.
+     * 
+     * @param p
+     *            the borrowed object
+     * @param waitNanos
+     *            the time the caller spent inside borrowObject, in nanoseconds
+     * @param created
+     *            {@code true} if the object was created for this borrow rather than taken from the idle objects
+     */
+    void onBorrow(PooledObject<T> p, long waitNanos, boolean created);
+
+    /**
+     * An object has been returned to the pool. The object may be destroyed afterwards, in which case {@link #onDestroy} follows.
+     * 
+     * @param p
+     *            the returned object
+     * @param activeNanos
+     *            the time the object was checked out, in nanoseconds (measured with the millisecond resolution of {@link PooledObject})
+     */
+    void onReturn(PooledObject<T> p, long activeNanos);
+
+    /**
+     * A new object has been created by the factory and added to the pool.
+     * 
+     * @param p
+     *            the new object
+     */
+    void onCreate(PooledObject<T> p);
+
+    /**
+     * An object has been removed from the pool and passed to the factory for destruction.
+     * 
+     * @param p
+     *            the destroyed object
+     * @param cause
+     *            why the pool destroyed the object
+     */
+    void onDestroy(PooledObject<T> p, DestroyCause cause);
+
+    /**
+     * A run of the idle object evictor has completed.
+     * 
+     * @param examined
+     *            the number of idle objects tested
+     * @param evicted
+     *            the number of objects destroyed by this run
+     * @param durationNanos
+     *            the duration of the run, in nanoseconds
+     */
+    void onEvictionRun(int examined, int evicted, long durationNanos);
+
+    /**
+     * A call to the pool's factory has completed, successfully or not.
+     * 
+     * @param p
+     *            the object the operation applied to, or {@code null} for a failed {@link FactoryOperation#MAKE}
+     * @param operation
+     *            the factory method that was called
+     * @param durationNanos
+     *            the duration of the call, in nanoseconds
+     */
+    void onFactoryOperation(PooledObject<T> p, FactoryOperation operation, long durationNanos);
+}
@@ -0,0 +1,16 @@
+package bean.inter.assist;
+
+import bean.impl.assist.DefaultPooledObjectInfo;
+
+/**
+ * Receives the objects selected by a query one at a time, so that large pools can be inspected without building a collection of all their objects.
+ */
+public interface PooledObjectVisitor {
+
+    /**
+     * @param info
+     *            a read-only view of the next matching object
+     * @return {@code true} to continue with the next object, {@code false} to stop
+     */
+    boolean visit(DefaultPooledObjectInfo info);
+}
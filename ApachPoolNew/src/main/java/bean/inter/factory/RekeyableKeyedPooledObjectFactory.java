@@ -0,0 +1,21 @@
+package bean.inter.factory;
+
+import bean.inter.PooledObject;
+
+/**
+ * 可以把一个key下的对象转换给另一个key使用的工厂，例如同一数据库上的连接用另一个用户重新认证。
+ * 键池在某个key没有空闲对象时，先从兼容key借一个空闲对象转换，转换失败才调用makeObject
+ */
+public interface RekeyableKeyedPooledObjectFactory<K, V> extends KeyedPooledObjectFactory<K, V> {
+
+    /**
+     * 返回key的兼容类别，类别相等(equals)的key之间的对象可以互相转换；返回null表示该key不参与转换
+     */
+    Object getCompatibilityKey(K key);
+
+    /**
+     * 把fromKey下的对象转换为toKey使用，调用时对象已从池中取出。返回false表示不能转换，对象原样放回fromKey；
+     * 抛出异常时对象被销毁
+     */
+    boolean rekeyObject(K fromKey, K toKey, PooledObject<V> p) throws Exception;
+}
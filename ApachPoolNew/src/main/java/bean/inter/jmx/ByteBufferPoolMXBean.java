@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bean.inter.jmx;
+
+public interface ByteBufferPoolMXBean {
+    int getMinBufferSize();
+
+    int getMaxBufferSize();
+
+    int getSlabSize();
+
+    int getMagazineSize();
+
+    long getMaxDirectMemory();
+
+    long getReservedDirectMemory();
+
+    long getSlabCount();
+
+    long getAcquireCount();
+
+    long getMissCount();
+
+    long getOversizeCount();
+
+    double getHitRate();
+
+    /**
+     * @return the buffer size of each size class, smallest first; the other per size class arrays use the same order
+     */
+    int[] getSizeClasses();
+
+    long[] getAcquireCountBySizeClass();
+
+    long[] getMissCountBySizeClass();
+
+    double[] getHitRateBySizeClass();
+
+    /**
+     * @return the number of buffers held by the shared depot of each size class, excluding those cached by threads
+     */
+    int[] getDepotCountBySizeClass();
+
+    int getNumThreadCaches();
+
+    boolean isClosed();
+}
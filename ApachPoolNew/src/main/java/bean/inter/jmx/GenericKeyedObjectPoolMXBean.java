@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.Map;
 
 import bean.impl.assist.DefaultPooledObjectInfo;
+import bean.inter.pool.base.PoolStats;
 
 public interface GenericKeyedObjectPoolMXBean<K> {
     boolean getBlockWhenExhausted();
@@ -36,6 +37,10 @@ public interface GenericKeyedObjectPoolMXBean<K> {
 
     long getMaxWaitMillis();
 
+    int getMaxWaiters();
+
+    boolean getShedOnEstimatedWait();
+
     long getMinEvictableIdleTimeMillis();
 
     int getMinIdlePerKey();
@@ -46,6 +51,8 @@ public interface GenericKeyedObjectPoolMXBean<K> {
 
     int getNumTestsPerEvictionRun();
 
+    long getMaxEvictionRunMillis();
+
     boolean getTestOnCreate();
 
     boolean getTestOnBorrow();
@@ -58,8 +65,6 @@ public interface GenericKeyedObjectPoolMXBean<K> {
 
     boolean isClosed();
 
-    Map<String, Integer> getNumActivePerKey();
-
     long getBorrowedCount();
 
     long getReturnedCount();
@@ -72,6 +77,10 @@ public interface GenericKeyedObjectPoolMXBean<K> {
 
     long getDestroyedByBorrowValidationCount();
 
+    long getDestroyedByRebalanceCount();
+
+    long getRekeyedCount();
+
     long getMeanActiveTimeMillis();
 
     long getMeanIdleTimeMillis();
@@ -84,7 +93,25 @@ public interface GenericKeyedObjectPoolMXBean<K> {
 
     int getNumWaiters();
 
-    Map<String, Integer> getNumWaitersByKey();
+    long getEstimatedBorrowWaitMillis();
+
+    long getRejectedBorrowCount();
+
+    int getTopKeysLimit();
+
+    Map<String, Long> getTopKeysByWaitTime();
+
+    Map<String, Long> getTopKeysByCreations();
+
+    // These visit every key, so they are operations rather than attributes
+    // that tools like JConsole read on every refresh
+    Map<String, Integer> listTopKeysByActive();
+
+    Map<String, Integer> listTopKeysByWaiters();
+
+    Map<String, Integer> listKeysByActiveCount();
 
     Map<String, List<DefaultPooledObjectInfo>> listAllObjects();
+
+    PoolStats getStats();
 }
\ No newline at end of file
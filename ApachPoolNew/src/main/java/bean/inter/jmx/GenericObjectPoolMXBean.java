@@ -16,9 +16,11 @@
  */
 package bean.inter.jmx;
 
+import java.util.List;
 import java.util.Set;
 
 import bean.impl.assist.DefaultPooledObjectInfo;
+import bean.inter.pool.base.PoolStats;
 
 public interface GenericObjectPoolMXBean {
     boolean getBlockWhenExhausted();
@@ -33,6 +35,10 @@ public interface GenericObjectPoolMXBean {
 
     long getMaxWaitMillis();
 
+    int getMaxWaiters();
+
+    boolean getShedOnEstimatedWait();
+
     long getMinEvictableIdleTimeMillis();
 
     int getMinIdle();
@@ -79,6 +85,22 @@ public interface GenericObjectPoolMXBean {
 
     int getNumWaiters();
 
+    long getEstimatedBorrowWaitMillis();
+
+    long getRejectedBorrowCount();
+
+    int getMaxOverflow();
+
+    long getOverflowWaitThresholdMillis();
+
+    double getMaxOverflowCreatesPerSecond();
+
+    int getNumOverflow();
+
+    long getOverflowCreatedCount();
+
+    PoolStats getStats();
+
     boolean isAbandonedConfig();
 
     boolean getLogAbandoned();
@@ -92,4 +114,24 @@ public interface GenericObjectPoolMXBean {
     public String getFactoryType();
 
     Set<DefaultPooledObjectInfo> listAllObjects();
+
+    /**
+     * Lists one page of the pool's objects matching the given criteria, without their borrow stack traces.
+     * <p>
+     * Pages follow the pool's current iteration order, which changes as objects are created and destroyed, so consecutive pages of a live pool may
+     * skip or repeat objects.
+     * 
+     * @param state
+     *            the name of a {@link enums.PooledObjectState}, or {@code null} or empty for any state
+     * @param minIdleTimeMillis
+     *            only idle objects idle at least this long; negative for any
+     * @param minBorrowedCount
+     *            only objects borrowed at least this many times; negative for any
+     * @param offset
+     *            the number of matching objects to skip
+     * @param limit
+     *            the maximum number of objects to return; negative for no limit
+     * @return the matching objects
+     */
+    List<DefaultPooledObjectInfo> listObjects(String state, long minIdleTimeMillis, long minBorrowedCount, int offset, int limit);
 }
\ No newline at end of file
@@ -22,6 +22,8 @@ import java.io.Writer;
 import java.lang.management.ManagementFactory;
 import java.lang.ref.WeakReference;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.InstanceAlreadyExistsException;
@@ -32,13 +34,18 @@ import javax.management.MalformedObjectNameException;
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 
+import bean.assist.StripedCounter;
 import bean.inter.PooledObject;
+import bean.inter.assist.PoolEventListener;
 import bean.inter.assist.SwallowedExceptionListener;
 import bean.inter.pool.base.assist.EvictionIterator;
+import bean.inter.pool.base.assist.StatsHistogram;
 import bean.inter.pool.base.assist.StatsStore;
 import config.evict.EvictionPolicy;
 import config.pool.BaseObjectPoolConfig;
 import config.pool.impl.GenericKeyedObjectPoolConfig;
+import enums.DestroyCause;
+import enums.FactoryOperation;
 
 /**
  * 共用两个线程池的代码实现
@@ -52,6 +59,8 @@ public abstract class BaseGenericObjectPool<T> {
 
     private volatile boolean blockWhenExhausted = BaseObjectPoolConfig.DEFAULT_BLOCK_WHEN_EXHAUSTED;
     private volatile long maxWaitMillis = BaseObjectPoolConfig.DEFAULT_MAX_WAIT_MILLIS;
+    private volatile int maxWaiters = BaseObjectPoolConfig.DEFAULT_MAX_WAITERS;
+    private volatile boolean shedOnEstimatedWait = BaseObjectPoolConfig.DEFAULT_SHED_ON_ESTIMATED_WAIT;
     private volatile boolean lifo = BaseObjectPoolConfig.DEFAULT_LIFO;
     private final boolean fairness;
 
@@ -90,13 +99,28 @@ public abstract class BaseGenericObjectPool<T> {
     protected final AtomicLong destroyedCount = new AtomicLong(0);
     protected final AtomicLong destroyedByEvictorCount = new AtomicLong(0);
     protected final AtomicLong destroyedByBorrowValidationCount = new AtomicLong(0);
+    /** Objects currently checked out, maintained by the subclasses on allocation and release */
+    protected final StripedCounter activeCount = new StripedCounter();
+    /** Threads currently blocked waiting for an object, maintained by the subclasses around their blocking calls */
+    protected final StripedCounter waiterCount = new StripedCounter();
+    /** Exact count of the threads admitted by beginWait, which maxWaiters is enforced against */
+    private final AtomicInteger queuedWaiters = new AtomicInteger(0);
+    private final AtomicLong rejectedBorrowCount = new AtomicLong(0);
+    /** Smoothed time between two waiting borrowers being served, in nanoseconds; -1 until the first wait has ended */
+    private final AtomicLong serviceIntervalNanos = new AtomicLong(-1L);
+    /** Time the last waiting borrower was handed an object */
+    private volatile long lastHandoffNanos = System.nanoTime();
 
     private final StatsStore activeTimes = new StatsStore(MEAN_TIMING_STATS_CACHE_SIZE);
     private final StatsStore idleTimes = new StatsStore(MEAN_TIMING_STATS_CACHE_SIZE);
     private final StatsStore waitTimes = new StatsStore(MEAN_TIMING_STATS_CACHE_SIZE);
     private final AtomicLong maxBorrowWaitTimeMillis = new AtomicLong(0L);
+    private final StatsHistogram activeTimeHistogram = new StatsHistogram();
+    private final StatsHistogram waitTimeHistogram = new StatsHistogram();
 
     private volatile SwallowedExceptionListener swallowedExceptionListener = null;
+    private volatile PoolEventListener<T> eventListener = null;
+    private volatile long eventThresholdNanos = 0L;
 
     public BaseGenericObjectPool(BaseObjectPoolConfig config, String jmxNameBase, String jmxNamePrefix) {
         if (config.getJmxEnabled()) {
@@ -141,6 +165,38 @@ public abstract class BaseGenericObjectPool<T> {
         this.maxWaitMillis = maxWaitMillis;
     }
 
+    public final int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    /**
+     * Sets the maximum number of threads that may block in borrowObject at the same time. Once it is reached, further borrowers that would have to
+     * wait are rejected at once with {@link BorrowRejectedException#TOO_MANY_WAITERS}. Use a negative value for no limit.
+     * 
+     * @param maxWaiters
+     *            the maximum number of waiting threads, or a negative value for no limit
+     */
+    public final void setMaxWaiters(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+    }
+
+    public final boolean getShedOnEstimatedWait() {
+        return shedOnEstimatedWait;
+    }
+
+    /**
+     * Sets whether a borrower that would have to wait is rejected at once, with {@link BorrowRejectedException#ESTIMATED_WAIT_TOO_LONG}, when other
+     * threads are already waiting and the {@link #getEstimatedBorrowWaitMillis() estimated wait} is longer than the borrower's maximum wait. Borrowers
+     * that wait indefinitely are never rejected this way.
+     * 
+     * @param shedOnEstimatedWait
+     *            {@code true} to reject borrowers whose wait is expected to time out
+     * @see #getEstimatedBorrowWaitMillis()
+     */
+    public final void setShedOnEstimatedWait(boolean shedOnEstimatedWait) {
+        this.shedOnEstimatedWait = shedOnEstimatedWait;
+    }
+
     public final boolean getLifo() {
         return lifo;
     }
@@ -301,10 +357,64 @@ public abstract class BaseGenericObjectPool<T> {
         return maxBorrowWaitTimeMillis.get();
     }
 
+    /**
+     * Returns the expected time, in milliseconds, a borrower that has to wait now spends waiting: the number of threads already waiting, plus one, times
+     * the smoothed interval at which waiting borrowers are served. A borrower that times out without any borrower having been served during its wait
+     * counts its whole wait as an interval, so the estimate grows while the pool is stalled instead of staying below the borrowers' timeouts.
+     * 
+     * @return the estimated wait in milliseconds, zero before any borrower has waited
+     */
+    public final long getEstimatedBorrowWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(estimateWaitNanos(queuedWaiters.get()));
+    }
+
+    private long estimateWaitNanos(int queued) {
+        long interval = serviceIntervalNanos.get();
+        return interval < 0 ? 0L : (queued + 1) * interval;
+    }
+
+    /**
+     * Returns the number of borrowers rejected by load shedding, see {@link #setMaxWaiters(int)} and {@link #setShedOnEstimatedWait(boolean)}.
+     * 
+     * @return the number of rejected borrows
+     */
+    public final long getRejectedBorrowCount() {
+        return rejectedBorrowCount.get();
+    }
+
+    /**
+     * Returns the distribution of the time, in milliseconds, callers spent waiting in borrowObject.
+     * 
+     * @return a snapshot of the borrow wait time histogram
+     */
+    public final StatsHistogram.Snapshot getBorrowWaitTimeHistogram() {
+        return waitTimeHistogram.snapshot();
+    }
+
+    /**
+     * Returns the distribution of the time, in milliseconds, objects were checked out before being returned.
+     * 
+     * @return a snapshot of the active time histogram
+     */
+    public final StatsHistogram.Snapshot getActiveTimeHistogram() {
+        return activeTimeHistogram.snapshot();
+    }
+
     public abstract int getNumIdle();
-    
-    
-    
+
+    public abstract int getNumActive();
+
+    public abstract int getNumWaiters();
+
+    /**
+     * Reads all the statistics of this pool in one call.
+     * 
+     * @return an immutable snapshot of the pool's gauges, counters and timing statistics
+     */
+    public PoolStats getStats() {
+        return new PoolStats(this);
+    }
+
 
     public final SwallowedExceptionListener getSwallowedExceptionListener() {
         return swallowedExceptionListener;
@@ -332,10 +442,188 @@ public abstract class BaseGenericObjectPool<T> {
         }
     }
 
+    public final PoolEventListener<T> getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * Sets the listener notified of borrow, return, create, destroy and eviction events. Pass {@code null} to stop event reporting.
+     * 
+     * @param eventListener
+     *            the listener or {@code null}
+     */
+    public final void setEventListener(PoolEventListener<T> eventListener) {
+        this.eventListener = eventListener;
+    }
+
+    /**
+     * Whether a {@link PoolEventListener} is registered. Callers use this to skip measurements that are only needed for event reporting.
+     * 
+     * @return {@code true} if events are being reported
+     */
+    protected final boolean isEventListenerSet() {
+        return eventListener != null;
+    }
+
+    public final long getEventThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(eventThresholdNanos);
+    }
+
+    /**
+     * Sets the minimum duration of a borrow or factory operation for it to be reported to the {@link PoolEventListener}. Shorter operations are not
+     * reported. Use zero to report every operation.
+     * 
+     * @param eventThresholdMillis
+     *            the threshold in milliseconds
+     */
+    public final void setEventThresholdMillis(long eventThresholdMillis) {
+        this.eventThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, eventThresholdMillis));
+    }
+
+    protected final void fireBorrow(PooledObject<T> p, long waitNanos, boolean created) {
+        PoolEventListener<T> listener = eventListener;
+        if (listener != null && waitNanos >= eventThresholdNanos) {
+            try {
+                listener.onBorrow(p, waitNanos, created);
+            } catch (RuntimeException e) {
+                swallowException(e);
+            }
+        }
+    }
+
+    protected final void fireReturn(PooledObject<T> p, long activeTimeMillis) {
+        PoolEventListener<T> listener = eventListener;
+        if (listener != null) {
+            try {
+                listener.onReturn(p, TimeUnit.MILLISECONDS.toNanos(activeTimeMillis));
+            } catch (RuntimeException e) {
+                swallowException(e);
+            }
+        }
+    }
+
+    protected final void fireCreate(PooledObject<T> p) {
+        PoolEventListener<T> listener = eventListener;
+        if (listener != null) {
+            try {
+                listener.onCreate(p);
+            } catch (RuntimeException e) {
+                swallowException(e);
+            }
+        }
+    }
+
+    protected final void fireDestroy(PooledObject<T> p, DestroyCause cause) {
+        PoolEventListener<T> listener = eventListener;
+        if (listener != null) {
+            try {
+                listener.onDestroy(p, cause);
+            } catch (RuntimeException e) {
+                swallowException(e);
+            }
+        }
+    }
+
+    protected final void fireEvictionRun(int examined, int evicted, long durationNanos) {
+        PoolEventListener<T> listener = eventListener;
+        if (listener != null) {
+            try {
+                listener.onEvictionRun(examined, evicted, durationNanos);
+            } catch (RuntimeException e) {
+                swallowException(e);
+            }
+        }
+    }
+
+    /**
+     * Marks the start of a factory call that may have to be reported to the {@link PoolEventListener}.
+     * 
+     * @return the start time to pass to {@link #fireFactoryOperation}, or zero if no listener is registered
+     */
+    protected final long startFactoryOperation() {
+        return eventListener != null ? System.nanoTime() : 0L;
+    }
+
+    protected final void fireFactoryOperation(PooledObject<T> p, FactoryOperation operation, long startTime) {
+        if (startTime == 0L) {
+            return;
+        }
+        long durationNanos = System.nanoTime() - startTime;
+        PoolEventListener<T> listener = eventListener;
+        if (listener != null && durationNanos >= eventThresholdNanos) {
+            try {
+                listener.onFactoryOperation(p, operation, durationNanos);
+            } catch (RuntimeException e) {
+                swallowException(e);
+            }
+        }
+    }
+
+    /**
+     * Admits the calling thread to block waiting for an object, or rejects it when the pool is shedding load. A borrower is rejected when
+     * {@link #getMaxWaiters() maxWaiters} threads are already waiting, or when {@link #getShedOnEstimatedWait() shedOnEstimatedWait} is set, other
+     * threads are waiting and the estimated wait exceeds {@code borrowMaxWaitMillis}. Requiring other waiters keeps a stale estimate from shedding
+     * forever: an idle queue always admits the next borrower, whose wait refreshes the estimate. Every admitted thread must call
+     * {@link #endWait(long, boolean)} once it stops waiting.
+     * 
+     * @param borrowMaxWaitMillis
+     *            the maximum time the caller will wait, negative for no limit
+     * @return the time the wait started, as given by {@link System#nanoTime()}
+     * @throws BorrowRejectedException
+     *             if the caller is rejected
+     */
+    protected final long beginWait(long borrowMaxWaitMillis) throws BorrowRejectedException {
+        int max = maxWaiters;
+        for (;;) {
+            int queued = queuedWaiters.get();
+            if (max >= 0 && queued >= max) {
+                rejectedBorrowCount.incrementAndGet();
+                throw BorrowRejectedException.TOO_MANY_WAITERS;
+            }
+            if (queued > 0 && borrowMaxWaitMillis >= 0 && shedOnEstimatedWait
+                    && estimateWaitNanos(queued) > TimeUnit.MILLISECONDS.toNanos(borrowMaxWaitMillis)) {
+                rejectedBorrowCount.incrementAndGet();
+                throw BorrowRejectedException.ESTIMATED_WAIT_TOO_LONG;
+            }
+            if (queuedWaiters.compareAndSet(queued, queued + 1)) {
+                break;
+            }
+        }
+        waiterCount.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * Releases the admission taken by {@link #beginWait(long)} and updates the service interval behind the wait estimate. The interval is measured from
+     * the later of the last time a waiting borrower was served and the start of this wait, so time the queue spent empty does not count. A borrower that
+     * timed out contributes the time it waited since then, a lower bound of the current interval.
+     * 
+     * @param waitStartNanos
+     *            the time returned by {@link #beginWait(long)}
+     * @param served
+     *            whether the thread got an object
+     */
+    protected final void endWait(long waitStartNanos, boolean served) {
+        waiterCount.decrement();
+        queuedWaiters.decrementAndGet();
+        long now = System.nanoTime();
+        long last = lastHandoffNanos;
+        long sample = now - (last - waitStartNanos > 0 ? last : waitStartNanos);
+        if (served) {
+            lastHandoffNanos = now;
+        }
+        long prev, next;
+        do {
+            prev = serviceIntervalNanos.get();
+            next = prev < 0 ? sample : prev + (sample - prev) / 8;
+        } while (!serviceIntervalNanos.compareAndSet(prev, next));
+    }
+
     protected final void updateStatsBorrow(PooledObject<T> p, long waitTime) {
         borrowedCount.incrementAndGet();
         idleTimes.add(p.getIdleTimeMillis());
         waitTimes.add(waitTime);
+        waitTimeHistogram.add(waitTime);
 
         // lock-free optimistic-locking maximum
         long currentMax;
@@ -350,6 +638,7 @@ public abstract class BaseGenericObjectPool<T> {
     protected final void updateStatsReturn(long activeTime) {
         returnedCount.incrementAndGet();
         activeTimes.add(activeTime);
+        activeTimeHistogram.add(activeTime);
     }
 
     private ObjectName jmxRegister(BaseObjectPoolConfig config, String jmxNameBase, String jmxNamePrefix) {
@@ -482,4 +771,4 @@ public abstract class BaseGenericObjectPool<T> {
 
     protected abstract void ensureMinIdle() throws Exception;
 
-}
\ No newline at end of file
+}
\ No newline at end of file
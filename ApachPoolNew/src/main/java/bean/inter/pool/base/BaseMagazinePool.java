@@ -0,0 +1,515 @@
+package bean.inter.pool.base;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Base class of the pools that cache untracked elements, such as buffers and arrays, in power-of-two size classes.
+ * <p>
+ * Each thread caches released elements in two magazines per size class, so that most acquires and releases touch no shared state and allocate
+ * nothing. When both magazines of a thread are empty (on acquire) or full (on release), a whole magazine is exchanged with the depot of the size
+ * class, the only structure shared between threads. Magazines of threads that have terminated are moved to the depots when a new thread first uses the
+ * pool, or when a subclass cannot create a new element.
+ * <p>
+ * The pool keeps no record of the elements it hands out, so no tracking object is created per element; the size class of a released element is found
+ * from its size alone. Acquire and miss counts are kept by each thread without synchronization, so the statistics may lag behind by a few recent
+ * operations.
+ *
+ * @param <E>
+ *            Type of element pooled in this pool.
+ */
+public abstract class BaseMagazinePool<E> {
+
+    public static final int UNLIMITED = -1;
+
+    public static final int MAX_SIZE_CLASS = 1 << 30;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int magazineSize;
+    private final int minShift;
+
+    private final SizeClass[] sizeClasses;
+
+    private final AtomicLong oversizeCount = new AtomicLong();
+    /** Counts of thread caches that have since been reclaimed */
+    private final AtomicLongArray retiredAcquires;
+    private final AtomicLongArray retiredMisses;
+
+    private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>();
+    private final ConcurrentLinkedQueue<ThreadCache> threadCaches = new ConcurrentLinkedQueue<ThreadCache>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param minSize
+     *            the size of the smallest size class, rounded up to a power of two
+     * @param maxSize
+     *            the size of the largest size class, rounded up to a power of two
+     * @param magazineSize
+     *            the most elements a magazine holds
+     * @param maxMagazineSizeSum
+     *            the most total size a magazine holds; large size classes get smaller magazines, but never fewer than one element
+     * @param maxDepotMagazines
+     *            the most full magazines each depot keeps, or {@link #UNLIMITED}; the contents of the magazines beyond that are dropped
+     */
+    protected BaseMagazinePool(int minSize, int maxSize, int magazineSize, int maxMagazineSizeSum, int maxDepotMagazines) {
+        if (minSize <= 0) {
+            throw new IllegalArgumentException("minSize must be positive.");
+        }
+        if (maxSize < minSize) {
+            throw new IllegalArgumentException("maxSize must not be less than minSize.");
+        }
+        if (maxSize > MAX_SIZE_CLASS) {
+            throw new IllegalArgumentException("maxSize must not exceed " + MAX_SIZE_CLASS + ".");
+        }
+        if (magazineSize <= 0) {
+            throw new IllegalArgumentException("magazineSize must be positive.");
+        }
+        this.minSize = roundUpToPowerOfTwo(minSize);
+        this.maxSize = roundUpToPowerOfTwo(maxSize);
+        this.magazineSize = magazineSize;
+        this.minShift = Integer.numberOfTrailingZeros(this.minSize);
+
+        int n = Integer.numberOfTrailingZeros(this.maxSize) - minShift + 1;
+        this.sizeClasses = new SizeClass[n];
+        for (int i = 0; i < n; i++) {
+            int size = this.minSize << i;
+            int capacity = Math.max(1, Math.min(magazineSize, maxMagazineSizeSum / size));
+            sizeClasses[i] = new SizeClass(i, size, capacity, maxDepotMagazines);
+        }
+        this.retiredAcquires = new AtomicLongArray(n);
+        this.retiredMisses = new AtomicLongArray(n);
+    }
+
+    /**
+     * Creates a new element for a size class, after the thread's magazines and the depot have been found empty.
+     *
+     * @param size
+     *            the size of the size class
+     * @return the new element, or {@code null} if none can be created right now
+     */
+    protected abstract E create(int size);
+
+    /**
+     * Takes a cached element of the size class that fits {@code size}, or creates one.
+     *
+     * @param size
+     *            the size required, at most {@link #getMaxSize()}
+     * @return the element, or {@code null} if there is no cached element and {@link #create(int)} failed
+     */
+    protected final E take(int size) {
+        SizeClass sc = sizeClasses[sizeClassIndex(size)];
+        ThreadCache tc = getThreadCache();
+        E e = tc.pop(sc);
+        if (e == null) {
+            e = create(sc.size);
+            if (e == null) {
+                // Elements cached by terminated threads are the only ones left to reuse.
+                reclaimDeadThreadCaches();
+                e = tc.pop(sc);
+                if (e == null) {
+                    e = create(sc.size);
+                    if (e == null) {
+                        return null;
+                    }
+                    tc.misses[sc.index]++;
+                }
+            } else {
+                tc.misses[sc.index]++;
+            }
+        }
+        tc.acquires[sc.index]++;
+        return e;
+    }
+
+    /**
+     * Caches an element of the given size class. Elements given after the pool has been closed are dropped.
+     *
+     * @param sizeClassIndex
+     *            the index returned by {@link #sizeClassOf(int)} for the size of {@code e}
+     */
+    protected final void give(int sizeClassIndex, E e) {
+        if (closed) {
+            return;
+        }
+        getThreadCache().push(sizeClasses[sizeClassIndex], e);
+    }
+
+    /**
+     * @return the index of the size class whose size is exactly {@code size}, or -1 if there is none
+     */
+    protected final int sizeClassOf(int size) {
+        if (size < minSize || size > maxSize || (size & (size - 1)) != 0) {
+            return -1;
+        }
+        return sizeClassIndex(size);
+    }
+
+    /**
+     * Counts an acquire that was too large for the size classes and was served by a new, uncached element.
+     */
+    protected final void recordOversize() {
+        oversizeCount.incrementAndGet();
+    }
+
+    private int sizeClassIndex(int size) {
+        if (size <= minSize) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - minShift;
+    }
+
+    protected static int roundUpToPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * Moves the elements cached by the calling thread to the shared depots, so that other threads can reuse them. Useful before a thread goes idle for
+     * a long time.
+     */
+    public void trimThreadCache() {
+        ThreadCache tc = threadCache.get();
+        if (tc != null) {
+            tc.flush();
+        }
+    }
+
+    /**
+     * Closes the pool and drops the cached elements. Elements still in use can be released, but are not cached.
+     */
+    public void close() {
+        closed = true;
+        for (SizeClass sc : sizeClasses) {
+            sc.clear();
+        }
+        threadCaches.clear();
+        threadCache.remove();
+    }
+
+    public final boolean isClosed() {
+        return closed;
+    }
+
+    protected final void assertOpen() throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("Pool not open");
+        }
+    }
+
+    private ThreadCache getThreadCache() {
+        ThreadCache tc = threadCache.get();
+        if (tc == null) {
+            reclaimDeadThreadCaches();
+            tc = new ThreadCache(Thread.currentThread());
+            threadCaches.add(tc);
+            threadCache.set(tc);
+        }
+        return tc;
+    }
+
+    /**
+     * Moves the magazines of terminated threads to the depots. A terminated thread no longer touches its cache, so it can be read without
+     * synchronization once it has been removed from the registry.
+     */
+    private void reclaimDeadThreadCaches() {
+        Iterator<ThreadCache> it = threadCaches.iterator();
+        while (it.hasNext()) {
+            ThreadCache tc = it.next();
+            if (!tc.isOwnerAlive() && threadCaches.remove(tc)) {
+                tc.flush();
+                for (int i = 0; i < sizeClasses.length; i++) {
+                    retiredAcquires.addAndGet(i, tc.acquires[i]);
+                    retiredMisses.addAndGet(i, tc.misses[i]);
+                }
+            }
+        }
+    }
+
+    public final int getMinSize() {
+        return minSize;
+    }
+
+    public final int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMagazineSize() {
+        return magazineSize;
+    }
+
+    /**
+     * @return the number of acquires, including the oversized ones
+     */
+    public long getAcquireCount() {
+        long total = oversizeCount.get();
+        for (long count : getAcquireCountBySizeClass()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of acquires that needed a new element, including the oversized ones
+     */
+    public long getMissCount() {
+        long total = oversizeCount.get();
+        for (long count : getMissCountBySizeClass()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long getOversizeCount() {
+        return oversizeCount.get();
+    }
+
+    public double getHitRate() {
+        return hitRate(getAcquireCount(), getMissCount());
+    }
+
+    /**
+     * @return the size of each size class, smallest first; the other per size class arrays use the same order
+     */
+    public int[] getSizeClasses() {
+        int[] sizes = new int[sizeClasses.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = sizeClasses[i].size;
+        }
+        return sizes;
+    }
+
+    public long[] getAcquireCountBySizeClass() {
+        long[] counts = new long[sizeClasses.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = retiredAcquires.get(i);
+        }
+        for (ThreadCache tc : threadCaches) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += tc.acquires[i];
+            }
+        }
+        return counts;
+    }
+
+    public long[] getMissCountBySizeClass() {
+        long[] counts = new long[sizeClasses.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = retiredMisses.get(i);
+        }
+        for (ThreadCache tc : threadCaches) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += tc.misses[i];
+            }
+        }
+        return counts;
+    }
+
+    public double[] getHitRateBySizeClass() {
+        long[] acquires = getAcquireCountBySizeClass();
+        long[] misses = getMissCountBySizeClass();
+        double[] rates = new double[acquires.length];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = hitRate(acquires[i], misses[i]);
+        }
+        return rates;
+    }
+
+    /**
+     * @return the number of elements held by the shared depot of each size class, excluding those cached by threads
+     */
+    public int[] getDepotCountBySizeClass() {
+        int[] counts = new int[sizeClasses.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = sizeClasses[i].depotCount;
+        }
+        return counts;
+    }
+
+    public int getNumThreadCaches() {
+        return threadCaches.size();
+    }
+
+    private static double hitRate(long acquires, long misses) {
+        if (acquires <= 0) {
+            return 0.0d;
+        }
+        return Math.max(0L, acquires - misses) / (double) acquires;
+    }
+
+    /**
+     * A bounded stack of idle elements of one size class.
+     */
+    private static final class Magazine {
+        final Object[] elements;
+        int size;
+
+        Magazine(int capacity) {
+            elements = new Object[capacity];
+        }
+
+        boolean isFull() {
+            return size == elements.length;
+        }
+
+        void push(Object e) {
+            elements[size++] = e;
+        }
+
+        Object pop() {
+            Object e = elements[--size];
+            elements[size] = null;
+            return e;
+        }
+
+        void clear() {
+            while (size > 0) {
+                elements[--size] = null;
+            }
+        }
+    }
+
+    /**
+     * The depot of one size class. All state is guarded by the instance monitor; the count is volatile so it can be read without it.
+     */
+    private static final class SizeClass {
+        final int index;
+        final int size;
+        final int magazineCapacity;
+        final int maxDepotMagazines;
+
+        private final ArrayDeque<Magazine> fullMagazines = new ArrayDeque<Magazine>();
+        private final ArrayDeque<Magazine> emptyMagazines = new ArrayDeque<Magazine>();
+
+        volatile int depotCount;
+
+        SizeClass(int index, int size, int magazineCapacity, int maxDepotMagazines) {
+            this.index = index;
+            this.size = size;
+            this.magazineCapacity = magazineCapacity;
+            this.maxDepotMagazines = maxDepotMagazines;
+        }
+
+        /**
+         * @return a full magazine in exchange for {@code empty}, or {@code null} if the depot has none
+         */
+        synchronized Magazine exchangeEmpty(Magazine empty) {
+            Magazine full = fullMagazines.pollFirst();
+            if (full == null) {
+                return null;
+            }
+            depotCount -= full.size;
+            emptyMagazines.addFirst(empty);
+            return full;
+        }
+
+        /**
+         * @return an empty magazine in exchange for {@code full}
+         */
+        synchronized Magazine exchangeFull(Magazine full) {
+            if (maxDepotMagazines >= 0 && fullMagazines.size() >= maxDepotMagazines) {
+                full.clear();
+                return full;
+            }
+            fullMagazines.addFirst(full);
+            depotCount += full.size;
+            Magazine empty = emptyMagazines.pollFirst();
+            return empty == null ? new Magazine(magazineCapacity) : empty;
+        }
+
+        synchronized void clear() {
+            fullMagazines.clear();
+            emptyMagazines.clear();
+            depotCount = 0;
+        }
+    }
+
+    /**
+     * The magazines of one thread. Only the owning thread touches them, except after it has terminated.
+     */
+    private final class ThreadCache {
+        private final WeakReference<Thread> owner;
+        private final Magazine[] loaded = new Magazine[sizeClasses.length];
+        private final Magazine[] previous = new Magazine[sizeClasses.length];
+        final long[] acquires = new long[sizeClasses.length];
+        final long[] misses = new long[sizeClasses.length];
+
+        ThreadCache(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+
+        boolean isOwnerAlive() {
+            Thread t = owner.get();
+            return t != null && t.isAlive();
+        }
+
+        @SuppressWarnings("unchecked")
+        E pop(SizeClass sc) {
+            int i = sc.index;
+            Magazine m = loaded(sc);
+            if (m.size == 0) {
+                Magazine p = previous[i];
+                if (p.size > 0) {
+                    previous[i] = m;
+                    loaded[i] = p;
+                    m = p;
+                } else {
+                    Magazine full = sc.exchangeEmpty(p);
+                    if (full == null) {
+                        return null;
+                    }
+                    previous[i] = m;
+                    loaded[i] = full;
+                    m = full;
+                }
+            }
+            return (E) m.pop();
+        }
+
+        void push(SizeClass sc, E e) {
+            int i = sc.index;
+            Magazine m = loaded(sc);
+            if (m.isFull()) {
+                Magazine p = previous[i];
+                if (p.size == 0) {
+                    previous[i] = m;
+                    loaded[i] = p;
+                    m = p;
+                } else {
+                    Magazine empty = sc.exchangeFull(p);
+                    previous[i] = m;
+                    loaded[i] = empty;
+                    m = empty;
+                }
+            }
+            m.push(e);
+        }
+
+        void flush() {
+            for (int i = 0; i < loaded.length; i++) {
+                if (loaded[i] != null && loaded[i].size > 0) {
+                    sizeClasses[i].exchangeFull(loaded[i]);
+                }
+                if (previous[i] != null && previous[i].size > 0) {
+                    sizeClasses[i].exchangeFull(previous[i]);
+                }
+                loaded[i] = null;
+                previous[i] = null;
+            }
+        }
+
+        private Magazine loaded(SizeClass sc) {
+            Magazine m = loaded[sc.index];
+            if (m == null) {
+                m = new Magazine(sc.magazineCapacity);
+                loaded[sc.index] = m;
+                previous[sc.index] = new Magazine(sc.magazineCapacity);
+            }
+            return m;
+        }
+    }
+}
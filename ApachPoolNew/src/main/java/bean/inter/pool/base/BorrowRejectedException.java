@@ -0,0 +1,46 @@
+package bean.inter.pool.base;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Thrown by {@code borrowObject} when the pool sheds load instead of letting the caller wait for an object.
+ * <p>
+ * Rejections happen when the pool is overloaded, so they must be cheap: the pool throws one of the shared, preallocated instances, which carry no
+ * stack trace. Callers must not modify them, for example with {@link #initCause(Throwable)} or {@link #setStackTrace(StackTraceElement[])}.
+ */
+public class BorrowRejectedException extends NoSuchElementException {
+
+    private static final long serialVersionUID = -2465107962745021342L;
+
+    public enum Reason {
+        /** The number of threads waiting for an object has reached the pool's maxWaiters */
+        TOO_MANY_WAITERS,
+        /** The number of waiting threads and the recent service interval of the pool suggest that the caller's wait would time out */
+        ESTIMATED_WAIT_TOO_LONG
+    }
+
+    public static final BorrowRejectedException TOO_MANY_WAITERS = new BorrowRejectedException(Reason.TOO_MANY_WAITERS,
+            "Pool exhausted and the maximum number of waiters has been reached");
+
+    public static final BorrowRejectedException ESTIMATED_WAIT_TOO_LONG = new BorrowRejectedException(Reason.ESTIMATED_WAIT_TOO_LONG,
+            "Pool exhausted and the estimated wait exceeds the maximum wait");
+
+    private final Reason reason;
+
+    private BorrowRejectedException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * Does not record a stack trace; the instances are shared between all rejections.
+     */
+    @Override
+    public Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,140 @@
+package bean.inter.pool.base;
+
+import bean.inter.pool.base.assist.StatsHistogram;
+
+/**
+ * An immutable snapshot of the statistics of a pool, read in a single call to {@link BaseGenericObjectPool#getStats()}.
+ * <p>
+ * The values are read one after another without stopping the pool, so they are not an atomic snapshot of its state.
+ */
+public final class PoolStats {
+
+    private final long timestamp;
+
+    private final int numActive;
+    private final int numIdle;
+    private final int numWaiters;
+    private final int maxTotal;
+
+    private final long borrowedCount;
+    private final long returnedCount;
+    private final long createdCount;
+    private final long destroyedCount;
+    private final long destroyedByEvictorCount;
+    private final long destroyedByBorrowValidationCount;
+
+    private final long meanActiveTimeMillis;
+    private final long meanIdleTimeMillis;
+    private final long meanBorrowWaitTimeMillis;
+    private final long maxBorrowWaitTimeMillis;
+
+    private final StatsHistogram.Snapshot borrowWaitTimeHistogram;
+    private final StatsHistogram.Snapshot activeTimeHistogram;
+
+    PoolStats(BaseGenericObjectPool<?> pool) {
+        this.timestamp = System.currentTimeMillis();
+        this.numActive = pool.getNumActive();
+        this.numIdle = pool.getNumIdle();
+        this.numWaiters = pool.getNumWaiters();
+        this.maxTotal = pool.getMaxTotal();
+        this.borrowedCount = pool.getBorrowedCount();
+        this.returnedCount = pool.getReturnedCount();
+        this.createdCount = pool.getCreatedCount();
+        this.destroyedCount = pool.getDestroyedCount();
+        this.destroyedByEvictorCount = pool.getDestroyedByEvictorCount();
+        this.destroyedByBorrowValidationCount = pool.getDestroyedByBorrowValidationCount();
+        this.meanActiveTimeMillis = pool.getMeanActiveTimeMillis();
+        this.meanIdleTimeMillis = pool.getMeanIdleTimeMillis();
+        this.meanBorrowWaitTimeMillis = pool.getMeanBorrowWaitTimeMillis();
+        this.maxBorrowWaitTimeMillis = pool.getMaxBorrowWaitTimeMillis();
+        this.borrowWaitTimeHistogram = pool.getBorrowWaitTimeHistogram();
+        this.activeTimeHistogram = pool.getActiveTimeHistogram();
+    }
+
+    /**
+     * @return the time (using the same basis as {@link System#currentTimeMillis()}) the snapshot was taken
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getNumActive() {
+        return numActive;
+    }
+
+    public int getNumIdle() {
+        return numIdle;
+    }
+
+    public int getNumWaiters() {
+        return numWaiters;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public long getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    public long getReturnedCount() {
+        return returnedCount;
+    }
+
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    public long getDestroyedByEvictorCount() {
+        return destroyedByEvictorCount;
+    }
+
+    public long getDestroyedByBorrowValidationCount() {
+        return destroyedByBorrowValidationCount;
+    }
+
+    public long getMeanActiveTimeMillis() {
+        return meanActiveTimeMillis;
+    }
+
+    public long getMeanIdleTimeMillis() {
+        return meanIdleTimeMillis;
+    }
+
+    public long getMeanBorrowWaitTimeMillis() {
+        return meanBorrowWaitTimeMillis;
+    }
+
+    public long getMaxBorrowWaitTimeMillis() {
+        return maxBorrowWaitTimeMillis;
+    }
+
+    public StatsHistogram.Snapshot getBorrowWaitTimeHistogram() {
+        return borrowWaitTimeHistogram;
+    }
+
+    public StatsHistogram.Snapshot getActiveTimeHistogram() {
+        return activeTimeHistogram;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PoolStats");
+        sb.append("{numActive=").append(numActive);
+        sb.append(", numIdle=").append(numIdle);
+        sb.append(", numWaiters=").append(numWaiters);
+        sb.append(", maxTotal=").append(maxTotal);
+        sb.append(", borrowedCount=").append(borrowedCount);
+        sb.append(", returnedCount=").append(returnedCount);
+        sb.append(", createdCount=").append(createdCount);
+        sb.append(", destroyedCount=").append(destroyedCount);
+        sb.append('}');
+        return sb.toString();
+    }
+}
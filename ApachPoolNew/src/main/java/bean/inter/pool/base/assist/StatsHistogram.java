@@ -0,0 +1,112 @@
+package bean.inter.pool.base.assist;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 
+ * @Author daimin
+ * @Description 固定桶的耗时直方图(毫秒)，用于导出等待时间、使用时间的分布
+ */
+public class StatsHistogram {
+
+    /** Upper bounds of the buckets in milliseconds. The last bucket has no upper bound. */
+    private static final long[] BOUNDS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong sum = new AtomicLong(0);
+
+    public void add(long value) {
+        int i = 0;
+        while (i < BOUNDS.length && value > BOUNDS[i]) {
+            i++;
+        }
+        counts.incrementAndGet(i);
+        sum.addAndGet(value);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.get());
+    }
+
+    /**
+     * An immutable copy of the bucket counts taken at one point in time.
+     * <p>
+     * Over JMX the snapshot is mapped to composite data through its getters, so the buckets are also exposed as the arrays {@link #getCounts()} and
+     * {@link #getUpperBounds()}; the indexed getters are not visible there.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long sum;
+
+        Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            this.sum = sum;
+        }
+
+        /**
+         * @return the number of buckets, including the final unbounded one
+         */
+        public int getBucketCount() {
+            return counts.length;
+        }
+
+        /**
+         * @param bucket
+         *            bucket index
+         * @return the inclusive upper bound of the bucket in milliseconds, or {@link Long#MAX_VALUE} for the last bucket
+         */
+        public long getUpperBound(int bucket) {
+            return bucket < BOUNDS.length ? BOUNDS[bucket] : Long.MAX_VALUE;
+        }
+
+        /**
+         * @param bucket
+         *            bucket index
+         * @return the number of values that fell into the bucket
+         */
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * @return the number of values that fell into each bucket, indexed like {@link #getCount(int)}
+         */
+        public long[] getCounts() {
+            return counts.clone();
+        }
+
+        /**
+         * @return the upper bound of each bucket in milliseconds, indexed like {@link #getUpperBound(int)}
+         */
+        public long[] getUpperBounds() {
+            long[] bounds = new long[counts.length];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = getUpperBound(i);
+            }
+            return bounds;
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            return total;
+        }
+
+        /**
+         * @return the sum of the recorded values in milliseconds
+         */
+        public long getSum() {
+            return sum;
+        }
+    }
+}
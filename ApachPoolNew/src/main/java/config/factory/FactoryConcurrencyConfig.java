@@ -0,0 +1,81 @@
+package config.factory;
+
+import enums.FactoryOperation;
+
+/**
+ * 工厂并发限制的配置：每种生命周期操作可以单独限制同时执行的调用数和等待时间
+ */
+public class FactoryConcurrencyConfig implements Cloneable {
+
+    public static final int UNLIMITED = -1;
+
+    /**
+     * 每种操作最多同时执行的调用数，按{@link FactoryOperation#ordinal()}索引，负数表示不限制
+     */
+    private int[] maxConcurrent = new int[FactoryOperation.values().length];
+
+    /**
+     * 每种操作等待执行许可的最长时间（毫秒），负数表示一直等待
+     */
+    private long[] maxWaitMillis = new long[FactoryOperation.values().length];
+
+    /**
+     * 等待的调用是否按先来先得的顺序获得许可
+     */
+    private boolean fair = true;
+
+    public FactoryConcurrencyConfig() {
+        for (int i = 0; i < maxConcurrent.length; i++) {
+            maxConcurrent[i] = UNLIMITED;
+            maxWaitMillis[i] = -1L;
+        }
+    }
+
+    public int getMaxConcurrent(FactoryOperation operation) {
+        return maxConcurrent[operation.ordinal()];
+    }
+
+    public void setMaxConcurrent(FactoryOperation operation, int maxConcurrent) {
+        if (maxConcurrent == 0) {
+            throw new IllegalArgumentException("maxConcurrent must not be zero.");
+        }
+        this.maxConcurrent[operation.ordinal()] = maxConcurrent;
+    }
+
+    public long getMaxWaitMillis(FactoryOperation operation) {
+        return maxWaitMillis[operation.ordinal()];
+    }
+
+    public void setMaxWaitMillis(FactoryOperation operation, long maxWaitMillis) {
+        this.maxWaitMillis[operation.ordinal()] = maxWaitMillis;
+    }
+
+    /**
+     * 为所有操作设置相同的等待时间
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        for (int i = 0; i < this.maxWaitMillis.length; i++) {
+            this.maxWaitMillis[i] = maxWaitMillis;
+        }
+    }
+
+    public boolean getFair() {
+        return fair;
+    }
+
+    public void setFair(boolean fair) {
+        this.fair = fair;
+    }
+
+    @Override
+    public FactoryConcurrencyConfig clone() {
+        try {
+            FactoryConcurrencyConfig clone = (FactoryConcurrencyConfig) super.clone();
+            clone.maxConcurrent = maxConcurrent.clone();
+            clone.maxWaitMillis = maxWaitMillis.clone();
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(); // Can't happen
+        }
+    }
+}
@@ -22,6 +22,10 @@ public abstract class BaseObjectPoolConfig implements Cloneable {
     public static final boolean DEFAULT_TEST_WHILE_IDLE = false;
 
     public static final boolean DEFAULT_BLOCK_WHEN_EXHAUSTED = true;
+    public static final int DEFAULT_MAX_WAITERS = -1;
+    public static final boolean DEFAULT_SHED_ON_ESTIMATED_WAIT = false;
+
+    public static final long DEFAULT_EVENT_THRESHOLD_MILLIS = 0L;
 
     public static final boolean DEFAULT_JMX_ENABLE = true;
     public static final String DEFAULT_JMX_NAME_PREFIX = "pool";
@@ -50,6 +54,18 @@ public abstract class BaseObjectPoolConfig implements Cloneable {
 
     private boolean blockWhenExhausted = DEFAULT_BLOCK_WHEN_EXHAUSTED;
 
+    /**
+     * 同时阻塞等待对象的线程数上限，达到后新的借用者直接被拒绝，负数表示不限制
+     */
+    private int maxWaiters = DEFAULT_MAX_WAITERS;
+
+    /**
+     * 已有线程在等待，且按排队人数和最近的服务间隔估算的等待时间超过借用者的最长等待时间时，是否直接拒绝该借用者
+     */
+    private boolean shedOnEstimatedWait = DEFAULT_SHED_ON_ESTIMATED_WAIT;
+
+    private long eventThresholdMillis = DEFAULT_EVENT_THRESHOLD_MILLIS;
+
     private boolean jmxEnabled = DEFAULT_JMX_ENABLE;
     private String jmxNamePrefix = DEFAULT_JMX_NAME_PREFIX;
     private String jmxNameBase = DEFAULT_JMX_NAME_PREFIX;
@@ -158,6 +174,30 @@ public abstract class BaseObjectPoolConfig implements Cloneable {
         this.blockWhenExhausted = blockWhenExhausted;
     }
 
+    public int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    public void setMaxWaiters(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+    }
+
+    public boolean getShedOnEstimatedWait() {
+        return shedOnEstimatedWait;
+    }
+
+    public void setShedOnEstimatedWait(boolean shedOnEstimatedWait) {
+        this.shedOnEstimatedWait = shedOnEstimatedWait;
+    }
+
+    public long getEventThresholdMillis() {
+        return eventThresholdMillis;
+    }
+
+    public void setEventThresholdMillis(long eventThresholdMillis) {
+        this.eventThresholdMillis = eventThresholdMillis;
+    }
+
     public boolean getJmxEnabled() {
         return jmxEnabled;
     }
@@ -182,4 +222,4 @@ public abstract class BaseObjectPoolConfig implements Cloneable {
         this.jmxNameBase = jmxNameBase;
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+package config.pool.impl;
+
+/**
+ * 基本类型数组池的配置：长度分级、线程缓存的弹匣容量以及共享仓库的容量
+ */
+public class ArrayPoolConfig implements Cloneable {
+
+    public static final int DEFAULT_MIN_ARRAY_LENGTH = 16;
+    public static final int DEFAULT_MAX_ARRAY_LENGTH = 1 << 16;
+    public static final int DEFAULT_MAGAZINE_SIZE = 32;
+    public static final int DEFAULT_MAX_MAGAZINE_BYTES = 256 * 1024;
+    public static final int DEFAULT_MAX_DEPOT_MAGAZINES = 16;
+
+    /**
+     * 最小的长度级别，向上取整为2的幂，更短的请求也分配这个长度
+     */
+    private int minArrayLength = DEFAULT_MIN_ARRAY_LENGTH;
+
+    /**
+     * 最大的长度级别，向上取整为2的幂，超过的请求直接分配且不回收
+     */
+    private int maxArrayLength = DEFAULT_MAX_ARRAY_LENGTH;
+
+    /**
+     * 每个线程在每个级别上一个弹匣最多缓存的数组数
+     */
+    private int magazineSize = DEFAULT_MAGAZINE_SIZE;
+
+    /**
+     * 一个弹匣中数组的总字节数上限，长数组的弹匣因此更小，但至少能放一个数组
+     */
+    private int maxMagazineBytes = DEFAULT_MAX_MAGAZINE_BYTES;
+
+    /**
+     * 每个级别的共享仓库最多保留的满弹匣数，超出的弹匣中的数组交给垃圾回收，负数表示不限制
+     */
+    private int maxDepotMagazines = DEFAULT_MAX_DEPOT_MAGAZINES;
+
+    public int getMinArrayLength() {
+        return minArrayLength;
+    }
+
+    public void setMinArrayLength(int minArrayLength) {
+        this.minArrayLength = minArrayLength;
+    }
+
+    public int getMaxArrayLength() {
+        return maxArrayLength;
+    }
+
+    public void setMaxArrayLength(int maxArrayLength) {
+        this.maxArrayLength = maxArrayLength;
+    }
+
+    public int getMagazineSize() {
+        return magazineSize;
+    }
+
+    public void setMagazineSize(int magazineSize) {
+        this.magazineSize = magazineSize;
+    }
+
+    public int getMaxMagazineBytes() {
+        return maxMagazineBytes;
+    }
+
+    public void setMaxMagazineBytes(int maxMagazineBytes) {
+        this.maxMagazineBytes = maxMagazineBytes;
+    }
+
+    public int getMaxDepotMagazines() {
+        return maxDepotMagazines;
+    }
+
+    public void setMaxDepotMagazines(int maxDepotMagazines) {
+        this.maxDepotMagazines = maxDepotMagazines;
+    }
+
+    @Override
+    public ArrayPoolConfig clone() {
+        try {
+            return (ArrayPoolConfig) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(); // Can't happen
+        }
+    }
+}
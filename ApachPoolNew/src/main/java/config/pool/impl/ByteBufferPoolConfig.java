@@ -0,0 +1,117 @@
+package config.pool.impl;
+
+import config.pool.BaseObjectPoolConfig;
+
+/**
+ * 直接内存缓冲区池的配置：大小分级、线程缓存的弹匣容量、整块分配的大小以及堆外内存预算
+ */
+public class ByteBufferPoolConfig implements Cloneable {
+
+    public static final int DEFAULT_MIN_BUFFER_SIZE = 512;
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1 << 20;
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    public static final int DEFAULT_MAGAZINE_SIZE = 32;
+    public static final long DEFAULT_MAX_DIRECT_MEMORY = 64L << 20;
+
+    /**
+     * 最小的大小级别（字节），向上取整为2的幂，更小的请求也分配这个大小
+     */
+    private int minBufferSize = DEFAULT_MIN_BUFFER_SIZE;
+
+    /**
+     * 最大的大小级别（字节），向上取整为2的幂，超过的请求直接分配且不回收
+     */
+    private int maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+
+    /**
+     * 每次向系统申请的整块直接内存大小，向上取整为2的幂，再切分成同一级别的缓冲区
+     */
+    private int slabSize = DEFAULT_SLAB_SIZE;
+
+    /**
+     * 每个线程在每个级别上一个弹匣最多缓存的缓冲区数
+     */
+    private int magazineSize = DEFAULT_MAGAZINE_SIZE;
+
+    /**
+     * 池最多占用的直接内存（字节），负数表示不限制
+     */
+    private long maxDirectMemory = DEFAULT_MAX_DIRECT_MEMORY;
+
+    private boolean jmxEnabled = BaseObjectPoolConfig.DEFAULT_JMX_ENABLE;
+    private String jmxNamePrefix = BaseObjectPoolConfig.DEFAULT_JMX_NAME_PREFIX;
+    private String jmxNameBase = BaseObjectPoolConfig.DEFAULT_JMX_NAME_BASE;
+
+    public int getMinBufferSize() {
+        return minBufferSize;
+    }
+
+    public void setMinBufferSize(int minBufferSize) {
+        this.minBufferSize = minBufferSize;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    public void setMaxBufferSize(int maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    public int getMagazineSize() {
+        return magazineSize;
+    }
+
+    public void setMagazineSize(int magazineSize) {
+        this.magazineSize = magazineSize;
+    }
+
+    public long getMaxDirectMemory() {
+        return maxDirectMemory;
+    }
+
+    public void setMaxDirectMemory(long maxDirectMemory) {
+        this.maxDirectMemory = maxDirectMemory;
+    }
+
+    public boolean getJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    public String getJmxNamePrefix() {
+        return jmxNamePrefix;
+    }
+
+    public void setJmxNamePrefix(String jmxNamePrefix) {
+        this.jmxNamePrefix = jmxNamePrefix;
+    }
+
+    public String getJmxNameBase() {
+        return jmxNameBase;
+    }
+
+    public void setJmxNameBase(String jmxNameBase) {
+        this.jmxNameBase = jmxNameBase;
+    }
+
+    @Override
+    public ByteBufferPoolConfig clone() {
+        try {
+            return (ByteBufferPoolConfig) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(); // Can't happen
+        }
+    }
+}
@@ -12,6 +12,10 @@ public class GenericKeyedObjectPoolConfig extends BaseObjectPoolConfig {
 
     public static final int DEFAULT_MAX_IDLE_PER_KEY = 8;
 
+    public static final boolean DEFAULT_COMPACT_KEYS = false;
+
+    public static final long DEFAULT_MAX_EVICTION_RUN_MILLIS = -1L;
+
     private int minIdlePerKey = DEFAULT_MIN_IDLE_PER_KEY;
 
     private int maxIdlePerKey = DEFAULT_MAX_IDLE_PER_KEY;
@@ -20,6 +24,10 @@ public class GenericKeyedObjectPoolConfig extends BaseObjectPoolConfig {
 
     private int maxTotal = DEFAULT_MAX_TOTAL;
 
+    private boolean compactKeys = DEFAULT_COMPACT_KEYS;
+
+    private long maxEvictionRunMillis = DEFAULT_MAX_EVICTION_RUN_MILLIS;
+
     public GenericKeyedObjectPoolConfig() {
     }
 
@@ -55,6 +63,22 @@ public class GenericKeyedObjectPoolConfig extends BaseObjectPoolConfig {
         this.maxIdlePerKey = maxIdlePerKey;
     }
 
+    public boolean getCompactKeys() {
+        return compactKeys;
+    }
+
+    public void setCompactKeys(boolean compactKeys) {
+        this.compactKeys = compactKeys;
+    }
+
+    public long getMaxEvictionRunMillis() {
+        return maxEvictionRunMillis;
+    }
+
+    public void setMaxEvictionRunMillis(long maxEvictionRunMillis) {
+        this.maxEvictionRunMillis = maxEvictionRunMillis;
+    }
+
     @Override
     public GenericKeyedObjectPoolConfig clone() {
         try {
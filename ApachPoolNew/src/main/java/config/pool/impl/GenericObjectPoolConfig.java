@@ -7,10 +7,16 @@ public class GenericObjectPoolConfig extends BaseObjectPoolConfig {
     public static final int DEFAULT_MAX_TOTAL = 8;
     public static final int DEFAULT_MAX_IDLE = 8;
     public static final int DEFAULT_MIN_IDLE = 0;
+    public static final int DEFAULT_MAX_OVERFLOW = 0;
+    public static final long DEFAULT_OVERFLOW_WAIT_THRESHOLD_MILLIS = 100L;
+    public static final double DEFAULT_MAX_OVERFLOW_CREATES_PER_SECOND = 10d;
 
     private int maxTotal = DEFAULT_MAX_TOTAL;
     private int maxIdle = DEFAULT_MAX_IDLE;
     private int minIdle = DEFAULT_MIN_IDLE;
+    private int maxOverflow = DEFAULT_MAX_OVERFLOW;
+    private long overflowWaitThresholdMillis = DEFAULT_OVERFLOW_WAIT_THRESHOLD_MILLIS;
+    private double maxOverflowCreatesPerSecond = DEFAULT_MAX_OVERFLOW_CREATES_PER_SECOND;
 
     public int getMaxTotal() {
         return maxTotal;
@@ -36,6 +42,30 @@ public class GenericObjectPoolConfig extends BaseObjectPoolConfig {
         this.minIdle = minIdle;
     }
 
+    public int getMaxOverflow() {
+        return maxOverflow;
+    }
+
+    public void setMaxOverflow(int maxOverflow) {
+        this.maxOverflow = maxOverflow;
+    }
+
+    public long getOverflowWaitThresholdMillis() {
+        return overflowWaitThresholdMillis;
+    }
+
+    public void setOverflowWaitThresholdMillis(long overflowWaitThresholdMillis) {
+        this.overflowWaitThresholdMillis = overflowWaitThresholdMillis;
+    }
+
+    public double getMaxOverflowCreatesPerSecond() {
+        return maxOverflowCreatesPerSecond;
+    }
+
+    public void setMaxOverflowCreatesPerSecond(double maxOverflowCreatesPerSecond) {
+        this.maxOverflowCreatesPerSecond = maxOverflowCreatesPerSecond;
+    }
+
     @Override
     public GenericObjectPoolConfig clone() {
         try {
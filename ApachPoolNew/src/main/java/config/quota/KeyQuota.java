@@ -0,0 +1,61 @@
+package config.quota;
+
+/**
+ * 带key的对象池中，单个key的配额。由{@link KeyQuotaResolver}在创建该key的子池时给出。
+ * <font color="red">此类是不可变的，且是线程安全的。</font>
+ */
+public final class KeyQuota {
+
+    /**
+     * 为该key保留的池对象数量：即使整个池已达到maxTotal，该key也总能拥有这么多对象，其他key无法占用这部分容量
+     */
+    private final int minTotal;
+
+    /**
+     * 该key最多拥有的池对象数量（借出、空闲和正在创建的），负数表示不限制
+     */
+    private final int maxTotal;
+
+    /**
+     * 池满时在各key之间分配容量的权重，各key按"对象数/权重"从低到高获得容量
+     */
+    private final int weight;
+
+    public KeyQuota(int minTotal, int maxTotal, int weight) {
+        if (minTotal < 0) {
+            throw new IllegalArgumentException("minTotal must not be negative.");
+        }
+        if (maxTotal > -1 && maxTotal < minTotal) {
+            throw new IllegalArgumentException("maxTotal must not be less than minTotal.");
+        }
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive.");
+        }
+        this.minTotal = minTotal;
+        this.maxTotal = maxTotal;
+        this.weight = weight;
+    }
+
+    public int getMinTotal() {
+        return minTotal;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("KeyQuota");
+        sb.append("{minTotal=").append(minTotal);
+        sb.append(", maxTotal=").append(maxTotal);
+        sb.append(", weight=").append(weight);
+        sb.append('}');
+        return sb.toString();
+    }
+}
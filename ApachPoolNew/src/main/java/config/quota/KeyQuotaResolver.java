@@ -0,0 +1,11 @@
+package config.quota;
+
+public interface KeyQuotaResolver<K> {
+
+    /**
+     * 给出一个key的配额。在该key的子池被创建时调用（第一次使用该key，或子池空闲被回收后再次使用时），因此应当足够快，不要阻塞。
+     * @param key 子池对应的key
+     * @return 该key的配额；返回null表示使用对象池统一的maxTotalPerKey，不保留容量，权重为1
+     */
+    KeyQuota resolve(K key);
+}
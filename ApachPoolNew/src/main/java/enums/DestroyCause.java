@@ -0,0 +1,61 @@
+package enums;
+
+/**
+ * 池对象被销毁的原因
+ */
+public enum DestroyCause {
+    /**
+     * 空闲对象回收器驱逐，包括testWhileIdle时激活、验证、钝化失败
+     */
+    EVICTION,
+
+    /**
+     * 借出或归还时验证失败
+     */
+    VALIDATION,
+
+    /**
+     * 借出时激活失败
+     */
+    ACTIVATION,
+
+    /**
+     * 归还时钝化失败
+     */
+    PASSIVATION,
+
+    /**
+     * 被判定为泄漏(abandoned)而回收
+     */
+    ABANDONED,
+
+    /**
+     * 归还时空闲对象数已达到maxIdle
+     */
+    MAX_IDLE,
+
+    /**
+     * 调用者主动调用invalidateObject废弃
+     */
+    INVALIDATED,
+
+    /**
+     * 调用clear或关闭池时清除
+     */
+    CLEARED,
+
+    /**
+     * 池已达到maxTotal时，为其他key上等待的借用者腾出容量
+     */
+    REBALANCED,
+
+    /**
+     * 转换给兼容key时工厂抛出异常
+     */
+    REKEY,
+
+    /**
+     * 超出maxTotal的临时对象在归还时销毁，不放回池中
+     */
+    OVERFLOW
+}
@@ -0,0 +1,31 @@
+package enums;
+
+/**
+ * 池调用PooledObjectFactory的生命周期操作
+ */
+public enum FactoryOperation {
+    /**
+     * makeObject
+     */
+    MAKE,
+
+    /**
+     * activateObject
+     */
+    ACTIVATE,
+
+    /**
+     * validateObject
+     */
+    VALIDATE,
+
+    /**
+     * passivateObject
+     */
+    PASSIVATE,
+
+    /**
+     * destroyObject
+     */
+    DESTROY
+}
@@ -1,12 +1,25 @@
 package util;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import util.Synchronize.ConcurrencyLimitedKeyedPooledObjectFactory;
+import util.Synchronize.ConcurrencyLimitedPooledObjectFactory;
+import util.Synchronize.ShardedKeyedObjectPool;
+import util.Synchronize.ShardedObjectPool;
 import util.Synchronize.SynchronizedKeyedObjectPool;
 import util.Synchronize.SynchronizedKeyedPooledObjectFactory;
 import util.Synchronize.SynchronizedObjectPool;
@@ -14,12 +27,15 @@ import util.Synchronize.SynchronizedPooledObjectFactory;
 import util.erode.ErodingKeyedObjectPool;
 import util.erode.ErodingObjectPool;
 import util.erode.ErodingPerKeyKeyedObjectPool;
+import util.task.KeyedObjectPoolMinIdleSweeper;
 import util.task.KeyedObjectPoolMinIdleTimerTask;
 import util.task.ObjectPoolMinIdleTimerTask;
+import bean.assist.RateLimiter;
 import bean.inter.factory.KeyedPooledObjectFactory;
 import bean.inter.factory.PooledObjectFactory;
 import bean.inter.pool.KeyedObjectPool;
 import bean.inter.pool.ObjectPool;
+import config.factory.FactoryConcurrencyConfig;
 
 public final class PoolUtils {
 
@@ -93,6 +109,21 @@ public final class PoolUtils {
         return tasks;
     }
 
+    /**
+     * 用一个定时任务批量维护多个key的最小空闲数，代替每个key一个TimerTask；缺口由executor上最多parallelism个线程并行补齐，
+     * maxAddsPerSecond大于0时限制所有线程合计的addObject速率。executor为null时在定时器线程中补齐
+     */
+    public static <K, V> TimerTask checkMinIdle(final KeyedObjectPool<K, V> keyedPool, final Collection<K> keys, final int minIdle, final long period,
+            final Executor executor, final int parallelism, final double maxAddsPerSecond) throws IllegalArgumentException {
+        if (minIdle < 0) {
+            throw new IllegalArgumentException("minIdle must be non-negative.");
+        }
+        final RateLimiter rateLimiter = maxAddsPerSecond > 0d ? new RateLimiter(maxAddsPerSecond) : null;
+        final TimerTask task = new KeyedObjectPoolMinIdleSweeper<K, V>(keyedPool, keys, minIdle, executor, parallelism, rateLimiter);
+        getMinIdleTimer().schedule(task, 0L, period);
+        return task;
+    }
+
     public static <T> void prefill(final ObjectPool<T> pool, final int count) throws Exception, IllegalArgumentException {
         if (pool == null) {
             throw new IllegalArgumentException("pool must not be null.");
@@ -125,6 +156,139 @@ public final class PoolUtils {
         }
     }
 
+    /**
+     * 并行预填充：最多concurrency个addObject同时执行，单个makeObject失败不影响其余对象；timeoutMillis大于0时为总期限，
+     * 期限到达后不再开始新的addObject并立即返回报告。executor为null时为本次预填充临时创建守护线程
+     */
+    public static <T> PrefillReport prefill(final ObjectPool<T> pool, final int count, final Executor executor, final int concurrency,
+            final long timeoutMillis) throws IllegalArgumentException {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool must not be null.");
+        }
+        return prefill(new PrefillTask(count) {
+            @Override
+            void add(int i) throws Exception {
+                pool.addObject();
+            }
+        }, executor, concurrency, timeoutMillis);
+    }
+
+    /**
+     * 按key并行预填充，每个key添加count个对象，规则同{@link #prefill(ObjectPool, int, Executor, int, long)}
+     */
+    public static <K, V> PrefillReport prefill(final KeyedObjectPool<K, V> keyedPool, final Collection<K> keys, final int count, final Executor executor,
+            final int concurrency, final long timeoutMillis) throws IllegalArgumentException {
+        if (keyedPool == null) {
+            throw new IllegalArgumentException("keyedPool must not be null.");
+        }
+        if (keys == null) {
+            throw new IllegalArgumentException("keys must not be null.");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be non-negative.");
+        }
+        final List<K> keyList = new ArrayList<K>(keys);
+        // Keys are interleaved so that every key warms up at the same pace
+        return prefill(new PrefillTask(keyList.size() * count) {
+            @Override
+            void add(int i) throws Exception {
+                keyedPool.addObject(keyList.get(i % keyList.size()));
+            }
+        }, executor, concurrency, timeoutMillis);
+    }
+
+    private static PrefillReport prefill(final PrefillTask task, final Executor executor, final int concurrency, final long timeoutMillis) {
+        if (task.count < 0) {
+            throw new IllegalArgumentException("count must be non-negative.");
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive.");
+        }
+        final long start = System.nanoTime();
+        final long deadline = timeoutMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0L;
+        int workers = Math.min(concurrency, task.count);
+        final CountDownLatch done = new CountDownLatch(workers);
+        int rejected = 0;
+        for (int w = 0; w < workers; w++) {
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(deadline);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            if (executor == null) {
+                Thread t = new Thread(worker, "pool-prefill-" + w);
+                t.setDaemon(true);
+                t.start();
+            } else {
+                try {
+                    executor.execute(worker);
+                } catch (RejectedExecutionException e) {
+                    if (++rejected == workers) {
+                        throw e;
+                    }
+                    done.countDown();
+                }
+            }
+        }
+        try {
+            if (deadline == 0L) {
+                done.await();
+            } else {
+                done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Workers that have not started an addObject yet stop here
+            task.stopped = true;
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new PrefillReport(task.count, task.succeeded.get(), task.failed.get(), elapsed, task.firstFailure.get());
+    }
+
+    /**
+     * 预填充的工作单元，多个工作线程从共享的序号中领取要添加的对象
+     */
+    private abstract static class PrefillTask {
+        final int count;
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger succeeded = new AtomicInteger(0);
+        final AtomicInteger failed = new AtomicInteger(0);
+        final AtomicReference<Exception> firstFailure = new AtomicReference<Exception>();
+        volatile boolean stopped = false;
+
+        PrefillTask(int count) {
+            this.count = count;
+        }
+
+        abstract void add(int i) throws Exception;
+
+        void run(long deadline) {
+            while (!stopped && (deadline == 0L || System.nanoTime() - deadline < 0)) {
+                int i = next.getAndIncrement();
+                if (i >= count) {
+                    return;
+                }
+                try {
+                    add(i);
+                    succeeded.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    firstFailure.compareAndSet(null, e);
+                } catch (Throwable t) {
+                    checkRethrow(t);
+                    failed.incrementAndGet();
+                    firstFailure.compareAndSet(null, new Exception(t));
+                }
+            }
+        }
+    }
+
     public static <T> ObjectPool<T> synchronizedPool(final ObjectPool<T> pool) {
         if (pool == null) {
             throw new IllegalArgumentException("pool must not be null.");
@@ -146,6 +310,42 @@ public final class PoolUtils {
         return new SynchronizedKeyedObjectPool<K, V>(keyedPool);
     }
 
+    /**
+     * 分片池：创建shards个互相独立的底层池(每次调用poolSupplier创建一个)，每个分片一把锁，线程按线程id分到不同分片，
+     * 本分片没有空闲对象时从其他分片窃取。适用于本身非线程安全的池，吞吐量随线程数扩展，代替synchronizedPool
+     */
+    public static <T> ObjectPool<T> shardedPool(final Callable<? extends ObjectPool<T>> poolSupplier, final int shards) throws Exception {
+        if (poolSupplier == null) {
+            throw new IllegalArgumentException("poolSupplier must not be null.");
+        }
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive.");
+        }
+        final List<ObjectPool<T>> pools = new ArrayList<ObjectPool<T>>(shards);
+        for (int i = 0; i < shards; i++) {
+            pools.add(poolSupplier.call());
+        }
+        return new ShardedObjectPool<T>(pools);
+    }
+
+    /**
+     * 键池的分片池，规则同{@link #shardedPool(Callable, int)}
+     */
+    public static <K, V> KeyedObjectPool<K, V> shardedKeyedPool(final Callable<? extends KeyedObjectPool<K, V>> poolSupplier, final int shards)
+            throws Exception {
+        if (poolSupplier == null) {
+            throw new IllegalArgumentException("poolSupplier must not be null.");
+        }
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive.");
+        }
+        final List<KeyedObjectPool<K, V>> pools = new ArrayList<KeyedObjectPool<K, V>>(shards);
+        for (int i = 0; i < shards; i++) {
+            pools.add(poolSupplier.call());
+        }
+        return new ShardedKeyedObjectPool<K, V>(pools);
+    }
+
     public static <T> PooledObjectFactory<T> synchronizedPooledFactory(final PooledObjectFactory<T> factory) {
         return new SynchronizedPooledObjectFactory<T>(factory);
     }
@@ -154,6 +354,18 @@ public final class PoolUtils {
         return new SynchronizedKeyedPooledObjectFactory<K, V>(keyedFactory);
     }
 
+    /**
+     * 按生命周期操作分别限制并发的工厂，代替所有操作共用一把锁的synchronizedPooledFactory
+     */
+    public static <T> PooledObjectFactory<T> concurrencyLimitedPooledFactory(final PooledObjectFactory<T> factory, final FactoryConcurrencyConfig config) {
+        return new ConcurrencyLimitedPooledObjectFactory<T>(factory, config);
+    }
+
+    public static <K, V> KeyedPooledObjectFactory<K, V> concurrencyLimitedKeyedPooledFactory(final KeyedPooledObjectFactory<K, V> keyedFactory,
+            final FactoryConcurrencyConfig config) {
+        return new ConcurrencyLimitedKeyedPooledObjectFactory<K, V>(keyedFactory, config);
+    }
+
     public static <T> ObjectPool<T> erodingPool(final ObjectPool<T> pool) {
         return erodingPool(pool, 1f);
     }
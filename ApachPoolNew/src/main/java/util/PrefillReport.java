@@ -0,0 +1,80 @@
+package util;
+
+/**
+ * The outcome of a parallel prefill started with {@link PoolUtils#prefill(bean.inter.pool.ObjectPool, int, java.util.concurrent.Executor, int, long)} or
+ * one of its keyed variants.
+ * <p>
+ * Every requested {@code addObject} call is counted once: as succeeded, as failed, or as not completed if the deadline passed before it was started or
+ * before it returned. Calls still running at the deadline carry on in the background and may add their object to the pool after the report was made.
+ */
+public final class PrefillReport {
+
+    private final int requested;
+
+    private final int succeeded;
+
+    private final int failed;
+
+    private final long elapsedMillis;
+
+    private final Exception firstFailure;
+
+    PrefillReport(int requested, int succeeded, int failed, long elapsedMillis, Exception firstFailure) {
+        this.requested = requested;
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.elapsedMillis = elapsedMillis;
+        this.firstFailure = firstFailure;
+    }
+
+    public int getRequested() {
+        return requested;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return the number of calls that had not returned when the deadline passed
+     */
+    public int getNotCompleted() {
+        return requested - succeeded - failed;
+    }
+
+    /**
+     * @return true if the deadline passed before every call returned
+     */
+    public boolean isTimedOut() {
+        return getNotCompleted() > 0;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the exception thrown by the first call that failed, or null if none failed
+     */
+    public Exception getFirstFailure() {
+        return firstFailure;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PrefillReport");
+        sb.append("{requested=").append(requested);
+        sb.append(", succeeded=").append(succeeded);
+        sb.append(", failed=").append(failed);
+        sb.append(", notCompleted=").append(getNotCompleted());
+        sb.append(", elapsedMillis=").append(elapsedMillis);
+        sb.append(", firstFailure=").append(firstFailure);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,145 @@
+package util.Synchronize;
+
+import java.util.concurrent.TimeoutException;
+
+import bean.inter.PooledObject;
+import bean.inter.factory.PooledObjectFactory;
+import config.factory.FactoryConcurrencyConfig;
+import enums.FactoryOperation;
+
+/**
+ * A factory decorator that limits how many calls of each lifecycle operation run at the same time, as configured by a {@link FactoryConcurrencyConfig}.
+ * Unlike {@link SynchronizedPooledObjectFactory}, which runs every call under one lock, a slow {@code makeObject} only holds up other makes, and operations without a limit
+ * are not held up at all.
+ * <p>
+ * A call that cannot get a permit within the operation's maximum wait fails with a {@link TimeoutException}; {@code validateObject}, which cannot
+ * throw, reports the object as invalid instead.
+ */
+public class ConcurrencyLimitedPooledObjectFactory<T> implements PooledObjectFactory<T> {
+
+    private final PooledObjectFactory<T> factory;
+
+    private final OperationLimiter limiter;
+
+    public ConcurrencyLimitedPooledObjectFactory(final PooledObjectFactory<T> factory, final FactoryConcurrencyConfig config) throws IllegalArgumentException {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null.");
+        }
+        this.factory = factory;
+        this.limiter = new OperationLimiter(config);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PooledObject<T> makeObject() throws Exception {
+        boolean limited = limiter.acquire(FactoryOperation.MAKE);
+        try {
+            return factory.makeObject();
+        } finally {
+            if (limited) {
+                limiter.release(FactoryOperation.MAKE);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroyObject(final PooledObject<T> p) throws Exception {
+        boolean limited = limiter.acquire(FactoryOperation.DESTROY);
+        try {
+            factory.destroyObject(p);
+        } finally {
+            if (limited) {
+                limiter.release(FactoryOperation.DESTROY);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void activateObject(final PooledObject<T> p) throws Exception {
+        boolean limited = limiter.acquire(FactoryOperation.ACTIVATE);
+        try {
+            factory.activateObject(p);
+        } finally {
+            if (limited) {
+                limiter.release(FactoryOperation.ACTIVATE);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void passivateObject(final PooledObject<T> p) throws Exception {
+        boolean limited = limiter.acquire(FactoryOperation.PASSIVATE);
+        try {
+            factory.passivateObject(p);
+        } finally {
+            if (limited) {
+                limiter.release(FactoryOperation.PASSIVATE);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If no permit becomes available within the maximum wait, or the thread is interrupted while waiting, the object is reported as invalid.
+     */
+    @Override
+    public boolean validateObject(final PooledObject<T> p) {
+        int permit = limiter.tryAcquire(FactoryOperation.VALIDATE);
+        if (permit < 0) {
+            return false;
+        }
+        try {
+            return factory.validateObject(p);
+        } finally {
+            if (permit > 0) {
+                limiter.release(FactoryOperation.VALIDATE);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of permits currently available for an operation.
+     *
+     * @param operation
+     *            the lifecycle operation
+     * @return the number of available permits, or -1 if the operation is not limited
+     */
+    public int getAvailablePermits(final FactoryOperation operation) {
+        return limiter.getAvailablePermits(operation);
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting for a permit for an operation.
+     *
+     * @param operation
+     *            the lifecycle operation
+     * @return the estimated number of waiting threads
+     */
+    public int getQueueLength(final FactoryOperation operation) {
+        return limiter.getQueueLength(operation);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ConcurrencyLimitedPooledObjectFactory");
+        sb.append("{factory=").append(factory);
+        sb.append('}');
+        return sb.toString();
+    }
+}
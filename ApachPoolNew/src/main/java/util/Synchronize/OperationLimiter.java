@@ -0,0 +1,87 @@
+package util.Synchronize;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import config.factory.FactoryConcurrencyConfig;
+import enums.FactoryOperation;
+
+/**
+ * The semaphores of the concurrency limited factory decorators, one per limited lifecycle operation.
+ */
+final class OperationLimiter {
+
+    private final Semaphore[] permits;
+
+    private final long[] maxWaitMillis;
+
+    OperationLimiter(FactoryConcurrencyConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null.");
+        }
+        FactoryOperation[] operations = FactoryOperation.values();
+        permits = new Semaphore[operations.length];
+        maxWaitMillis = new long[operations.length];
+        for (FactoryOperation operation : operations) {
+            int max = config.getMaxConcurrent(operation);
+            if (max > 0) {
+                permits[operation.ordinal()] = new Semaphore(max, config.getFair());
+            }
+            maxWaitMillis[operation.ordinal()] = config.getMaxWaitMillis(operation);
+        }
+    }
+
+    /**
+     * Waits for a permit for the operation.
+     *
+     * @return true if a permit was taken and must be released, false if the operation is not limited
+     * @throws TimeoutException
+     *             if no permit became available within the operation's maximum wait
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting
+     */
+    boolean acquire(FactoryOperation operation) throws TimeoutException, InterruptedException {
+        Semaphore semaphore = permits[operation.ordinal()];
+        if (semaphore == null) {
+            return false;
+        }
+        long wait = maxWaitMillis[operation.ordinal()];
+        if (wait < 0) {
+            semaphore.acquire();
+        } else if (!semaphore.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Timeout waiting for a permit to " + operation);
+        }
+        return true;
+    }
+
+    /**
+     * Like {@link #acquire(FactoryOperation)} for operations that cannot throw.
+     *
+     * @return 1 if a permit was taken, 0 if the operation is not limited, -1 if no permit could be taken in time
+     */
+    int tryAcquire(FactoryOperation operation) {
+        try {
+            return acquire(operation) ? 1 : 0;
+        } catch (TimeoutException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    void release(FactoryOperation operation) {
+        permits[operation.ordinal()].release();
+    }
+
+    int getAvailablePermits(FactoryOperation operation) {
+        Semaphore semaphore = permits[operation.ordinal()];
+        return semaphore == null ? -1 : semaphore.availablePermits();
+    }
+
+    int getQueueLength(FactoryOperation operation) {
+        Semaphore semaphore = permits[operation.ordinal()];
+        return semaphore == null ? 0 : semaphore.getQueueLength();
+    }
+}
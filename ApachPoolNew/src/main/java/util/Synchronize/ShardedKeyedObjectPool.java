@@ -0,0 +1,339 @@
+package util.Synchronize;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bean.assist.IdentityWrapper;
+import bean.inter.pool.KeyedObjectPool;
+
+/**
+ * A thread-safe keyed pool built from several independent instances ("shards") of a keyed pool that is not thread-safe itself. Each shard is guarded by
+ * its own mutex, so threads that use different shards do not contend, unlike {@link SynchronizedKeyedObjectPool} which serializes every call on one lock.
+ * <p>
+ * A thread borrows from its home shard, picked from its thread id, and if that shard has no idle object under the key it steals one from any other
+ * shard that has one and is not locked at the moment; only if none is found does it create a new object in its home shard. If the home shard is at
+ * its own limit, the thread borrows from the other shards in turn, those not locked first, so the capacity of the shards is not split up by thread
+ * id. Objects are always returned to the shard they were borrowed from. As with {@link SynchronizedKeyedObjectPool}, a shard that blocks in {@code
+ * borrowObject} holds its lock while it waits, so the shards should be configured not to block.
+ */
+public class ShardedKeyedObjectPool<K, V> implements KeyedObjectPool<K, V> {
+
+    private final Shard<K, V>[] shards;
+
+    /** The shard each borrowed object came from */
+    private final ConcurrentHashMap<IdentityWrapper<V>, Shard<K, V>> owners = new ConcurrentHashMap<IdentityWrapper<V>, Shard<K, V>>();
+
+    private final AtomicInteger nextAdd = new AtomicInteger(0);
+
+    @SuppressWarnings("unchecked")
+    public ShardedKeyedObjectPool(final Collection<? extends KeyedObjectPool<K, V>> pools) throws IllegalArgumentException {
+        if (pools == null || pools.isEmpty()) {
+            throw new IllegalArgumentException("pools must not be empty.");
+        }
+        List<Shard<K, V>> list = new ArrayList<Shard<K, V>>(pools.size());
+        for (KeyedObjectPool<K, V> pool : pools) {
+            if (pool == null) {
+                throw new IllegalArgumentException("pools must not contain null.");
+            }
+            list.add(new Shard<K, V>(pool));
+        }
+        @SuppressWarnings("unchecked")
+        Shard<K, V>[] array = (Shard<K, V>[]) new Shard<?, ?>[list.size()];
+        this.shards = list.toArray(array);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V borrowObject(final K key) throws Exception, NoSuchElementException, IllegalStateException {
+        int home = ShardedObjectPool.homeShard(shards.length);
+        Shard<K, V> shard = shards[home];
+        V obj = null;
+        shard.lock.lock();
+        try {
+            if (shard.pool.getNumIdle(key) > 0) {
+                obj = shard.pool.borrowObject(key);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        if (obj == null) {
+            // Steal an idle object before creating one
+            for (int i = 1; i < shards.length && obj == null; i++) {
+                Shard<K, V> victim = shards[(home + i) % shards.length];
+                if (!victim.lock.tryLock()) {
+                    continue;
+                }
+                try {
+                    if (victim.pool.getNumIdle(key) > 0) {
+                        obj = victim.pool.borrowObject(key);
+                        shard = victim;
+                    }
+                } finally {
+                    victim.lock.unlock();
+                }
+            }
+        }
+        if (obj == null) {
+            // Create in the home shard or, if it is at its own limit, in
+            // another shard, so that the shards share their capacity
+            shard = shards[home];
+            shard.lock.lock();
+            try {
+                obj = borrowOrNull(shard, key);
+            } finally {
+                shard.lock.unlock();
+            }
+            boolean[] busy = null;
+            for (int i = 1; i < shards.length && obj == null; i++) {
+                int index = (home + i) % shards.length;
+                Shard<K, V> other = shards[index];
+                if (!other.lock.tryLock()) {
+                    if (busy == null) {
+                        busy = new boolean[shards.length];
+                    }
+                    busy[index] = true;
+                    continue;
+                }
+                try {
+                    obj = borrowOrNull(other, key);
+                    shard = other;
+                } finally {
+                    other.lock.unlock();
+                }
+            }
+            // Then wait for the shards that were locked
+            for (int i = 1; busy != null && i < shards.length && obj == null; i++) {
+                int index = (home + i) % shards.length;
+                if (!busy[index]) {
+                    continue;
+                }
+                Shard<K, V> other = shards[index];
+                other.lock.lock();
+                try {
+                    obj = borrowOrNull(other, key);
+                    shard = other;
+                } finally {
+                    other.lock.unlock();
+                }
+            }
+            if (obj == null) {
+                throw new NoSuchElementException("Pool exhausted in all shards");
+            }
+        }
+        owners.put(new IdentityWrapper<V>(obj), shard);
+        return obj;
+    }
+
+    /**
+     * Borrows from a shard, creating an object if it has no idle one under the key. The caller must hold the shard's lock.
+     *
+     * @return the object, or null if the shard is at its own limit
+     */
+    private static <K, V> V borrowOrNull(Shard<K, V> shard, K key) throws Exception {
+        try {
+            return shard.pool.borrowObject(key);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void returnObject(final K key, final V obj) {
+        Shard<K, V> shard = owners.remove(new IdentityWrapper<V>(obj));
+        if (shard == null) {
+            throw new IllegalStateException("Returned object not currently part of this pool");
+        }
+        shard.lock.lock();
+        try {
+            shard.pool.returnObject(key, obj);
+        } catch (Exception e) {
+            // swallowed as of Pool 2
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidateObject(final K key, final V obj) {
+        Shard<K, V> shard = owners.remove(new IdentityWrapper<V>(obj));
+        if (shard == null) {
+            throw new IllegalStateException("Invalidated object not currently part of this pool");
+        }
+        shard.lock.lock();
+        try {
+            shard.pool.invalidateObject(key, obj);
+        } catch (Exception e) {
+            // swallowed as of Pool 2
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an object under the key to the shards in turn, so that prefilling spreads the objects evenly.
+     */
+    @Override
+    public void addObject(final K key) throws Exception, IllegalStateException, UnsupportedOperationException {
+        Shard<K, V> shard = shards[(nextAdd.getAndIncrement() & Integer.MAX_VALUE) % shards.length];
+        shard.lock.lock();
+        try {
+            shard.pool.addObject(key);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumIdle(final K key) {
+        int result = 0;
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                result += shard.pool.getNumIdle(key);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumActive(final K key) {
+        int result = 0;
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                result += shard.pool.getNumActive(key);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumIdle() {
+        int result = 0;
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                result += shard.pool.getNumIdle();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumActive() {
+        int result = 0;
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                result += shard.pool.getNumActive();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() throws Exception, UnsupportedOperationException {
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.pool.clear();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear(final K key) throws Exception, UnsupportedOperationException {
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.pool.clear(key);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        for (Shard<K, V> shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.pool.close();
+            } catch (Exception e) {
+                // swallowed as of Pool 2
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ShardedKeyedObjectPool");
+        sb.append("{shards=").append(shards.length);
+        sb.append(", pool=").append(shards[0].pool);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static final class Shard<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final KeyedObjectPool<K, V> pool;
+
+        Shard(KeyedObjectPool<K, V> pool) {
+            this.pool = pool;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package util.Synchronize;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bean.assist.IdentityWrapper;
+import bean.inter.pool.ObjectPool;
+
+/**
+ * A thread-safe pool built from several independent instances ("shards") of a pool that is not thread-safe itself. Each shard is guarded by its own mutex,
+ * so threads that use different shards do not contend, unlike {@link SynchronizedObjectPool} which serializes every call on one lock.
+ * <p>
+ * A thread borrows from its home shard, picked from its thread id, and if that shard has no idle object it steals one from any other shard that has
+ * one and is not locked at the moment; only if none is found does it create a new object in its home shard. If the home shard is at its own limit,
+ * the thread borrows from the other shards in turn, those not locked first, so the capacity of the shards is not split up by thread id. Objects are
+ * always returned to the shard they were borrowed from. As with {@link SynchronizedObjectPool}, a shard that blocks in {@code borrowObject} holds its
+ * lock while it waits, so the shards should be configured not to block.
+ */
+public class ShardedObjectPool<T> implements ObjectPool<T> {
+
+    private final Shard<T>[] shards;
+
+    /** The shard each borrowed object came from */
+    private final ConcurrentHashMap<IdentityWrapper<T>, Shard<T>> owners = new ConcurrentHashMap<IdentityWrapper<T>, Shard<T>>();
+
+    private final AtomicInteger nextAdd = new AtomicInteger(0);
+
+    @SuppressWarnings("unchecked")
+    public ShardedObjectPool(final Collection<? extends ObjectPool<T>> pools) throws IllegalArgumentException {
+        if (pools == null || pools.isEmpty()) {
+            throw new IllegalArgumentException("pools must not be empty.");
+        }
+        List<Shard<T>> list = new ArrayList<Shard<T>>(pools.size());
+        for (ObjectPool<T> pool : pools) {
+            if (pool == null) {
+                throw new IllegalArgumentException("pools must not contain null.");
+            }
+            list.add(new Shard<T>(pool));
+        }
+        @SuppressWarnings("unchecked")
+        Shard<T>[] array = (Shard<T>[]) new Shard<?>[list.size()];
+        this.shards = list.toArray(array);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T borrowObject() throws Exception, NoSuchElementException, IllegalStateException {
+        int home = homeShard(shards.length);
+        Shard<T> shard = shards[home];
+        T obj = null;
+        shard.lock.lock();
+        try {
+            if (shard.pool.getNumIdle() > 0) {
+                obj = shard.pool.borrowObject();
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        if (obj == null) {
+            // Steal an idle object before creating one
+            for (int i = 1; i < shards.length && obj == null; i++) {
+                Shard<T> victim = shards[(home + i) % shards.length];
+                if (!victim.lock.tryLock()) {
+                    continue;
+                }
+                try {
+                    if (victim.pool.getNumIdle() > 0) {
+                        obj = victim.pool.borrowObject();
+                        shard = victim;
+                    }
+                } finally {
+                    victim.lock.unlock();
+                }
+            }
+        }
+        if (obj == null) {
+            // Create in the home shard or, if it is at its own limit, in
+            // another shard, so that the shards share their capacity
+            shard = shards[home];
+            shard.lock.lock();
+            try {
+                obj = borrowOrNull(shard);
+            } finally {
+                shard.lock.unlock();
+            }
+            boolean[] busy = null;
+            for (int i = 1; i < shards.length && obj == null; i++) {
+                int index = (home + i) % shards.length;
+                Shard<T> other = shards[index];
+                if (!other.lock.tryLock()) {
+                    if (busy == null) {
+                        busy = new boolean[shards.length];
+                    }
+                    busy[index] = true;
+                    continue;
+                }
+                try {
+                    obj = borrowOrNull(other);
+                    shard = other;
+                } finally {
+                    other.lock.unlock();
+                }
+            }
+            // Then wait for the shards that were locked
+            for (int i = 1; busy != null && i < shards.length && obj == null; i++) {
+                int index = (home + i) % shards.length;
+                if (!busy[index]) {
+                    continue;
+                }
+                Shard<T> other = shards[index];
+                other.lock.lock();
+                try {
+                    obj = borrowOrNull(other);
+                    shard = other;
+                } finally {
+                    other.lock.unlock();
+                }
+            }
+            if (obj == null) {
+                throw new NoSuchElementException("Pool exhausted in all shards");
+            }
+        }
+        owners.put(new IdentityWrapper<T>(obj), shard);
+        return obj;
+    }
+
+    /**
+     * Borrows from a shard, creating an object if it has no idle one. The caller must hold the shard's lock.
+     *
+     * @return the object, or null if the shard is at its own limit
+     */
+    private static <T> T borrowOrNull(Shard<T> shard) throws Exception {
+        try {
+            return shard.pool.borrowObject();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void returnObject(final T obj) {
+        Shard<T> shard = owners.remove(new IdentityWrapper<T>(obj));
+        if (shard == null) {
+            throw new IllegalStateException("Returned object not currently part of this pool");
+        }
+        shard.lock.lock();
+        try {
+            shard.pool.returnObject(obj);
+        } catch (Exception e) {
+            // swallowed as of Pool 2
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidateObject(final T obj) {
+        Shard<T> shard = owners.remove(new IdentityWrapper<T>(obj));
+        if (shard == null) {
+            throw new IllegalStateException("Invalidated object not currently part of this pool");
+        }
+        shard.lock.lock();
+        try {
+            shard.pool.invalidateObject(obj);
+        } catch (Exception e) {
+            // swallowed as of Pool 2
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an object to the shards in turn, so that prefilling spreads the objects evenly.
+     */
+    @Override
+    public void addObject() throws Exception, IllegalStateException, UnsupportedOperationException {
+        Shard<T> shard = shards[(nextAdd.getAndIncrement() & Integer.MAX_VALUE) % shards.length];
+        shard.lock.lock();
+        try {
+            shard.pool.addObject();
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumIdle() {
+        int result = 0;
+        for (Shard<T> shard : shards) {
+            shard.lock.lock();
+            try {
+                result += shard.pool.getNumIdle();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumActive() {
+        int result = 0;
+        for (Shard<T> shard : shards) {
+            shard.lock.lock();
+            try {
+                result += shard.pool.getNumActive();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() throws Exception, UnsupportedOperationException {
+        for (Shard<T> shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.pool.clear();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        for (Shard<T> shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.pool.close();
+            } catch (Exception e) {
+                // swallowed as of Pool 2
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * Picks the home shard of the calling thread. Thread ids are handed out sequentially, so they are mixed before taking the remainder.
+     */
+    static int homeShard(int numShards) {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % numShards;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ShardedObjectPool");
+        sb.append("{shards=").append(shards.length);
+        sb.append(", pool=").append(shards[0].pool);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static final class Shard<T> {
+        final ReentrantLock lock = new ReentrantLock();
+        final ObjectPool<T> pool;
+
+        Shard(ObjectPool<T> pool) {
+            this.pool = pool;
+        }
+    }
+}
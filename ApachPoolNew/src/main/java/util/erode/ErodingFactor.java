@@ -1,20 +1,31 @@
 package util.erode;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 /**
  * Encapsulate the logic for when the next poolable object should be discarded. Each time update is called, the next time to shrink is recomputed, based on the
  * float factor, number of idle instances in the pool and high water mark. Float factor is assumed to be between 0 and 1. Values closer to 1 cause less frequent
  * erosion events. Erosion event timing also depends on numIdle. When this value is relatively high (close to previously established high water mark), erosion
  * occurs more frequently.
+ * <p>
+ * The high water mark follows recent demand rather than the all-time peak: it halves every {@link #HIGH_WATER_MARK_HALF_LIFE_MILLIS} that numIdle stays
+ * below it, so a single burst does not slow erosion down for the rest of the pool's life.
+ * <p>
+ * The state is updated without locks. The shrink time and the high water mark are kept together in an immutable {@link State} that is replaced by a single
+ * compare-and-set, so {@link #tryUpdate(long, int)} lets exactly one of the threads that see an expired shrink time publish the new state.
  */
 public class ErodingFactor {
+    private static final AtomicReferenceFieldUpdater<ErodingFactor, State> STATE = AtomicReferenceFieldUpdater.newUpdater(ErodingFactor.class, State.class,
+            "state");
+
+    /** Time for the high water mark to decay by half, the longest interval between erosion events */
+    public static final long HIGH_WATER_MARK_HALF_LIFE_MILLIS = 15 * 60 * 1000L;
+
     /** Determines frequency of "erosion" events */
     private final float factor;
 
-    /** Time of next shrink event */
-    private transient volatile long nextShrink;
-
-    /** High water mark - largest numIdle encountered */
-    private transient volatile int idleHighWaterMark;
+    /** Time of next shrink event, high water mark and time of its last update */
+    private transient volatile State state;
 
     /**
      * Create a new ErodingFactor with the given erosion factor.
@@ -24,13 +35,8 @@ public class ErodingFactor {
      */
     public ErodingFactor(final float factor) {
         this.factor = factor;
-        nextShrink = System.currentTimeMillis() + (long) (900000 * factor); // now
-                                                                            // +
-                                                                            // 15
-                                                                            // min
-                                                                            // *
-                                                                            // factor
-        idleHighWaterMark = 1;
+        final long now = System.currentTimeMillis();
+        state = new State(now + (long) (900000 * factor), 1, now); // now + 15 min * factor
     }
 
     /**
@@ -42,11 +48,39 @@ public class ErodingFactor {
      *            number of idle elements in the pool
      */
     public void update(final long now, final int numIdle) {
+        State current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, computeNext(current, now, numIdle)));
+    }
+
+    /**
+     * Claims the current erosion event and updates the internal state, if the time of the next shrink has passed and no other thread has claimed it yet.
+     * 
+     * @param now
+     *            current time
+     * @param numIdle
+     *            number of idle elements in the pool
+     * @return true if the calling thread claimed the erosion event
+     */
+    public boolean tryUpdate(final long now, final int numIdle) {
+        final State current = state;
+        if (current.nextShrink >= now) {
+            return false;
+        }
+        // Losing threads discard the state they computed; only the winner
+        // publishes its decayed high water mark
+        return STATE.compareAndSet(this, current, computeNext(current, now, numIdle));
+    }
+
+    private State computeNext(final State current, final long now, final int numIdle) {
         final int idle = Math.max(0, numIdle);
-        idleHighWaterMark = Math.max(idle, idleHighWaterMark);
+        final long elapsed = Math.max(0L, now - current.lastUpdate);
+        final float decayed = (float) (current.idleHighWaterMark * Math.pow(0.5d, (double) elapsed / HIGH_WATER_MARK_HALF_LIFE_MILLIS));
+        final float highWaterMark = Math.max(1f, Math.max(idle, decayed));
         final float maxInterval = 15f;
-        final float minutes = maxInterval + ((1f - maxInterval) / idleHighWaterMark) * idle;
-        nextShrink = now + (long) (minutes * 60000f * factor);
+        final float minutes = maxInterval + ((1f - maxInterval) / highWaterMark) * idle;
+        return new State(now + (long) (minutes * 60000f * factor), highWaterMark, now);
     }
 
     /**
@@ -55,7 +89,7 @@ public class ErodingFactor {
      * @return next shrink time
      */
     public long getNextShrink() {
-        return nextShrink;
+        return state.nextShrink;
     }
 
     /**
@@ -63,6 +97,24 @@ public class ErodingFactor {
      */
     @Override
     public String toString() {
-        return "ErodingFactor{" + "factor=" + factor + ", idleHighWaterMark=" + idleHighWaterMark + '}';
+        return "ErodingFactor{" + "factor=" + factor + ", idleHighWaterMark=" + state.idleHighWaterMark + '}';
+    }
+
+    /**
+     * The erosion state, replaced as a whole on every update.
+     */
+    private static final class State {
+        /** Time of next shrink event */
+        final long nextShrink;
+        /** High water mark - largest numIdle encountered, decayed over time */
+        final float idleHighWaterMark;
+        /** Time the high water mark was last updated */
+        final long lastUpdate;
+
+        State(final long nextShrink, final float idleHighWaterMark, final long lastUpdate) {
+            this.nextShrink = nextShrink;
+            this.idleHighWaterMark = idleHighWaterMark;
+            this.lastUpdate = lastUpdate;
+        }
     }
 }
@@ -33,19 +33,17 @@ public class ErodingKeyedObjectPool<K, V> implements KeyedObjectPool<K, V> {
         boolean discard = false;
         final long now = System.currentTimeMillis();
         final ErodingFactor factor = getErodingFactor(key);
-        synchronized (keyedPool) {
-            if (factor.getNextShrink() < now) {
-                final int numIdle = getNumIdle(key);
-                if (numIdle > 0) {
-                    discard = true;
-                }
-
-                factor.update(now, numIdle);
+        if (factor.getNextShrink() < now) {
+            // Only the thread that claims the erosion event discards
+            final int numIdle = getNumIdle(key);
+            if (factor.tryUpdate(now, numIdle) && numIdle > 0) {
+                discard = true;
             }
         }
         try {
             if (discard) {
                 keyedPool.invalidateObject(key, obj);
+                eroded(key);
             } else {
                 keyedPool.returnObject(key, obj);
             }
@@ -54,6 +52,15 @@ public class ErodingKeyedObjectPool<K, V> implements KeyedObjectPool<K, V> {
         }
     }
 
+    /**
+     * Called after an object has been discarded by an erosion event under the given key.
+     * 
+     * @param key
+     *            key
+     */
+    protected void eroded(final K key) {
+    }
+
     /**
      * Returns the eroding factor for the given key
      * 
@@ -46,15 +46,11 @@ public  class ErodingObjectPool<T> implements ObjectPool<T> {
     public void returnObject(final T obj) {
         boolean discard = false;
         final long now = System.currentTimeMillis();
-        synchronized (pool) {
-            if (factor.getNextShrink() < now) { // XXX: Pool 3: move test
-                                                // out of sync block
-                final int numIdle = pool.getNumIdle();
-                if (numIdle > 0) {
-                    discard = true;
-                }
-
-                factor.update(now, numIdle);
+        if (factor.getNextShrink() < now) {
+            // Only the thread that claims the erosion event discards
+            final int numIdle = pool.getNumIdle();
+            if (factor.tryUpdate(now, numIdle) && numIdle > 0) {
+                discard = true;
             }
         }
         try {
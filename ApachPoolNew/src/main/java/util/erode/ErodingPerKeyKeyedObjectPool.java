@@ -1,17 +1,33 @@
 package util.erode;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import bean.inter.pool.KeyedObjectPool;
 
+/**
+ * An eroding keyed pool that keeps a separate {@link ErodingFactor} for each key.
+ * <p>
+ * The factors are kept in a concurrent map and updated without locks. A key's factor is dropped once the underlying pool has no objects under the key,
+ * either right after an erosion event or by a small sweep that runs whenever a factor is created, so the map does not grow with keys that are no longer
+ * used.
+ */
 public class ErodingPerKeyKeyedObjectPool<K, V> extends ErodingKeyedObjectPool<K, V> {
+    /** Number of map entries checked by each sweep */
+    private static final int SWEEP_BATCH = 2;
+
     /** Erosion factor - same for all pools */
     private final float factor;
 
     /** Map of ErodingFactor instances keyed on pool keys */
-    private final Map<K, ErodingFactor> factors = Collections.synchronizedMap(new HashMap<K, ErodingFactor>());
+    private final ConcurrentHashMap<K, ErodingFactor> factors = new ConcurrentHashMap<K, ErodingFactor>();
+
+    private final AtomicBoolean sweeping = new AtomicBoolean(false);
+
+    /** Position of the sweep in the map, guarded by {@link #sweeping} */
+    private Iterator<Map.Entry<K, ErodingFactor>> sweepIterator = null;
 
     /**
      * Create a new ErordingPerKeyKeyedObjectPool decorating the given keyed pool with the specified erosion factor.
@@ -32,15 +48,68 @@ public class ErodingPerKeyKeyedObjectPool<K, V> extends ErodingKeyedObjectPool<K
     @Override
     protected ErodingFactor getErodingFactor(final K key) {
         ErodingFactor eFactor = factors.get(key);
-        // this may result in two ErodingFactors being created for a key
-        // since they are small and cheap this is okay.
         if (eFactor == null) {
-            eFactor = new ErodingFactor(this.factor);
-            factors.put(key, eFactor);
+            final ErodingFactor newFactor = new ErodingFactor(this.factor);
+            eFactor = factors.putIfAbsent(key, newFactor);
+            if (eFactor == null) {
+                eFactor = newFactor;
+                // Every new key pays for checking a few old ones
+                sweep();
+            }
         }
         return eFactor;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void eroded(final K key) {
+        final ErodingFactor eFactor = factors.get(key);
+        if (eFactor != null && isUnused(key)) {
+            factors.remove(key, eFactor);
+        }
+    }
+
+    /**
+     * Returns the number of keys that currently have an erosion state.
+     * 
+     * @return the number of tracked keys
+     */
+    public int getNumTrackedKeys() {
+        return factors.size();
+    }
+
+    private boolean isUnused(final K key) {
+        final KeyedObjectPool<K, V> keyedPool = getKeyedPool();
+        return keyedPool.getNumActive(key) == 0 && keyedPool.getNumIdle(key) == 0;
+    }
+
+    /**
+     * Checks the next few entries of the map and drops those of keys without objects. Skipped if another thread is sweeping.
+     */
+    private void sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SWEEP_BATCH; i++) {
+                if (sweepIterator == null || !sweepIterator.hasNext()) {
+                    sweepIterator = factors.entrySet().iterator();
+                    if (!sweepIterator.hasNext()) {
+                        return;
+                    }
+                }
+                final Map.Entry<K, ErodingFactor> entry = sweepIterator.next();
+                if (isUnused(entry.getKey())) {
+                    factors.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -48,4 +117,4 @@ public class ErodingPerKeyKeyedObjectPool<K, V> extends ErodingKeyedObjectPool<K
     public String toString() {
         return "ErodingPerKeyKeyedObjectPool{" + "factor=" + factor + ", keyedPool=" + getKeyedPool() + '}';
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,245 @@
+package util.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import bean.inter.pool.base.BaseGenericObjectPool;
+import bean.inter.pool.base.PoolStats;
+import bean.inter.pool.base.assist.StatsHistogram;
+
+/**
+ * Renders the statistics of a set of pools in the OpenMetrics text format, so that they can be scraped by Prometheus without going through JMX.
+ * <p>
+ * Pools are registered under a name that becomes the value of the {@code pool} label. The exporter only holds weak references to the pools; pools that
+ * have been garbage collected or closed are dropped from the registry during the next scrape. Every pool is read once per scrape, with
+ * {@link BaseGenericObjectPool#getStats()}, and all of its series are rendered from that snapshot.
+ */
+public class PoolMetricsExporter {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final String PREFIX = "objectpool_";
+
+    private final Map<String, WeakReference<BaseGenericObjectPool<?>>> pools = new ConcurrentHashMap<String, WeakReference<BaseGenericObjectPool<?>>>();
+
+    /**
+     * Adds a pool to the registry, replacing any pool registered under the same name.
+     *
+     * @param name
+     *            the value of the {@code pool} label for this pool's series
+     * @param pool
+     *            the pool to export
+     */
+    public void register(String name, BaseGenericObjectPool<?> pool) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null.");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("pool must not be null.");
+        }
+        pools.put(name, new WeakReference<BaseGenericObjectPool<?>>(pool));
+    }
+
+    /**
+     * Adds a pool to the registry under its JMX name.
+     *
+     * @param pool
+     *            the pool to export, which must have been registered with JMX
+     */
+    public void register(BaseGenericObjectPool<?> pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool must not be null.");
+        }
+        if (pool.getJmxName() == null) {
+            throw new IllegalArgumentException("pool has no JMX name, register it with an explicit name.");
+        }
+        register(pool.getJmxName().toString(), pool);
+    }
+
+    public void unregister(String name) {
+        pools.remove(name);
+    }
+
+    /**
+     * Renders the current statistics of all live registered pools.
+     *
+     * @return the OpenMetrics exposition, terminated by {@code # EOF}
+     */
+    public String scrape() {
+        List<PoolSample> samples = new ArrayList<PoolSample>(pools.size());
+        Iterator<Map.Entry<String, WeakReference<BaseGenericObjectPool<?>>>> it = pools.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, WeakReference<BaseGenericObjectPool<?>>> entry = it.next();
+            BaseGenericObjectPool<?> pool = entry.getValue().get();
+            if (pool == null || pool.isClosed()) {
+                it.remove();
+                continue;
+            }
+            samples.add(new PoolSample(entry.getKey(), pool.getStats()));
+        }
+
+        StringBuilder sb = new StringBuilder(samples.size() * 2048 + 16);
+        writeCounters(sb, samples);
+        writeGauges(sb, samples);
+        writeHistogram(sb, samples, "borrow_wait_seconds", "Time spent waiting in borrowObject.", true);
+        writeHistogram(sb, samples, "active_seconds", "Time objects were checked out before being returned.", false);
+        sb.append("# EOF\n");
+        return sb.toString();
+    }
+
+    /**
+     * Starts an embedded HTTP server that serves {@link #scrape()} at {@code /metrics}.
+     *
+     * @param address
+     *            the address to listen on
+     * @return the started server; call {@link HttpServer#stop(int)} to shut it down
+     * @throws IOException
+     *             if the server cannot be bound
+     */
+    public HttpServer startHttpServer(InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", new MetricsHandler());
+        server.start();
+        return server;
+    }
+
+    private static void writeCounters(StringBuilder sb, List<PoolSample> samples) {
+        String[] names = { "borrowed", "returned", "created", "destroyed", "destroyed_by_evictor", "destroyed_by_borrow_validation" };
+        String[] helps = { "Objects borrowed from the pool.", "Objects returned to the pool.", "Objects created by the pool.",
+                "Objects destroyed by the pool.", "Objects destroyed by the idle object evictor.", "Objects destroyed because validation failed on borrow." };
+        for (int m = 0; m < names.length; m++) {
+            writeHeader(sb, names[m], "counter", helps[m]);
+            for (PoolSample s : samples) {
+                sb.append(PREFIX).append(names[m]).append("_total{pool=\"").append(s.name).append("\"} ").append(s.counters[m]).append('\n');
+            }
+        }
+    }
+
+    private static void writeGauges(StringBuilder sb, List<PoolSample> samples) {
+        String[] names = { "active", "idle", "waiters", "max_total", "mean_active_seconds", "mean_idle_seconds", "mean_borrow_wait_seconds",
+                "max_borrow_wait_seconds" };
+        String[] helps = { "Objects currently borrowed.", "Objects currently idle.", "Threads blocked waiting for an object.",
+                "Maximum number of objects, negative if unlimited.", "Mean active time of recently returned objects.",
+                "Mean idle time of recently borrowed objects.", "Mean wait time of recent borrows.", "Maximum borrow wait time." };
+        for (int m = 0; m < names.length; m++) {
+            writeHeader(sb, names[m], "gauge", helps[m]);
+            boolean millis = m >= 4;
+            for (PoolSample s : samples) {
+                sb.append(PREFIX).append(names[m]).append("{pool=\"").append(s.name).append("\"} ");
+                if (millis) {
+                    appendSeconds(sb, s.gauges[m]);
+                } else {
+                    sb.append(s.gauges[m]);
+                }
+                sb.append('\n');
+            }
+        }
+    }
+
+    private static void writeHistogram(StringBuilder sb, List<PoolSample> samples, String name, String help, boolean wait) {
+        writeHeader(sb, name, "histogram", help);
+        for (PoolSample s : samples) {
+            StatsHistogram.Snapshot h = wait ? s.stats.getBorrowWaitTimeHistogram() : s.stats.getActiveTimeHistogram();
+            long cumulative = 0;
+            for (int i = 0; i < h.getBucketCount(); i++) {
+                cumulative += h.getCount(i);
+                sb.append(PREFIX).append(name).append("_bucket{pool=\"").append(s.name).append("\",le=\"");
+                long bound = h.getUpperBound(i);
+                if (bound == Long.MAX_VALUE) {
+                    sb.append("+Inf");
+                } else {
+                    appendSeconds(sb, bound);
+                }
+                sb.append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(PREFIX).append(name).append("_sum{pool=\"").append(s.name).append("\"} ");
+            appendSeconds(sb, h.getSum());
+            sb.append('\n');
+            sb.append(PREFIX).append(name).append("_count{pool=\"").append(s.name).append("\"} ").append(cumulative).append('\n');
+        }
+    }
+
+    private static void writeHeader(StringBuilder sb, String name, String type, String help) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    }
+
+    private static void appendSeconds(StringBuilder sb, long millis) {
+        sb.append(millis / 1000L).append('.');
+        long fraction = millis % 1000L;
+        if (fraction < 100) {
+            sb.append('0');
+        }
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+
+    private static String escapeLabelValue(String value) {
+        StringBuilder sb = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"' || c == '\n') {
+                if (sb == null) {
+                    sb = new StringBuilder(value.length() + 8);
+                    sb.append(value, 0, i);
+                }
+                sb.append('\\').append(c == '\n' ? 'n' : c);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? value : sb.toString();
+    }
+
+    /**
+     * The snapshot of one pool, laid out in the order the series are rendered.
+     */
+    private static final class PoolSample {
+        final String name;
+        final PoolStats stats;
+        final long[] counters;
+        final long[] gauges;
+
+        PoolSample(String name, PoolStats stats) {
+            this.name = escapeLabelValue(name);
+            this.stats = stats;
+            this.counters = new long[] { stats.getBorrowedCount(), stats.getReturnedCount(), stats.getCreatedCount(), stats.getDestroyedCount(),
+                    stats.getDestroyedByEvictorCount(), stats.getDestroyedByBorrowValidationCount() };
+            this.gauges = new long[] { stats.getNumActive(), stats.getNumIdle(), stats.getNumWaiters(), stats.getMaxTotal(),
+                    stats.getMeanActiveTimeMillis(), stats.getMeanIdleTimeMillis(), stats.getMeanBorrowWaitTimeMillis(),
+                    stats.getMaxBorrowWaitTimeMillis() };
+        }
+    }
+
+    private class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                byte[] body = scrape().getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                try {
+                    os.write(body);
+                } finally {
+                    os.close();
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
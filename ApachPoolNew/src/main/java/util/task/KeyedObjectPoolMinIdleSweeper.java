@@ -0,0 +1,159 @@
+package util.task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bean.assist.RateLimiter;
+import bean.inter.pool.KeyedObjectPool;
+
+/**
+ * Keeps {@code minIdle} idle objects under each of a set of keys with a single timer task, instead of one
+ * {@link KeyedObjectPoolMinIdleTimerTask} per key.
+ * <p>
+ * Each run reads the idle count of every key, collects the keys that are short, and tops them up to {@code minIdle}. The refill is shared by up to
+ * {@code parallelism} workers on the given executor, which take keys from the list one at a time; without an executor the timer thread does the refill
+ * itself. A {@link RateLimiter}, if given, caps the rate of {@code addObject} calls across all workers. A run waits for its workers, so runs never overlap.
+ * <p>
+ * A key whose {@code addObject} fails is skipped for the rest of the run. The task cancels itself when the pool is closed.
+ */
+public class KeyedObjectPoolMinIdleSweeper<K, V> extends TimerTask {
+
+    private final KeyedObjectPool<K, V> keyedPool;
+
+    private final List<K> keys;
+
+    private final int minIdle;
+
+    private final Executor executor;
+
+    private final int parallelism;
+
+    private final RateLimiter rateLimiter;
+
+    public KeyedObjectPoolMinIdleSweeper(final KeyedObjectPool<K, V> keyedPool, final Collection<K> keys, final int minIdle, final Executor executor,
+            final int parallelism, final RateLimiter rateLimiter) throws IllegalArgumentException {
+        if (keyedPool == null) {
+            throw new IllegalArgumentException("keyedPool must not be null.");
+        }
+        if (keys == null) {
+            throw new IllegalArgumentException("keys must not be null.");
+        }
+        if (executor != null && parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive.");
+        }
+        this.keyedPool = keyedPool;
+        this.keys = new ArrayList<K>(keys);
+        this.minIdle = minIdle;
+        this.executor = executor;
+        this.parallelism = executor == null ? 1 : parallelism;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        final List<K> shortKeys = new ArrayList<K>();
+        try {
+            for (K key : keys) {
+                if (keyedPool.getNumIdle(key) < minIdle) {
+                    shortKeys.add(key);
+                }
+            }
+        } catch (RuntimeException e) {
+            cancel();
+            return;
+        }
+        if (shortKeys.isEmpty()) {
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger(0);
+        if (executor == null || shortKeys.size() == 1) {
+            refill(shortKeys, next);
+            return;
+        }
+        int workers = Math.min(parallelism, shortKeys.size());
+        final CountDownLatch done = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refill(shortKeys, next);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // Do the share of the missing worker here
+                worker.run();
+            }
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes keys from the list until it is exhausted and tops each one up to {@code minIdle}.
+     */
+    private void refill(List<K> shortKeys, AtomicInteger next) {
+        for (int i = next.getAndIncrement(); i < shortKeys.size(); i = next.getAndIncrement()) {
+            K key = shortKeys.get(i);
+            try {
+                int idle = keyedPool.getNumIdle(key);
+                while (idle < minIdle) {
+                    if (rateLimiter != null) {
+                        rateLimiter.acquire();
+                    }
+                    keyedPool.addObject(key);
+                    int after = keyedPool.getNumIdle(key);
+                    if (after <= idle) {
+                        // No capacity left for this key, or its objects are
+                        // being borrowed as fast as they are added
+                        break;
+                    }
+                    idle = after;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IllegalStateException e) {
+                // The pool has been closed
+                cancel();
+                return;
+            } catch (Exception e) {
+                // Skip this key until the next run
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("KeyedObjectPoolMinIdleSweeper");
+        sb.append("{minIdle=").append(minIdle);
+        sb.append(", keys=").append(keys.size());
+        sb.append(", parallelism=").append(parallelism);
+        sb.append(", rateLimiter=").append(rateLimiter == null ? "none" : rateLimiter.getPermitsPerSecond() + "/s");
+        sb.append(", keyedPool=").append(keyedPool);
+        sb.append('}');
+        return sb.toString();
+    }
+}
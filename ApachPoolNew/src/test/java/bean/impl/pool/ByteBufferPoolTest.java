@@ -0,0 +1,197 @@
+package bean.impl.pool;
+
+import static bean.impl.pool.PoolAssert.check;
+import static bean.impl.pool.PoolAssert.checkEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import config.pool.impl.ByteBufferPoolConfig;
+
+public class ByteBufferPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        testSizeClassesAndReuse();
+        testDirectMemoryBudget();
+        testOversizedBuffersAreNotRecycled();
+        testConcurrentBuffersDoNotOverlap();
+        testClose();
+        System.out.println("ByteBufferPoolTest passed");
+    }
+
+    static ByteBufferPoolConfig newConfig(long maxDirectMemory) {
+        ByteBufferPoolConfig config = new ByteBufferPoolConfig();
+        config.setMinBufferSize(512);
+        config.setMaxBufferSize(4096);
+        config.setSlabSize(8192);
+        config.setMagazineSize(4);
+        config.setMaxDirectMemory(maxDirectMemory);
+        config.setJmxEnabled(false);
+        return config;
+    }
+
+    static void testSizeClassesAndReuse() {
+        ByteBufferPool pool = new ByteBufferPool(newConfig(-1));
+        ByteBuffer small = pool.acquire(100);
+        check(small.isDirect(), "buffer is not direct");
+        checkEquals(512, small.capacity(), "capacity of a 100 byte buffer");
+        checkEquals(100, small.limit(), "limit");
+        checkEquals(0, small.position(), "position");
+        ByteBuffer medium = pool.acquire(513);
+        checkEquals(1024, medium.capacity(), "capacity of a 513 byte buffer");
+        small.position(50);
+        pool.release(small);
+        ByteBuffer again = pool.acquire(300);
+        check(again == small, "a released buffer was not reused");
+        checkEquals(0, again.position(), "position of a reused buffer");
+        checkEquals(300, again.limit(), "limit of a reused buffer");
+        checkEquals(3, pool.getAcquireCount(), "acquire count");
+        checkEquals(2, pool.getMissCount(), "miss count");
+        try {
+            pool.release(ByteBuffer.allocate(512));
+            check(false, "released a heap buffer");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            pool.release(ByteBuffer.allocateDirect(700));
+            check(false, "released a buffer of no size class");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        pool.close();
+    }
+
+    /**
+     * 每个大小级别从自己的整块中切分，整块总大小达到预算后新的分配失败，已释放的缓冲区仍可复用
+     */
+    static void testDirectMemoryBudget() {
+        ByteBufferPool pool = new ByteBufferPool(newConfig(16384));
+        List<ByteBuffer> held = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 4; i++) {
+            held.add(pool.acquire(4096));
+        }
+        checkEquals(2, pool.getSlabCount(), "slab count");
+        checkEquals(16384, pool.getReservedDirectMemory(), "reserved direct memory");
+        try {
+            pool.acquire(4096);
+            check(false, "acquired beyond the direct memory budget");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        try {
+            pool.acquire(100);
+            check(false, "allocated a slab for another size class beyond the budget");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        pool.release(held.remove(0));
+        held.add(pool.acquire(4096));
+        checkEquals(2, pool.getSlabCount(), "slab count after reuse");
+        checkEquals(16384, pool.getReservedDirectMemory(), "reserved direct memory after reuse");
+        pool.close();
+    }
+
+    static void testOversizedBuffersAreNotRecycled() {
+        ByteBufferPool pool = new ByteBufferPool(newConfig(16384));
+        ByteBuffer big = pool.acquire(10000);
+        checkEquals(10000, big.capacity(), "capacity of an oversized buffer");
+        checkEquals(10000, pool.getReservedDirectMemory(), "reserved direct memory");
+        try {
+            pool.acquire(10000);
+            check(false, "acquired an oversized buffer beyond the budget");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        pool.release(big);
+        checkEquals(0, pool.getReservedDirectMemory(), "reserved direct memory after release");
+        check(pool.acquire(10000) != big, "an oversized buffer was recycled");
+        checkEquals(2, pool.getOversizeCount(), "oversize count");
+        pool.close();
+    }
+
+    /**
+     * 多线程并发借还时，同时使用的缓冲区互不重叠；线程结束后其缓存移入共享仓库，统计不丢失
+     */
+    static void testConcurrentBuffersDoNotOverlap() throws Exception {
+        final ByteBufferPool pool = new ByteBufferPool(newConfig(-1));
+        final int iterations = 2000;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[8];
+        for (int i = 0; i < workers.length; i++) {
+            final byte id = (byte) (i + 1);
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int k = 0; k < iterations; k++) {
+                            ByteBuffer a = pool.acquire(1 + (k * 37 + id) % 4096);
+                            ByteBuffer b = pool.acquire(1 + (k * 91 + id) % 4096);
+                            fill(a, id);
+                            fill(b, (byte) -id);
+                            Thread.yield();
+                            verify(a, id);
+                            verify(b, (byte) -id);
+                            pool.release(b);
+                            pool.release(a);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Thread reclaimer = new Thread() {
+            @Override
+            public void run() {
+                pool.release(pool.acquire(1));
+            }
+        };
+        reclaimer.start();
+        reclaimer.join();
+        checkEquals(workers.length * iterations * 2 + 1, pool.getAcquireCount(), "acquire count");
+        int depotCount = 0;
+        for (int count : pool.getDepotCountBySizeClass()) {
+            depotCount += count;
+        }
+        check(depotCount > 0, "buffers cached by terminated threads were not moved to the depots");
+        check(pool.getHitRate() > 0.5d, "hit rate " + pool.getHitRate());
+        pool.close();
+    }
+
+    static void testClose() {
+        ByteBufferPool pool = new ByteBufferPool(newConfig(-1));
+        ByteBuffer buffer = pool.acquire(100);
+        pool.close();
+        try {
+            pool.acquire(100);
+            check(false, "acquired from a closed pool");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        pool.release(buffer);
+        checkEquals(0, pool.getDepotCountBySizeClass()[0], "depot count after close");
+    }
+
+    static void fill(ByteBuffer buffer, byte value) {
+        for (int i = 0; i < buffer.limit(); i++) {
+            buffer.put(i, value);
+        }
+    }
+
+    static void verify(ByteBuffer buffer, byte value) {
+        for (int i = 0; i < buffer.limit(); i++) {
+            checkEquals(value, buffer.get(i), "byte " + i + " was overwritten by another borrower");
+        }
+    }
+}
@@ -0,0 +1,630 @@
+package bean.impl.pool;
+
+import static bean.impl.pool.PoolAssert.check;
+import static bean.impl.pool.PoolAssert.checkEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+import bean.impl.DefaultPooledObject;
+import bean.inter.PooledObject;
+import bean.inter.factory.BaseKeyedPooledObjectFactory;
+import bean.inter.factory.RekeyableKeyedPooledObjectFactory;
+import config.pool.impl.GenericKeyedObjectPoolConfig;
+import config.quota.KeyQuota;
+import config.quota.KeyQuotaResolver;
+
+public class GenericKeyedObjectPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        testMaxTotalWithoutIdleObjects();
+        testMaxTotalPerKey();
+        testDestroyedCapacityGoesToBlockedKey();
+        testNumIdleAcrossKeys();
+        testFailingCreateForStarvingKeyTimesOut();
+        testFailingCreateTakesOneIdleObject();
+        testRebalancingDestroysBeforeCreating();
+        testRebalancingWithManyKeys();
+        testCountersAfterRebalancing();
+        testCountersAfterRekeying();
+        testCountersAfterFailedRekey();
+        testCompactKeyHoldsSeveralIdle();
+        testCountersWithCompactKeys();
+        testEvictCompactKeys();
+        testEvictionRunBoundedWithManyKeys();
+        testReserveKeptForKey();
+        testQuotaMaxTotal();
+        testRebalancingTakesFromHeaviestKey();
+        testKeyScansAreJmxOperations();
+        System.out.println("GenericKeyedObjectPoolTest passed");
+    }
+
+    static GenericKeyedObjectPoolConfig newConfig(int maxTotal) {
+        GenericKeyedObjectPoolConfig config = new GenericKeyedObjectPoolConfig();
+        config.setEvictionPolicyClassName("config.evict.impl.DefaultEvictionPolicy");
+        config.setJmxEnabled(false);
+        config.setMaxTotal(maxTotal);
+        return config;
+    }
+
+    /**
+     * 没有空闲对象可以替换时，所有key加起来的对象数不超过maxTotal
+     */
+    static void testMaxTotalWithoutIdleObjects() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericKeyedObjectPoolConfig config = newConfig(4);
+        config.setMaxIdlePerKey(0);
+        config.setMaxWaitMillis(50);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+        stress(pool, 16, 8, 2000);
+        check(factory.maxLive.get() <= 4, "maxTotal exceeded: " + factory.maxLive.get() + " live objects");
+        checkEquals(0, factory.live.get(), "live objects");
+        checkCounters(pool, factory);
+        pool.close();
+        checkEquals(0, pool.getNumKeys(), "keys after close");
+    }
+
+    static void testMaxTotalPerKey() throws Exception {
+        GenericKeyedObjectPoolConfig config = newConfig(-1);
+        config.setMaxTotalPerKey(2);
+        config.setBlockWhenExhausted(false);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(new CountingFactory(), config);
+        Object a1 = pool.borrowObject("a");
+        Object a2 = pool.borrowObject("a");
+        try {
+            pool.borrowObject("a");
+            check(false, "borrowed more than maxTotalPerKey objects of a");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        pool.returnObject("b", pool.borrowObject("b"));
+        checkEquals(2, pool.getNumActive("a"), "active objects of a");
+        checkEquals(3, pool.getNumTotal(), "numTotal");
+        pool.returnObject("a", a1);
+        pool.returnObject("a", a2);
+        pool.close();
+    }
+
+    /**
+     * 池满时，其他key销毁对象腾出的容量交给正在等待的key
+     */
+    static void testDestroyedCapacityGoesToBlockedKey() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        final GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, newConfig(1));
+        Object a = pool.borrowObject("a");
+        final AtomicReference<Object> borrowed = new AtomicReference<Object>();
+        Thread borrower = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    borrowed.set(pool.borrowObject("b", 5000));
+                } catch (Exception e) {
+                    // checked below
+                }
+            }
+        };
+        borrower.start();
+        while (pool.getNumWaiters() == 0) {
+            Thread.sleep(1);
+        }
+        long start = System.currentTimeMillis();
+        pool.invalidateObject("a", a);
+        borrower.join();
+        check(borrowed.get() != null, "borrower of b got no object");
+        check(System.currentTimeMillis() - start < 1000, "borrower of b waited for its timeout");
+        checkEquals(1, factory.maxLive.get(), "max live objects");
+        pool.returnObject("b", borrowed.get());
+        checkCounters(pool, factory);
+        pool.close();
+    }
+
+    /**
+     * 池级别的空闲对象计数在借还、清空、作废和驱逐之后与各key的空闲对象数一致
+     */
+    static void testNumIdleAcrossKeys() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericKeyedObjectPoolConfig config = newConfig(-1);
+        config.setMinEvictableIdleTimeMillis(1);
+        config.setNumTestsPerEvictionRun(100);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+        fill(pool, "a", 3);
+        fill(pool, "b", 2);
+        pool.addObject("c");
+        checkEquals(6, pool.getNumIdle(), "numIdle");
+        Object a = pool.borrowObject("a");
+        checkEquals(5, pool.getNumIdle(), "numIdle with one object of a borrowed");
+        pool.invalidateObject("a", a);
+        pool.clear("b");
+        checkEquals(3, pool.getNumIdle(), "numIdle after clearing b");
+        Thread.sleep(10);
+        pool.evict();
+        checkEquals(0, pool.getNumIdle(), "numIdle after eviction");
+        checkCounters(pool, factory);
+        pool.close();
+    }
+
+    /**
+     * 池满时，为等待中的key创建对象失败不能让借用线程反复重试而忽略maxWait
+     */
+    static void testFailingCreateForStarvingKeyTimesOut() throws Exception {
+        final CountingFactory factory = new CountingFactory();
+        final GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, newConfig(1));
+        pool.returnObject("a", pool.borrowObject("a"));
+        factory.failMake = true;
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        Thread borrower = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pool.borrowObject("b", 500);
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+            }
+        };
+        long start = System.currentTimeMillis();
+        borrower.start();
+        borrower.join(3000);
+        boolean finished = !borrower.isAlive();
+        pool.close();
+        borrower.join();
+        check(finished, "borrower still running after 3 s, makeObject called " + factory.makes.get() + " times");
+        check(thrown.get() instanceof NoSuchElementException, "expected NoSuchElementException but got " + thrown.get());
+        check(System.currentTimeMillis() - start < 2000, "borrower ignored maxWait");
+        check(factory.makes.get() < 10, "makeObject called " + factory.makes.get() + " times");
+    }
+
+    /**
+     * 创建失败时不会为同一个借用者反复销毁其他key的空闲对象：失败的创建已经释放了容量
+     */
+    static void testFailingCreateTakesOneIdleObject() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericKeyedObjectPoolConfig config = newConfig(3);
+        config.setBlockWhenExhausted(false);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+        Object a = pool.borrowObject("a");
+        fill(pool, "b", 2);
+        factory.failMake = true;
+        for (int i = 0; i < 3; i++) {
+            try {
+                pool.borrowObject("c");
+                check(false, "borrow of c succeeded with a failing factory");
+            } catch (IllegalStateException e) {
+                // thrown by the factory
+            }
+        }
+        checkEquals(1, pool.getNumIdle("b"), "idle objects of b");
+        checkEquals(1, pool.getDestroyedByRebalanceCount(), "objects destroyed by rebalancing");
+        factory.failMake = false;
+        pool.returnObject("c", pool.borrowObject("c"));
+        checkEquals(1, pool.getNumIdle("b"), "idle objects of b");
+        checkEquals(1, pool.getDestroyedByRebalanceCount(), "objects destroyed by rebalancing");
+        pool.returnObject("a", a);
+        checkCounters(pool, factory);
+        pool.close();
+    }
+
+    /**
+     * 为其他key腾出容量时，先销毁空闲对象再创建新对象，工厂中的对象数不超过maxTotal
+     */
+    static void testRebalancingDestroysBeforeCreating() throws Exception {
+        for (boolean block : new boolean[] { false, true }) {
+            CountingFactory factory = new CountingFactory();
+            GenericKeyedObjectPoolConfig config = newConfig(2);
+            config.setBlockWhenExhausted(block);
+            GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+            pool.addObject("a");
+            pool.addObject("a");
+            pool.returnObject("b", pool.borrowObject("b"));
+            checkEquals(2, factory.maxLive.get(), "max live objects");
+            checkEquals(1, pool.getNumIdle("a"), "idle objects of a");
+            checkEquals(1, pool.getDestroyedByRebalanceCount(), "objects destroyed by rebalancing");
+            checkCounters(pool, factory);
+            pool.close();
+        }
+    }
+
+    /**
+     * 池满时为新key腾出容量的耗时不随key的数量增长
+     */
+    static void testRebalancingWithManyKeys() throws Exception {
+        int keys = 200000;
+        CountingFactory factory = new CountingFactory();
+        GenericKeyedObjectPoolConfig config = newConfig(keys);
+        config.setCompactKeys(true);
+        config.setBlockWhenExhausted(false);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+        for (int i = 0; i < keys; i++) {
+            pool.addObject("k" + i);
+        }
+        int borrows = 2000;
+        long start = System.nanoTime();
+        for (int i = 0; i < borrows; i++) {
+            pool.returnObject("n" + i, pool.borrowObject("n" + i));
+        }
+        long micros = (System.nanoTime() - start) / 1000 / borrows;
+        checkEquals(borrows, pool.getDestroyedByRebalanceCount(), "objects destroyed by rebalancing");
+        check(micros < 1000, "rebalancing among " + keys + " keys took " + micros + " us per borrow");
+        checkEquals(keys, factory.maxLive.get(), "max live objects");
+        checkCounters(pool, factory);
+        pool.close();
+    }
+
+    static void testCountersAfterRebalancing() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericKeyedObjectPoolConfig config = newConfig(4);
+        config.setMaxWaitMillis(50);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+        stress(pool, 16, 8, 2000);
+        check(factory.maxLive.get() <= 4, "maxTotal exceeded: " + factory.maxLive.get() + " live objects");
+        checkCounters(pool, factory);
+        pool.close();
+        checkEquals(0, pool.getNumKeys(), "keys after close");
+    }
+
+    static void testCountersAfterRekeying() throws Exception {
+        for (int maxTotal : new int[] { 4, -1 }) {
+            RekeyingFactory factory = new RekeyingFactory();
+            GenericKeyedObjectPoolConfig config = newConfig(maxTotal);
+            config.setMaxWaitMillis(50);
+            GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+            stress(pool, 16, 8, 2000);
+            check(factory.rekeys.get() > 0, "no object was rekeyed");
+            checkCounters(pool, factory);
+            pool.close();
+            checkEquals(0, pool.getNumKeys(), "keys after close");
+        }
+    }
+
+    /**
+     * 转换失败时被销毁的对象不能让numActive变成负数
+     */
+    static void testCountersAfterFailedRekey() throws Exception {
+        RekeyingFactory factory = new RekeyingFactory();
+        factory.failRekey = true;
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, newConfig(-1));
+        pool.returnObject("a", pool.borrowObject("a"));
+        Object b = pool.borrowObject("b");
+        checkEquals(1, pool.getNumActive(), "numActive while b is borrowed");
+        pool.returnObject("b", b);
+        checkEquals(0, pool.getRekeyedCount(), "rekeyed count");
+        checkCounters(pool, factory);
+        pool.close();
+        checkEquals(0, pool.getNumKeys(), "keys after close");
+    }
+
+    /**
+     * 紧凑模式的key有多个空闲对象时，全部保留并能再次借出
+     */
+    static void testCompactKeyHoldsSeveralIdle() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericKeyedObjectPoolConfig config = newConfig(-1);
+        config.setCompactKeys(true);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+        for (int round = 0; round < 2; round++) {
+            Object[] objs = new Object[3];
+            for (int i = 0; i < objs.length; i++) {
+                objs[i] = pool.borrowObject("a");
+            }
+            for (Object obj : objs) {
+                pool.returnObject("a", obj);
+            }
+            checkEquals(3, pool.getNumIdle("a"), "idle objects of a");
+        }
+        checkEquals(3, factory.makes.get(), "objects made");
+        checkCounters(pool, factory);
+        pool.close();
+        checkEquals(0, pool.getNumKeys(), "keys after close");
+    }
+
+    static void testCountersWithCompactKeys() throws Exception {
+        for (int maxTotal : new int[] { 4, -1 }) {
+            for (CountingFactory factory : new CountingFactory[] { new CountingFactory(), new RekeyingFactory() }) {
+                GenericKeyedObjectPoolConfig config = newConfig(maxTotal);
+                config.setCompactKeys(true);
+                config.setMaxWaitMillis(50);
+                GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+                stress(pool, 16, 64, 2000);
+                checkCounters(pool, factory);
+                pool.close();
+                checkEquals(0, pool.getNumKeys(), "keys after close");
+            }
+        }
+    }
+
+    /**
+     * 驱逐紧凑模式key的空闲对象后，空的子池被回收
+     */
+    static void testEvictCompactKeys() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericKeyedObjectPoolConfig config = newConfig(-1);
+        config.setCompactKeys(true);
+        config.setMinEvictableIdleTimeMillis(1);
+        config.setNumTestsPerEvictionRun(100);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+        for (int i = 0; i < 10; i++) {
+            pool.returnObject("k" + i, pool.borrowObject("k" + i));
+        }
+        checkEquals(10, pool.getNumIdle(), "numIdle");
+        Thread.sleep(10);
+        pool.evict();
+        checkEquals(0, factory.live.get(), "live objects after eviction");
+        checkCounters(pool, factory);
+        checkEquals(0, pool.getNumKeys(), "keys after eviction");
+        pool.close();
+    }
+
+    /**
+     * 没有过期对象时，一次驱逐的耗时取决于numTestsPerEvictionRun，而不是key的数量
+     */
+    static void testEvictionRunBoundedWithManyKeys() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericKeyedObjectPoolConfig config = newConfig(-1);
+        config.setCompactKeys(true);
+        config.setNumTestsPerEvictionRun(3);
+        config.setMinEvictableIdleTimeMillis(60 * 60 * 1000L);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(factory, config);
+        for (int i = 0; i < 200000; i++) {
+            pool.addObject("k" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            pool.evict();
+        }
+        int runs = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            pool.evict();
+        }
+        long micros = (System.nanoTime() - start) / 1000 / runs;
+        check(micros < 5000, "an eviction run over 200000 keys took " + micros + " us");
+        checkEquals(200000, pool.getNumIdle(), "numIdle");
+        pool.close();
+    }
+
+    /**
+     * 为key保留的容量不能被其他key占用，也不会被重新分配给其他key
+     */
+    static void testReserveKeptForKey() throws Exception {
+        Map<String, KeyQuota> quotas = new HashMap<String, KeyQuota>();
+        quotas.put("r", new KeyQuota(2, -1, 1));
+        GenericKeyedObjectPoolConfig config = newConfig(4);
+        config.setBlockWhenExhausted(false);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(new CountingFactory(), config);
+        pool.setKeyQuotaResolver(resolver(quotas));
+        Object r1 = pool.borrowObject("r");
+        Object a = pool.borrowObject("a");
+        Object b = pool.borrowObject("b");
+        checkExhausted(pool, "c");
+        Object r2 = pool.borrowObject("r");
+        checkExhausted(pool, "r");
+        pool.returnObject("r", r1);
+        pool.returnObject("r", r2);
+        checkExhausted(pool, "c");
+        checkEquals(2, pool.getNumIdle("r"), "idle objects of r");
+        checkEquals(0, pool.getDestroyedByRebalanceCount(), "objects destroyed by rebalancing");
+        pool.returnObject("a", a);
+        pool.returnObject("b", b);
+        pool.close();
+    }
+
+    static void testQuotaMaxTotal() throws Exception {
+        Map<String, KeyQuota> quotas = new HashMap<String, KeyQuota>();
+        quotas.put("x", new KeyQuota(0, 1, 1));
+        GenericKeyedObjectPoolConfig config = newConfig(10);
+        config.setBlockWhenExhausted(false);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(new CountingFactory(), config);
+        pool.setKeyQuotaResolver(resolver(quotas));
+        Object x = pool.borrowObject("x");
+        checkExhausted(pool, "x");
+        Object y1 = pool.borrowObject("y");
+        Object y2 = pool.borrowObject("y");
+        pool.returnObject("x", x);
+        pool.returnObject("y", y1);
+        pool.returnObject("y", y2);
+        pool.close();
+    }
+
+    /**
+     * 有配额时，池满后从按权重计对象最多的key取空闲对象，而不是空闲最久的对象
+     */
+    static void testRebalancingTakesFromHeaviestKey() throws Exception {
+        for (boolean weighted : new boolean[] { false, true }) {
+            Map<String, KeyQuota> quotas = new HashMap<String, KeyQuota>();
+            quotas.put("a", new KeyQuota(0, -1, 1));
+            quotas.put("b", new KeyQuota(0, -1, 3));
+            GenericKeyedObjectPoolConfig config = newConfig(4);
+            config.setBlockWhenExhausted(false);
+            GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(new CountingFactory(), config);
+            if (weighted) {
+                pool.setKeyQuotaResolver(resolver(quotas));
+            }
+            fill(pool, "b", 2);
+            Thread.sleep(20);
+            fill(pool, "a", 2);
+            pool.returnObject("c", pool.borrowObject("c"));
+            checkEquals(1, pool.getDestroyedByRebalanceCount(), "objects destroyed by rebalancing");
+            // b holds fewer objects per unit of weight but its objects have been idle longer
+            checkEquals(weighted ? 1 : 2, pool.getNumIdle("a"), "idle objects of a");
+            checkEquals(weighted ? 2 : 1, pool.getNumIdle("b"), "idle objects of b");
+            pool.close();
+        }
+    }
+
+    /**
+     * 需要遍历所有key的视图通过JMX操作提供，不作为JConsole每次刷新都会读取的属性
+     */
+    static void testKeyScansAreJmxOperations() throws Exception {
+        GenericKeyedObjectPoolConfig config = newConfig(-1);
+        config.setJmxEnabled(true);
+        GenericKeyedObjectPool<String, Object> pool = new GenericKeyedObjectPool<String, Object>(new CountingFactory(), config);
+        Object a1 = pool.borrowObject("a");
+        Object a2 = pool.borrowObject("a");
+        Object b = pool.borrowObject("b");
+        pool.returnObject("c", pool.borrowObject("c"));
+        checkEquals(2, pool.listTopKeysByActive().get("a").intValue(), "top key a by active");
+        checkEquals(2, pool.listTopKeysByActive().size(), "top keys by active");
+        checkEquals(1, pool.listKeysByActiveCount().get("0").intValue(), "keys with no active objects");
+        checkEquals(1, pool.listKeysByActiveCount().get("1").intValue(), "keys with one active object");
+        checkEquals(1, pool.listKeysByActiveCount().get("2-3").intValue(), "keys with two or three active objects");
+
+        MBeanInfo info = ManagementFactory.getPlatformMBeanServer().getMBeanInfo(pool.getJmxName());
+        for (MBeanAttributeInfo attribute : info.getAttributes()) {
+            check(!attribute.getName().matches("TopKeysBy(Active|Waiters)|KeysByActiveCount"), attribute.getName() + " is an attribute");
+        }
+        int operations = 0;
+        for (MBeanOperationInfo operation : info.getOperations()) {
+            if (operation.getName().matches("listTopKeysBy(Active|Waiters)|listKeysByActiveCount")) {
+                operations++;
+            }
+        }
+        checkEquals(3, operations, "key scanning operations");
+        pool.returnObject("a", a1);
+        pool.returnObject("a", a2);
+        pool.returnObject("b", b);
+        pool.close();
+    }
+
+    static KeyQuotaResolver<String> resolver(final Map<String, KeyQuota> quotas) {
+        return new KeyQuotaResolver<String>() {
+            @Override
+            public KeyQuota resolve(String key) {
+                return quotas.get(key);
+            }
+        };
+    }
+
+    /**
+     * 同时借出count个对象后全部归还，使key有count个空闲对象
+     */
+    static void fill(GenericKeyedObjectPool<String, Object> pool, String key, int count) throws Exception {
+        Object[] objs = new Object[count];
+        for (int i = 0; i < count; i++) {
+            objs[i] = pool.borrowObject(key);
+        }
+        for (Object obj : objs) {
+            pool.returnObject(key, obj);
+        }
+    }
+
+    static void checkExhausted(GenericKeyedObjectPool<String, Object> pool, String key) throws Exception {
+        try {
+            Object obj = pool.borrowObject(key);
+            pool.returnObject(key, obj);
+            check(false, "borrowed an object of " + key + " from an exhausted pool");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * 多个线程在多个key上反复借还
+     */
+    static void stress(final GenericKeyedObjectPool<String, Object> pool, int threads, final int keys, final int borrowsPerThread) throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int seed = i;
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int k = 0; k < borrowsPerThread; k++) {
+                        String key = "k" + (seed * 31 + k) % keys;
+                        try {
+                            Object obj = pool.borrowObject(key);
+                            pool.returnObject(key, obj);
+                        } catch (NoSuchElementException e) {
+                            // timed out or rejected, try another key
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                            return;
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    /**
+     * 所有对象都已归还后，池的计数与工厂看到的存活对象数一致
+     */
+    static void checkCounters(GenericKeyedObjectPool<String, Object> pool, CountingFactory factory) {
+        checkEquals(0, pool.getNumActive(), "numActive");
+        checkEquals(0, pool.getNumWaiters(), "numWaiters");
+        checkEquals(factory.live.get(), pool.getNumIdle(), "numIdle");
+        int idle = 0;
+        for (String key : pool.getNumActivePerKey().keySet()) {
+            idle += pool.getNumIdle(key);
+        }
+        checkEquals(idle, pool.getNumIdle(), "numIdle summed over keys");
+        checkEquals(factory.live.get(), pool.getNumTotal(), "numTotal");
+        checkEquals(pool.getCreatedCount() - pool.getDestroyedCount(), factory.live.get(), "created - destroyed");
+    }
+
+    static class CountingFactory extends BaseKeyedPooledObjectFactory<String, Object> {
+        final AtomicInteger makes = new AtomicInteger();
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicInteger maxLive = new AtomicInteger();
+        volatile boolean failMake = false;
+
+        @Override
+        public Object create(String key) {
+            makes.incrementAndGet();
+            if (failMake) {
+                throw new IllegalStateException("makeObject failed");
+            }
+            int n = live.incrementAndGet();
+            int max;
+            while ((max = maxLive.get()) < n && !maxLive.compareAndSet(max, n)) {
+                // retry
+            }
+            return new Object();
+        }
+
+        @Override
+        public PooledObject<Object> wrap(Object value) {
+            return new DefaultPooledObject<Object>(value);
+        }
+
+        @Override
+        public void destroyObject(String key, PooledObject<Object> p) {
+            live.decrementAndGet();
+        }
+    }
+
+    /**
+     * 所有key属于同一个兼容类别，对象可以在key之间转换
+     */
+    static class RekeyingFactory extends CountingFactory implements RekeyableKeyedPooledObjectFactory<String, Object> {
+        final AtomicInteger rekeys = new AtomicInteger();
+        volatile boolean failRekey = false;
+
+        @Override
+        public Object getCompatibilityKey(String key) {
+            return "all";
+        }
+
+        @Override
+        public boolean rekeyObject(String fromKey, String toKey, PooledObject<Object> p) {
+            if (failRekey) {
+                throw new IllegalStateException("rekeyObject failed");
+            }
+            rekeys.incrementAndGet();
+            return true;
+        }
+    }
+}
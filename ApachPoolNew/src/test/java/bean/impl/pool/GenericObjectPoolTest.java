@@ -0,0 +1,230 @@
+package bean.impl.pool;
+
+import static bean.impl.pool.PoolAssert.check;
+import static bean.impl.pool.PoolAssert.checkEquals;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bean.impl.DefaultPooledObject;
+import bean.inter.PooledObject;
+import bean.inter.factory.BasePooledObjectFactory;
+import bean.inter.pool.base.BorrowRejectedException;
+import config.pool.impl.GenericObjectPoolConfig;
+
+public class GenericObjectPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        testWaiterLimit();
+        testShedWhenBackendStalls();
+        testNoSheddingWhenHealthy();
+        testOverflowBoundedAndDestroyedOnReturn();
+        testOverflowRateLimited();
+        System.out.println("GenericObjectPoolTest passed");
+    }
+
+    static GenericObjectPoolConfig newConfig(int maxTotal) {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setEvictionPolicyClassName("config.evict.impl.DefaultEvictionPolicy");
+        config.setJmxEnabled(false);
+        config.setMaxTotal(maxTotal);
+        return config;
+    }
+
+    static void testWaiterLimit() throws Exception {
+        GenericObjectPoolConfig config = newConfig(1);
+        config.setMaxWaiters(2);
+        GenericObjectPool<Object> pool = new GenericObjectPool<Object>(new CountingFactory(), config);
+        Object held = pool.borrowObject();
+        Outcomes outcomes = borrowConcurrently(pool, 10, 300, 500, 0);
+        pool.returnObject(held);
+        checkEquals(0, outcomes.rejectedEstimate.get(), "rejections for estimated wait");
+        check(outcomes.rejectedWaiters.get() > 0, "no borrower was rejected for too many waiters");
+        check(outcomes.rejectedWaiters.get() + outcomes.timeouts.get() + outcomes.borrowed.get() == outcomes.attempts.get(), "outcomes " + outcomes);
+        checkEquals(outcomes.rejectedWaiters.get(), pool.getRejectedBorrowCount(), "rejected borrow count");
+        checkEquals(0, pool.getNumWaiters(), "numWaiters");
+        pool.close();
+    }
+
+    /**
+     * 对象一直不归还时，等待队列中的借用者不应全部等到超时
+     */
+    static void testShedWhenBackendStalls() throws Exception {
+        GenericObjectPoolConfig config = newConfig(1);
+        config.setShedOnEstimatedWait(true);
+        GenericObjectPool<Object> pool = new GenericObjectPool<Object>(new CountingFactory(), config);
+        Object held = pool.borrowObject();
+        Outcomes outcomes = borrowConcurrently(pool, 20, 3000, 1000, 0);
+        pool.returnObject(held);
+        checkEquals(0, outcomes.borrowed.get(), "borrowed while the object was held");
+        check(outcomes.rejectedEstimate.get() > 0, "no borrower was rejected: " + outcomes);
+        // The first wave of borrowers finds no history and waits out its
+        // timeout; after that only the first borrower of an empty queue waits
+        check(outcomes.timeouts.get() <= 20 + 3, "too many borrowers waited out their timeout: " + outcomes);
+        // With nobody waiting, the estimate is one service interval: about a timeout
+        check(pool.getEstimatedBorrowWaitMillis() >= 900, "estimated wait " + pool.getEstimatedBorrowWaitMillis() + " ms");
+        checkEquals(0, pool.getNumWaiters(), "numWaiters");
+        pool.close();
+    }
+
+    /**
+     * 对象很快被归还时，不拒绝任何借用者
+     */
+    static void testNoSheddingWhenHealthy() throws Exception {
+        GenericObjectPoolConfig config = newConfig(2);
+        config.setShedOnEstimatedWait(true);
+        GenericObjectPool<Object> pool = new GenericObjectPool<Object>(new CountingFactory(), config);
+        Outcomes outcomes = borrowConcurrently(pool, 8, 1000, 1000, 1);
+        checkEquals(0, outcomes.rejectedEstimate.get() + outcomes.rejectedWaiters.get(), "rejections");
+        checkEquals(0, outcomes.timeouts.get(), "timeouts");
+        check(pool.getEstimatedBorrowWaitMillis() < 1000, "estimated wait " + pool.getEstimatedBorrowWaitMillis() + " ms");
+        pool.close();
+    }
+
+    /**
+     * 溢出对象不超过maxOverflow，归还时被销毁
+     */
+    static void testOverflowBoundedAndDestroyedOnReturn() throws Exception {
+        GenericObjectPoolConfig config = newConfig(2);
+        config.setMaxOverflow(2);
+        config.setOverflowWaitThresholdMillis(20);
+        config.setMaxOverflowCreatesPerSecond(0);
+        CountingFactory factory = new CountingFactory();
+        GenericObjectPool<Object> pool = new GenericObjectPool<Object>(factory, config);
+        Object[] regular = { pool.borrowObject(), pool.borrowObject() };
+        Object[] overflow = { pool.borrowObject(500), pool.borrowObject(500) };
+        checkEquals(2, pool.getNumOverflow(), "overflow objects");
+        try {
+            pool.borrowObject(200);
+            check(false, "borrowed more than maxTotal + maxOverflow objects");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        checkEquals(4, factory.maxLive.get(), "max live objects");
+        for (Object obj : overflow) {
+            pool.returnObject(obj);
+        }
+        checkEquals(0, pool.getNumOverflow(), "overflow objects after return");
+        checkEquals(0, pool.getNumIdle(), "numIdle after returning the overflow objects");
+        checkEquals(2, factory.live.get(), "live objects after returning the overflow objects");
+        for (Object obj : regular) {
+            pool.returnObject(obj);
+        }
+        checkEquals(2, pool.getNumIdle(), "numIdle");
+        checkEquals(2, pool.getOverflowCreatedCount(), "overflow objects created");
+        pool.close();
+    }
+
+    static void testOverflowRateLimited() throws Exception {
+        GenericObjectPoolConfig config = newConfig(1);
+        config.setMaxOverflow(100);
+        config.setOverflowWaitThresholdMillis(5);
+        config.setMaxOverflowCreatesPerSecond(5);
+        GenericObjectPool<Object> pool = new GenericObjectPool<Object>(new CountingFactory(), config);
+        Object held = pool.borrowObject();
+        int timeouts = 0;
+        long end = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < end) {
+            try {
+                pool.returnObject(pool.borrowObject(20));
+            } catch (NoSuchElementException e) {
+                timeouts++;
+            }
+        }
+        long created = pool.getOverflowCreatedCount();
+        check(created >= 2 && created <= 7, created + " overflow objects created in 1 s at 5 per second");
+        check(timeouts > 0, "no borrower timed out");
+        checkEquals(0, pool.getNumOverflow(), "overflow objects");
+        pool.returnObject(held);
+        pool.close();
+    }
+
+    static final class Outcomes {
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger borrowed = new AtomicInteger();
+        final AtomicInteger timeouts = new AtomicInteger();
+        final AtomicInteger rejectedWaiters = new AtomicInteger();
+        final AtomicInteger rejectedEstimate = new AtomicInteger();
+
+        @Override
+        public String toString() {
+            return "attempts=" + attempts + " borrowed=" + borrowed + " timeouts=" + timeouts + " rejectedWaiters=" + rejectedWaiters
+                    + " rejectedEstimate=" + rejectedEstimate;
+        }
+    }
+
+    /**
+     * 多个线程在给定时间内反复借用，借到的对象持有holdMillis后归还；被拒绝的线程稍后重试
+     */
+    static Outcomes borrowConcurrently(final GenericObjectPool<Object> pool, int threads, final long durationMillis, final long maxWaitMillis,
+            final long holdMillis) throws Exception {
+        final Outcomes outcomes = new Outcomes();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final long end = System.currentTimeMillis() + durationMillis;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            outcomes.attempts.incrementAndGet();
+                            try {
+                                Object obj = pool.borrowObject(maxWaitMillis);
+                                outcomes.borrowed.incrementAndGet();
+                                Thread.sleep(holdMillis);
+                                pool.returnObject(obj);
+                            } catch (BorrowRejectedException e) {
+                                check(e.getStackTrace().length == 0, "rejection has a stack trace");
+                                if (e.getReason() == BorrowRejectedException.Reason.TOO_MANY_WAITERS) {
+                                    outcomes.rejectedWaiters.incrementAndGet();
+                                } else {
+                                    outcomes.rejectedEstimate.incrementAndGet();
+                                }
+                                Thread.sleep(10);
+                            } catch (NoSuchElementException e) {
+                                outcomes.timeouts.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return outcomes;
+    }
+
+    static class CountingFactory extends BasePooledObjectFactory<Object> {
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicInteger maxLive = new AtomicInteger();
+
+        @Override
+        public Object create() {
+            int n = live.incrementAndGet();
+            int max;
+            while ((max = maxLive.get()) < n && !maxLive.compareAndSet(max, n)) {
+                // retry
+            }
+            return new Object();
+        }
+
+        @Override
+        public PooledObject<Object> wrap(Object obj) {
+            return new DefaultPooledObject<Object>(obj);
+        }
+
+        @Override
+        public void destroyObject(PooledObject<Object> p) {
+            live.decrementAndGet();
+        }
+    }
+}
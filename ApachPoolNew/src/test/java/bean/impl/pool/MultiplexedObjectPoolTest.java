@@ -0,0 +1,190 @@
+package bean.impl.pool;
+
+import static bean.impl.pool.PoolAssert.check;
+import static bean.impl.pool.PoolAssert.checkEquals;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MultiplexedObjectPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        testLoadBoundedUnderConcurrentBorrows();
+        testLeastLoadedObjectIsBorrowed();
+        testWaitTimesOutWhenSaturated();
+        testInvalidatedObjectDestroyedAfterLastBorrow();
+        testCloseWithOutstandingBorrows();
+        System.out.println("MultiplexedObjectPoolTest passed");
+    }
+
+    /**
+     * 多线程并发借还并随机作废对象时，每个对象同时服务的借用数不超过maxConcurrentBorrows，结束后计数一致
+     */
+    static void testLoadBoundedUnderConcurrentBorrows() throws Exception {
+        final int maxTotal = 3;
+        final int maxConcurrentBorrows = 4;
+        GenericObjectPoolTest.CountingFactory factory = new GenericObjectPoolTest.CountingFactory();
+        final MultiplexedObjectPool<Object> pool = new MultiplexedObjectPool<Object>(factory, maxTotal, maxConcurrentBorrows);
+        pool.setMaxWaitMillis(1000);
+        final ConcurrentHashMap<Object, AtomicInteger> loads = new ConcurrentHashMap<Object, AtomicInteger>();
+        final AtomicInteger maxLoad = new AtomicInteger();
+        final AtomicInteger timeouts = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[16];
+        for (int i = 0; i < workers.length; i++) {
+            final int seed = i;
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int k = 0; k < 2000; k++) {
+                            Object obj;
+                            try {
+                                obj = pool.borrowObject();
+                            } catch (NoSuchElementException e) {
+                                timeouts.incrementAndGet();
+                                continue;
+                            }
+                            AtomicInteger load = loads.get(obj);
+                            if (load == null) {
+                                AtomicInteger newLoad = new AtomicInteger();
+                                load = loads.putIfAbsent(obj, newLoad);
+                                if (load == null) {
+                                    load = newLoad;
+                                }
+                            }
+                            int n = load.incrementAndGet();
+                            int max;
+                            while ((max = maxLoad.get()) < n && !maxLoad.compareAndSet(max, n)) {
+                                // retry
+                            }
+                            Thread.yield();
+                            load.decrementAndGet();
+                            if ((seed * 7 + k) % 97 == 0) {
+                                pool.invalidateObject(obj);
+                            } else {
+                                pool.returnObject(obj);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        check(maxLoad.get() <= maxConcurrentBorrows, "an object served " + maxLoad.get() + " borrows at once");
+        check(factory.maxLive.get() <= maxTotal, "maxTotal exceeded: " + factory.maxLive.get() + " live objects");
+        checkEquals(0, timeouts.get(), "timed out borrows");
+        check(pool.getDestroyedCount() > 0, "no invalidated object was destroyed");
+        checkEquals(0, pool.getNumBorrows(), "numBorrows");
+        checkEquals(0, pool.getNumActive(), "numActive");
+        checkEquals(0, pool.getNumWaiters(), "numWaiters");
+        checkEquals(factory.live.get(), pool.getNumIdle(), "numIdle");
+        checkEquals(pool.getCreatedCount() - pool.getDestroyedCount(), factory.live.get(), "created - destroyed");
+        pool.close();
+        checkEquals(0, factory.live.get(), "live objects after close");
+        checkEquals(pool.getCreatedCount(), pool.getDestroyedCount(), "destroyed count after close");
+    }
+
+    /**
+     * 新对象只在所有对象都饱和时创建，借用总是落在负载最低的对象上
+     */
+    static void testLeastLoadedObjectIsBorrowed() throws Exception {
+        GenericObjectPoolTest.CountingFactory factory = new GenericObjectPoolTest.CountingFactory();
+        MultiplexedObjectPool<Object> pool = new MultiplexedObjectPool<Object>(factory, 2, 3);
+        Object a = pool.borrowObject();
+        check(a == pool.borrowObject() && a == pool.borrowObject(), "a second object was created while the first had spare capacity");
+        Object b = pool.borrowObject();
+        check(a != b, "a saturated object was borrowed");
+        // a serves two borrows, b one
+        pool.returnObject(a);
+        check(pool.borrowObject() == b, "the more loaded object was borrowed");
+        checkEquals(2, pool.getCreatedCount(), "created count");
+        checkEquals(4, pool.getNumBorrows(), "numBorrows");
+        checkEquals(2, pool.getNumActive(), "numActive");
+        pool.returnObject(a);
+        pool.returnObject(a);
+        pool.returnObject(b);
+        pool.returnObject(b);
+        checkEquals(2, pool.getNumIdle(), "numIdle");
+        pool.close();
+        checkEquals(0, factory.live.get(), "live objects after close");
+    }
+
+    static void testWaitTimesOutWhenSaturated() throws Exception {
+        MultiplexedObjectPool<Object> pool = new MultiplexedObjectPool<Object>(new GenericObjectPoolTest.CountingFactory(), 1, 1);
+        pool.setMaxWaitMillis(100);
+        Object held = pool.borrowObject();
+        long start = System.currentTimeMillis();
+        try {
+            pool.borrowObject();
+            check(false, "borrowed from a saturated pool");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        long waited = System.currentTimeMillis() - start;
+        check(waited >= 90 && waited < 1000, "waited " + waited + " ms for a 100 ms timeout");
+        checkEquals(0, pool.getNumWaiters(), "numWaiters");
+        pool.returnObject(held);
+        pool.close();
+    }
+
+    /**
+     * 作废的对象不再接受新的借用，最后一个借用结束时被销毁
+     */
+    static void testInvalidatedObjectDestroyedAfterLastBorrow() throws Exception {
+        GenericObjectPoolTest.CountingFactory factory = new GenericObjectPoolTest.CountingFactory();
+        MultiplexedObjectPool<Object> pool = new MultiplexedObjectPool<Object>(factory, 2, 3);
+        Object a = pool.borrowObject();
+        pool.borrowObject();
+        pool.invalidateObject(a);
+        checkEquals(1, factory.live.get(), "live objects while the invalidated object is borrowed");
+        Object b = pool.borrowObject();
+        check(a != b, "an invalidated object was borrowed");
+        pool.returnObject(a);
+        checkEquals(1, pool.getDestroyedCount(), "destroyed count");
+        try {
+            pool.returnObject(a);
+            check(false, "returned a destroyed object");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        pool.returnObject(b);
+        checkEquals(1, factory.live.get(), "live objects");
+        checkEquals(pool.getCreatedCount() - pool.getDestroyedCount(), factory.live.get(), "created - destroyed");
+        pool.close();
+    }
+
+    /**
+     * 关闭时仍被借用的对象在最后一个借用结束时销毁
+     */
+    static void testCloseWithOutstandingBorrows() throws Exception {
+        GenericObjectPoolTest.CountingFactory factory = new GenericObjectPoolTest.CountingFactory();
+        MultiplexedObjectPool<Object> pool = new MultiplexedObjectPool<Object>(factory, 2, 2);
+        pool.addObject();
+        Object a = pool.borrowObject();
+        Object a2 = pool.borrowObject();
+        pool.close();
+        checkEquals(1, factory.live.get(), "live objects after close");
+        try {
+            pool.borrowObject();
+            check(false, "borrowed from a closed pool");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        pool.returnObject(a);
+        checkEquals(1, factory.live.get(), "live objects with one borrow left");
+        pool.invalidateObject(a2);
+        checkEquals(0, factory.live.get(), "live objects after the last borrow");
+        checkEquals(pool.getCreatedCount(), pool.getDestroyedCount(), "destroyed count");
+    }
+}
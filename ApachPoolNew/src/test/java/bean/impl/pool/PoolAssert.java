@@ -0,0 +1,22 @@
+package bean.impl.pool;
+
+/**
+ * 测试用的断言，失败时抛出AssertionError，不依赖-ea参数
+ */
+final class PoolAssert {
+
+    private PoolAssert() {
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    static void checkEquals(long expected, long actual, String message) {
+        if (expected != actual) {
+            throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package bean.impl.pool;
+
+import static bean.impl.pool.PoolAssert.check;
+import static bean.impl.pool.PoolAssert.checkEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import config.pool.impl.ArrayPoolConfig;
+
+public class PrimitiveArrayPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        testLengthClassesAndReuse();
+        testDepotIsBounded();
+        testConcurrentArraysAreNotShared();
+        testClose();
+        System.out.println("PrimitiveArrayPoolTest passed");
+    }
+
+    static ArrayPoolConfig newConfig() {
+        ArrayPoolConfig config = new ArrayPoolConfig();
+        config.setMinArrayLength(16);
+        config.setMaxArrayLength(1024);
+        config.setMagazineSize(2);
+        config.setMaxDepotMagazines(1);
+        return config;
+    }
+
+    static void testLengthClassesAndReuse() {
+        LongArrayPool pool = new LongArrayPool(newConfig());
+        checkEquals(16, pool.acquire(0).length, "length of an empty request");
+        long[] a = pool.acquire(17);
+        checkEquals(32, a.length, "length of a 17 element request");
+        pool.release(a);
+        check(pool.acquire(20) == a, "a released array was not reused");
+        long[] big = pool.acquire(2000);
+        checkEquals(2000, big.length, "length of an oversized array");
+        pool.release(big);
+        check(pool.acquire(2000) != big, "an oversized array was recycled");
+        checkEquals(2, pool.getOversizeCount(), "oversize count");
+        checkEquals(5, pool.getAcquireCount(), "acquire count");
+        checkEquals(4, pool.getMissCount(), "miss count");
+        try {
+            pool.release(new long[20]);
+            check(false, "released an array of no length class");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        checkEquals(64, new ByteArrayPool(newConfig()).acquire(33).length, "length of a byte array");
+        checkEquals(64, new CharArrayPool(newConfig()).acquire(33).length, "length of a char array");
+        pool.close();
+    }
+
+    /**
+     * 共享仓库最多保留maxDepotMagazines个满弹匣，多出的数组被丢弃
+     */
+    static void testDepotIsBounded() {
+        LongArrayPool pool = new LongArrayPool(newConfig());
+        List<long[]> held = new ArrayList<long[]>();
+        for (int i = 0; i < 10; i++) {
+            held.add(pool.acquire(16));
+        }
+        for (long[] array : held) {
+            pool.release(array);
+        }
+        pool.trimThreadCache();
+        checkEquals(2, pool.getDepotCountBySizeClass()[0], "depot count");
+        pool.acquire(16);
+        checkEquals(0, pool.getDepotCountBySizeClass()[0], "depot count after a thread took a magazine");
+        pool.close();
+    }
+
+    /**
+     * 多线程并发借还时，同一个数组不会同时交给两个使用者
+     */
+    static void testConcurrentArraysAreNotShared() throws Exception {
+        final ByteArrayPool pool = new ByteArrayPool(newConfig());
+        final int iterations = 5000;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[8];
+        for (int i = 0; i < workers.length; i++) {
+            final byte id = (byte) (i + 1);
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int k = 0; k < iterations; k++) {
+                            byte[] a = pool.acquire((k * 37 + id) % 1024);
+                            byte[] b = pool.acquire((k * 91 + id) % 1024);
+                            Arrays.fill(a, id);
+                            Arrays.fill(b, (byte) -id);
+                            Thread.yield();
+                            verify(a, id);
+                            verify(b, (byte) -id);
+                            pool.release(b);
+                            pool.release(a);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Thread reclaimer = new Thread() {
+            @Override
+            public void run() {
+                pool.release(pool.acquire(1));
+            }
+        };
+        reclaimer.start();
+        reclaimer.join();
+        checkEquals(workers.length * iterations * 2 + 1, pool.getAcquireCount(), "acquire count");
+        check(pool.getHitRate() > 0.5d, "hit rate " + pool.getHitRate());
+        pool.close();
+    }
+
+    static void testClose() {
+        CharArrayPool pool = new CharArrayPool(newConfig());
+        char[] array = pool.acquire(16);
+        pool.close();
+        try {
+            pool.acquire(16);
+            check(false, "acquired from a closed pool");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        pool.release(array);
+        checkEquals(0, pool.getDepotCountBySizeClass()[0], "depot count after close");
+    }
+
+    static void verify(byte[] array, byte value) {
+        for (int i = 0; i < array.length; i++) {
+            checkEquals(value, array[i], "element " + i + " was overwritten by another borrower");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package bean.impl.pool;
+
+import static bean.impl.pool.PoolAssert.check;
+import static bean.impl.pool.PoolAssert.checkEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bean.inter.pool.KeyedObjectPool;
+import bean.inter.pool.ObjectPool;
+import config.pool.impl.GenericKeyedObjectPoolConfig;
+import config.pool.impl.GenericObjectPoolConfig;
+import util.Synchronize.ShardedKeyedObjectPool;
+import util.Synchronize.ShardedObjectPool;
+
+public class ShardedObjectPoolTest {
+
+    static final int SHARDS = 4;
+    static final int MAX_PER_SHARD = 4;
+
+    public static void main(String[] args) throws Exception {
+        testOneThreadUsesAllShards();
+        testConcurrentBorrowersShareCapacity();
+        testKeyedOneThreadUsesAllShards();
+        System.out.println("ShardedObjectPoolTest passed");
+    }
+
+    static ShardedObjectPool<Object> newPool(GenericObjectPoolTest.CountingFactory factory) {
+        List<ObjectPool<Object>> shards = new ArrayList<ObjectPool<Object>>();
+        for (int i = 0; i < SHARDS; i++) {
+            GenericObjectPoolConfig config = GenericObjectPoolTest.newConfig(MAX_PER_SHARD);
+            config.setBlockWhenExhausted(false);
+            shards.add(new GenericObjectPool<Object>(factory, config));
+        }
+        return new ShardedObjectPool<Object>(shards);
+    }
+
+    /**
+     * 本线程的分片达到上限后，从其他分片借用，所有分片的容量都能用上
+     */
+    static void testOneThreadUsesAllShards() throws Exception {
+        GenericObjectPoolTest.CountingFactory factory = new GenericObjectPoolTest.CountingFactory();
+        ShardedObjectPool<Object> pool = newPool(factory);
+        List<Object> borrowed = new ArrayList<Object>();
+        for (int i = 0; i < SHARDS * MAX_PER_SHARD; i++) {
+            borrowed.add(pool.borrowObject());
+        }
+        try {
+            pool.borrowObject();
+            check(false, "borrowed more objects than all shards allow");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        checkEquals(SHARDS * MAX_PER_SHARD, pool.getNumActive(), "numActive");
+        for (Object obj : borrowed) {
+            pool.returnObject(obj);
+        }
+        checkEquals(SHARDS * MAX_PER_SHARD, pool.getNumIdle(), "numIdle");
+        checkEquals(SHARDS * MAX_PER_SHARD, factory.live.get(), "live objects");
+        pool.close();
+        checkEquals(0, factory.live.get(), "live objects after close");
+    }
+
+    /**
+     * 借用线程数不超过所有分片的总容量时，没有借用因分片按线程划分而失败
+     */
+    static void testConcurrentBorrowersShareCapacity() throws Exception {
+        GenericObjectPoolTest.CountingFactory factory = new GenericObjectPoolTest.CountingFactory();
+        final ShardedObjectPool<Object> pool = newPool(factory);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[SHARDS * MAX_PER_SHARD];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int k = 0; k < 500; k++) {
+                            Object obj;
+                            try {
+                                obj = pool.borrowObject();
+                            } catch (NoSuchElementException e) {
+                                failures.incrementAndGet();
+                                continue;
+                            }
+                            Thread.yield();
+                            pool.returnObject(obj);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        checkEquals(0, failures.get(), "failed borrows");
+        check(factory.maxLive.get() <= SHARDS * MAX_PER_SHARD, "shard limits exceeded: " + factory.maxLive.get() + " live objects");
+        checkEquals(0, pool.getNumActive(), "numActive");
+        checkEquals(factory.live.get(), pool.getNumIdle(), "numIdle");
+        pool.close();
+    }
+
+    static void testKeyedOneThreadUsesAllShards() throws Exception {
+        GenericKeyedObjectPoolTest.CountingFactory factory = new GenericKeyedObjectPoolTest.CountingFactory();
+        List<KeyedObjectPool<String, Object>> shards = new ArrayList<KeyedObjectPool<String, Object>>();
+        for (int i = 0; i < SHARDS; i++) {
+            GenericKeyedObjectPoolConfig config = GenericKeyedObjectPoolTest.newConfig(-1);
+            config.setMaxTotalPerKey(MAX_PER_SHARD);
+            config.setBlockWhenExhausted(false);
+            shards.add(new GenericKeyedObjectPool<String, Object>(factory, config));
+        }
+        ShardedKeyedObjectPool<String, Object> pool = new ShardedKeyedObjectPool<String, Object>(shards);
+        List<Object> borrowed = new ArrayList<Object>();
+        for (int i = 0; i < SHARDS * MAX_PER_SHARD; i++) {
+            borrowed.add(pool.borrowObject("a"));
+        }
+        try {
+            pool.borrowObject("a");
+            check(false, "borrowed more objects of a than all shards allow");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        pool.returnObject("b", pool.borrowObject("b"));
+        for (Object obj : borrowed) {
+            pool.returnObject("a", obj);
+        }
+        checkEquals(SHARDS * MAX_PER_SHARD, pool.getNumIdle("a"), "idle objects of a");
+        checkEquals(SHARDS * MAX_PER_SHARD + 1, factory.live.get(), "live objects");
+        pool.close();
+    }
+}
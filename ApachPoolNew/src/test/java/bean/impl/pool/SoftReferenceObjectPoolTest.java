@@ -0,0 +1,131 @@
+package bean.impl.pool;
+
+import static bean.impl.pool.PoolAssert.check;
+import static bean.impl.pool.PoolAssert.checkEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SoftReferenceObjectPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        testReuseAndDestroy();
+        testCountersAfterConcurrentBorrows();
+        testCollectedObjectsAreUnlinked();
+        System.out.println("SoftReferenceObjectPoolTest passed");
+    }
+
+    static void testReuseAndDestroy() throws Exception {
+        GenericObjectPoolTest.CountingFactory factory = new GenericObjectPoolTest.CountingFactory();
+        SoftReferenceObjectPool<Object> pool = new SoftReferenceObjectPool<Object>(factory);
+        pool.addObject();
+        Object a = pool.borrowObject();
+        Object b = pool.borrowObject();
+        checkEquals(2, pool.getCreatedCount(), "created count");
+        pool.returnObject(a);
+        pool.returnObject(b);
+        check(pool.borrowObject() == b, "the most recently returned object was not borrowed first");
+        pool.invalidateObject(b);
+        checkEquals(1, pool.getDestroyedCount(), "destroyed count after invalidate");
+        checkEquals(1, pool.getNumIdle(), "numIdle");
+        Object c = pool.borrowObject();
+        pool.close();
+        checkEquals(1, factory.live.get(), "live objects after close with one borrowed");
+        pool.returnObject(c);
+        checkEquals(0, factory.live.get(), "live objects after returning to a closed pool");
+        checkEquals(pool.getCreatedCount(), pool.getDestroyedCount(), "destroyed count");
+    }
+
+    static void testCountersAfterConcurrentBorrows() throws Exception {
+        GenericObjectPoolTest.CountingFactory factory = new GenericObjectPoolTest.CountingFactory();
+        final SoftReferenceObjectPool<Object> pool = new SoftReferenceObjectPool<Object>(factory);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[8];
+        for (int i = 0; i < workers.length; i++) {
+            final int seed = i;
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int k = 0; k < 5000; k++) {
+                            Object obj = pool.borrowObject();
+                            if ((seed + k) % 50 == 0) {
+                                pool.invalidateObject(obj);
+                            } else {
+                                pool.returnObject(obj);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        checkEquals(0, pool.getNumActive(), "numActive");
+        checkCounters(pool, factory);
+        pool.close();
+        checkEquals(0, pool.getNumIdle(), "numIdle after close");
+        checkCounters(pool, factory);
+    }
+
+    /**
+     * 内存不足时被回收的空闲对象从空闲链表中移除，计入collectedCount，且不经过工厂销毁
+     */
+    static void testCollectedObjectsAreUnlinked() throws Exception {
+        GenericObjectPoolTest.CountingFactory factory = new GenericObjectPoolTest.CountingFactory();
+        SoftReferenceObjectPool<Object> pool = new SoftReferenceObjectPool<Object>(factory);
+        for (int i = 0; i < 100; i++) {
+            pool.addObject();
+        }
+        Object held = pool.borrowObject();
+        exhaustHeap();
+        // 被清除的引用由Reference Handler线程异步入队
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getNumIdle() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        checkEquals(0, pool.getNumIdle(), "numIdle after the heap ran low");
+        checkEquals(99, pool.getCollectedCount(), "collected count");
+        checkEquals(0, pool.getDestroyedCount(), "destroyed count");
+        checkCounters(pool, factory);
+        Object fresh = pool.borrowObject();
+        checkEquals(101, pool.getCreatedCount(), "created count");
+        pool.returnObject(fresh);
+        pool.returnObject(held);
+        checkEquals(2, pool.getNumIdle(), "numIdle");
+        pool.close();
+        checkCounters(pool, factory);
+    }
+
+    /**
+     * 所有对象要么空闲、借出，要么已被销毁或回收
+     */
+    static void checkCounters(SoftReferenceObjectPool<Object> pool, GenericObjectPoolTest.CountingFactory factory) {
+        checkEquals(pool.getCreatedCount(), pool.getDestroyedCount() + pool.getCollectedCount() + pool.getNumIdle() + pool.getNumActive(),
+                "created = destroyed + collected + idle + active");
+        checkEquals(pool.getCreatedCount() - pool.getDestroyedCount(), factory.live.get(), "created - destroyed");
+    }
+
+    /**
+     * 分配内存直到OutOfMemoryError，JVM在抛出之前会清除所有软引用
+     */
+    static void exhaustHeap() {
+        List<long[]> hog = new ArrayList<long[]>();
+        try {
+            while (true) {
+                hog.add(new long[8 * 1024 * 1024]);
+            }
+        } catch (OutOfMemoryError e) {
+            hog.clear();
+        }
+        System.gc();
+    }
+}
@@ -0,0 +1,102 @@
+package bean.impl.pool;
+
+import static bean.impl.pool.PoolAssert.check;
+import static bean.impl.pool.PoolAssert.checkEquals;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+
+import bean.impl.DefaultPooledObject;
+import bean.inter.PooledObject;
+import bean.inter.factory.BasePooledObjectFactory;
+
+public class ThreadConfinedObjectPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        testPoolCollectedWhileWorkerThreadLives();
+        testCountsAfterConcurrentBorrows();
+        System.out.println("ThreadConfinedObjectPoolTest passed");
+    }
+
+    /**
+     * 工作线程仍然存活时，它的ThreadLocal条目不能让已丢弃的池无法回收
+     */
+    static void testPoolCollectedWhileWorkerThreadLives() throws Exception {
+        final CountDownLatch used = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final ThreadConfinedObjectPool<Object>[] holder = newPoolHolder();
+        WeakReference<ThreadConfinedObjectPool<Object>> ref = new WeakReference<ThreadConfinedObjectPool<Object>>(holder[0]);
+        Thread worker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ThreadConfinedObjectPool<Object> pool = holder[0];
+                    pool.returnObject(pool.borrowObject());
+                    pool = null;
+                    used.countDown();
+                    finish.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        worker.start();
+        used.await();
+        holder[0] = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        boolean collected = ref.get() == null;
+        finish.countDown();
+        worker.join();
+        check(collected, "pool was not collected while its worker thread was alive");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ThreadConfinedObjectPool<Object>[] newPoolHolder() {
+        ThreadConfinedObjectPool<Object>[] holder = (ThreadConfinedObjectPool<Object>[]) new ThreadConfinedObjectPool<?>[1];
+        holder[0] = new ThreadConfinedObjectPool<Object>(new ObjectFactory(), 4, 2);
+        return holder;
+    }
+
+    static void testCountsAfterConcurrentBorrows() throws Exception {
+        final ThreadConfinedObjectPool<Object> pool = new ThreadConfinedObjectPool<Object>(new ObjectFactory(), 4, 2);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int k = 0; k < 10000; k++) {
+                        try {
+                            pool.returnObject(pool.borrowObject());
+                        } catch (Exception e) {
+                            // the pool is exhausted, try again
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        checkEquals(0, pool.getNumActive(), "numActive");
+        check(pool.getNumIdle() <= 4, "numIdle " + pool.getNumIdle() + " exceeds maxTotal");
+        checkEquals(pool.getCreatedCount() - pool.getDestroyedCount(), pool.getNumIdle(), "live objects");
+        pool.close();
+        checkEquals(pool.getCreatedCount(), pool.getDestroyedCount(), "objects destroyed by close");
+    }
+
+    static final class ObjectFactory extends BasePooledObjectFactory<Object> {
+        @Override
+        public Object create() {
+            return new Object();
+        }
+
+        @Override
+        public PooledObject<Object> wrap(Object obj) {
+            return new DefaultPooledObject<Object>(obj);
+        }
+    }
+}